@@ -0,0 +1,25 @@
+package com.a5000.platform.api.annotations.dto;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Target;
+
+/**
+ * Named set of the DTO fields to be converted from the domain object.
+ *
+ * Each profile is compiled into a constant of the conversion service (e.g. TEST_PROFILE_SUMMARY)
+ * which could be passed to the generated converter methods, getters of the fields missing in
+ * the profile are not invoked.
+ *
+ * @see {@link DtoProfiles}
+ */
+@Target(ElementType.TYPE)
+public @interface DtoProfile {
+
+    public String name();
+
+    /**
+     * Names of the DTO fields (e.g. relatedTestId for the association included as ID)
+     */
+    public String[] fields();
+
+}
@@ -0,0 +1,16 @@
+package com.a5000.platform.api.annotations.dto;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Target;
+
+/**
+ * Conversion profiles collection representation.
+ *
+ * @see {@link DtoProfile}
+ */
+@Target(ElementType.TYPE)
+public @interface DtoProfiles {
+
+    public DtoProfile[] value();
+
+}
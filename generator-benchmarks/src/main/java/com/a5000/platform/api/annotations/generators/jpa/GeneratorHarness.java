@@ -0,0 +1,70 @@
+package com.a5000.platform.api.annotations.generators.jpa;
+
+import com.thoughtworks.qdox.JavaDocBuilder;
+import com.thoughtworks.qdox.model.JavaClass;
+import org.apache.maven.monitor.logging.DefaultLog;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Drives a generator outside of Maven: classes of the entities are generated into the generator
+ * code model and written the same way as {@link AbstractGeneratorMojo#execute()} does, but without
+ * incremental state, reports and finishing of the aggregated classes.
+ *
+ * Lives in the package of the generators to reach their protected API.
+ */
+public class GeneratorHarness {
+
+    private final AbstractGeneratorMojo generator;
+
+    private final List<JavaClass> entities = new ArrayList<JavaClass>();
+
+    /**
+     * @param generator generator to drive, it must not be used before
+     * @param classesModel model the entities are taken from
+     * @param entityNames fully qualified names of the entities to generate classes for
+     * @param basePackage package of the entities, generated classes are placed into its subpackages
+     * @param outputDirectory directory to write generated classes into
+     */
+    public GeneratorHarness( AbstractGeneratorMojo generator, JavaDocBuilder classesModel,
+                             Collection<String> entityNames, String basePackage, File outputDirectory ) {
+        this.generator = generator;
+
+        generator.setLog( new DefaultLog( new ConsoleLogger( Logger.LEVEL_WARN, "generator" ) ) );
+        generator.setClassMetaBuilder(classesModel);
+        generator.outputPath = outputDirectory.getPath();
+        generator.basePackage = basePackage;
+        generator.daoPackage = basePackage;
+        generator.dtoPackage = basePackage;
+        generator.convertersPackage = basePackage;
+
+        for ( String entityName : entityNames ) {
+            JavaClass entityClass = classesModel.getClassByName(entityName);
+            if ( generator.isSupported(entityClass) ) {
+                entities.add(entityClass);
+            }
+        }
+    }
+
+    public List<JavaClass> getEntities() {
+        return Collections.unmodifiableList(entities);
+    }
+
+    public void generate() throws MojoExecutionException {
+        for ( JavaClass entityClass : entities ) {
+            generator.generateClass(entityClass);
+        }
+    }
+
+    public void write() throws MojoExecutionException {
+        generator.writeClasses();
+    }
+
+}
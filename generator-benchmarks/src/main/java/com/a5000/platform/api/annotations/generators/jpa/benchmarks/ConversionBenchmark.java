@@ -0,0 +1,278 @@
+package com.a5000.platform.api.annotations.generators.jpa.benchmarks;
+
+import com.a5000.platform.api.annotations.generators.jpa.mojo.GenAllMojo;
+import com.sun.codemodel.writer.FileCodeWriter;
+import com.thoughtworks.qdox.JavaDocBuilder;
+import com.thoughtworks.qdox.model.JavaClass;
+import org.apache.maven.monitor.logging.DefaultLog;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.codehaus.plexus.util.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulk conversion of the entities by the generated conversion service: sequential list conversion
+ * against the fork-join and the executor (virtual threads when the JVM has them) modes.
+ *
+ * DTOs and the conversion service of a small corpus are generated and compiled once per trial, the
+ * records refer one entity as ID and another one as DTO. With a positive {@code lazyLoadMicros}
+ * the records are subclasses (the way proxies are) which block in the getter of the DTO association,
+ * as a lazy load would do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConversionBenchmark {
+
+    private static final String SERVICE_CLASS_NAME = EntityCorpus.BASE_PACKAGE + ".DtoConversionService";
+
+    private static final String BLOCKING_ENTITY_NAME = "BlockingEntity0";
+
+    /**
+     * Classes the generated service refers, which are not the dependencies of the benchmarks
+     */
+    private static final String[][] STUB_SOURCES = new String[][] {
+            { "org/springframework/stereotype/Service.java",
+                    "package org.springframework.stereotype;\n"
+                    + "public @interface Service { String value() default \"\"; }\n" },
+            { "com/a5000/platform/api/model/domain/api/IStoredBean.java",
+                    "package com.a5000.platform.api.model.domain.api;\n"
+                    + "public interface IStoredBean { Long getId(); }\n" }
+    };
+
+    @State(Scope.Benchmark)
+    public static class ServiceState {
+
+        @Param({ "1000", "10000", "200000" })
+        public int records;
+
+        @Param({ "0" })
+        public int lazyLoadMicros;
+
+        @Param({ "1000" })
+        public int threshold;
+
+        @Param({ "256" })
+        public int chunkSize;
+
+        public Object service;
+
+        public List<Object> entities;
+
+        public ExecutorService executor;
+
+        private File directory;
+
+        private Method sequentialMethod;
+
+        private Method forkJoinMethod;
+
+        private Method executorMethod;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            directory = File.createTempFile( "conversion-benchmark", "" );
+            if ( !directory.delete() || !directory.mkdirs() ) {
+                throw new IOException("Failed to create directory " + directory );
+            }
+
+            ClassLoader classLoader = compile( generate() );
+            Class<?> serviceClass = classLoader.loadClass(SERVICE_CLASS_NAME);
+            service = serviceClass.newInstance();
+            sequentialMethod = serviceClass.getMethod( "convertToDtoList", Collection.class );
+            forkJoinMethod = serviceClass.getMethod( "convertToDtoListParallel", Collection.class, int.class,
+                    ForkJoinPool.class );
+            executorMethod = serviceClass.getMethod( "convertToDtoListConcurrently", Collection.class, int.class,
+                    java.util.concurrent.Executor.class );
+
+            entities = createEntities(classLoader);
+            executor = createExecutor();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            executor.shutdownNow();
+            FileUtils.deleteDirectory(directory);
+        }
+
+        public Object convertSequentially() throws Exception {
+            return sequentialMethod.invoke( service, entities );
+        }
+
+        public Object convertForkJoin() throws Exception {
+            return forkJoinMethod.invoke( service, entities, threshold, ForkJoinPool.commonPool() );
+        }
+
+        public Object convertOnExecutor() throws Exception {
+            return executorMethod.invoke( service, entities, chunkSize, executor );
+        }
+
+        /**
+         * @return source root with the corpus entities, generated DTOs and conversion service
+         */
+        private File generate() throws IOException, MojoExecutionException {
+            File sourceRoot = new File( directory, "src" );
+            List<String> entityNames = new EntityCorpus( 3, 0, 2, 0, 0 ).write(sourceRoot);
+
+            JavaDocBuilder classesModel = new JavaDocBuilder();
+            classesModel.addSourceTree(sourceRoot);
+            List<JavaClass> entityClasses = new ArrayList<JavaClass>();
+            for ( String entityName : entityNames ) {
+                entityClasses.add( classesModel.getClassByName(entityName) );
+            }
+
+            new ConversionServiceGenerator().generate( classesModel, entityClasses, new FileCodeWriter(sourceRoot) );
+
+            for ( String[] stub : STUB_SOURCES ) {
+                writeSource( sourceRoot, stub[0], stub[1] );
+            }
+
+            writeSource( sourceRoot, EntityCorpus.BASE_PACKAGE.replace( '.', '/' ) + "/" + BLOCKING_ENTITY_NAME + ".java",
+                    "package " + EntityCorpus.BASE_PACKAGE + ";\n"
+                    + "public class " + BLOCKING_ENTITY_NAME + " extends Entity0 {\n"
+                    + "    private final long latency;\n"
+                    + "    public " + BLOCKING_ENTITY_NAME + "( long latency ) { this.latency = latency; }\n"
+                    + "    public Entity2 getField0Related1() {\n"
+                    + "        java.util.concurrent.locks.LockSupport.parkNanos(latency);\n"
+                    + "        return super.getField0Related1();\n"
+                    + "    }\n"
+                    + "}\n" );
+
+            return sourceRoot;
+        }
+
+        private ClassLoader compile( File sourceRoot ) throws IOException {
+            File classesDirectory = new File( directory, "classes" );
+            if ( !classesDirectory.mkdirs() ) {
+                throw new IOException("Failed to create directory " + classesDirectory );
+            }
+
+            List<String> arguments = new ArrayList<String>( Arrays.asList( "-nowarn", "-d", classesDirectory.getPath(),
+                    "-cp", System.getProperty("java.class.path") ) );
+            // DAOs need Spring Data
+            for ( Object fileName : FileUtils.getFileNames( sourceRoot, "**/*.java", "**/*DAO.java", true ) ) {
+                arguments.add( String.valueOf(fileName) );
+            }
+
+            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+            if ( compiler == null ) {
+                throw new IllegalStateException("Java compiler is not available, benchmarks should be run on JDK");
+            }
+
+            if ( compiler.run( null, null, null, arguments.toArray( new String[arguments.size()] ) ) != 0 ) {
+                throw new IllegalStateException("Failed to compile the generated conversion service");
+            }
+
+            return new URLClassLoader( new URL[] { classesDirectory.toURI().toURL() },
+                    ConversionBenchmark.class.getClassLoader() );
+        }
+
+        private List<Object> createEntities( ClassLoader classLoader ) throws Exception {
+            String packagePrefix = EntityCorpus.BASE_PACKAGE + ".";
+            Class<?> recordClass = classLoader.loadClass( packagePrefix + "Entity0" );
+            Class<?> idRelationClass = classLoader.loadClass( packagePrefix + "Entity1" );
+            Class<?> dtoRelationClass = classLoader.loadClass( packagePrefix + "Entity2" );
+            Class<?> blockingClass = classLoader.loadClass( packagePrefix + BLOCKING_ENTITY_NAME );
+
+            List<Object> result = new ArrayList<Object>(records);
+            for ( int i = 0; i < records; i++ ) {
+                Object record = lazyLoadMicros > 0
+                        ? blockingClass.getConstructor(long.class).newInstance( TimeUnit.MICROSECONDS.toNanos(lazyLoadMicros) )
+                        : recordClass.newInstance();
+                setProperty( record, "Id", Long.class, (long) i );
+                setProperty( record, "Field0Name", String.class, "name" + i );
+                setProperty( record, "Field0Created", Date.class, new Date() );
+
+                Object idRelation = idRelationClass.newInstance();
+                setProperty( idRelation, "Id", Long.class, (long) i );
+                setProperty( record, "Field0Related0", idRelationClass, idRelation );
+
+                Object dtoRelation = dtoRelationClass.newInstance();
+                setProperty( dtoRelation, "Id", Long.class, (long) i );
+                setProperty( dtoRelation, "Field2Name", String.class, "related" + i );
+                setProperty( record, "Field0Related1", dtoRelationClass, dtoRelation );
+
+                result.add(record);
+            }
+
+            return result;
+        }
+
+    }
+
+    @Benchmark
+    public Object sequential( ServiceState state ) throws Exception {
+        return state.convertSequentially();
+    }
+
+    @Benchmark
+    public Object forkJoin( ServiceState state ) throws Exception {
+        return state.convertForkJoin();
+    }
+
+    @Benchmark
+    public Object executor( ServiceState state ) throws Exception {
+        return state.convertOnExecutor();
+    }
+
+    /**
+     * Virtual thread per chunk on JDK 21+, pool of platform threads otherwise
+     */
+    private static ExecutorService createExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch ( Exception e ) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private static void setProperty( Object target, String name, Class<?> type, Object value ) throws Exception {
+        target.getClass().getMethod( "set" + name, type ).invoke( target, value );
+    }
+
+    private static void writeSource( File sourceRoot, String path, String source ) throws IOException {
+        File file = new File( sourceRoot, path );
+        if ( !file.getParentFile().isDirectory() && !file.getParentFile().mkdirs() ) {
+            throw new IOException("Failed to create directory " + file.getParentFile() );
+        }
+
+        Writer writer = new OutputStreamWriter( new FileOutputStream(file), "UTF-8" );
+        try {
+            writer.write(source);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Generates the bulk conversion methods and writes nothing besides the classes (no reports or state)
+     */
+    public static class ConversionServiceGenerator extends GenAllMojo {
+
+        public ConversionServiceGenerator() {
+            setLog( new DefaultLog( new ConsoleLogger( Logger.LEVEL_WARN, "generator" ) ) );
+            basePackage = EntityCorpus.BASE_PACKAGE;
+            daoPackage = EntityCorpus.BASE_PACKAGE;
+            dtoPackage = EntityCorpus.BASE_PACKAGE;
+            convertersPackage = EntityCorpus.BASE_PACKAGE;
+            parallelConversionEnabled = true;
+        }
+
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.a5000.platform.api.annotations.generators.jpa.benchmarks;
+
+import com.thoughtworks.qdox.JavaDocBuilder;
+import org.codehaus.plexus.util.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Synthetic entities corpus written into a temporary source root once per trial, together with
+ * its classes model parsed in advance for the benchmarks which do not measure parsing.
+ */
+@State(Scope.Benchmark)
+public class CorpusState {
+
+    @Param({ "100", "1000", "10000" })
+    public int entities;
+
+    @Param({ "2" })
+    public int inheritanceDepth;
+
+    @Param({ "2" })
+    public int includeFanOut;
+
+    @Param({ "2" })
+    public int queriesPerEntity;
+
+    @Param({ "1" })
+    public int syntheticFields;
+
+    public File directory;
+
+    public File sourceRoot;
+
+    public List<String> entityNames;
+
+    public JavaDocBuilder classesModel;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = File.createTempFile( "generator-benchmark", "" );
+        if ( !directory.delete() || !directory.mkdirs() ) {
+            throw new IOException("Failed to create directory " + directory );
+        }
+
+        sourceRoot = new File( directory, "src" );
+        entityNames = new EntityCorpus( entities, inheritanceDepth, includeFanOut, queriesPerEntity, syntheticFields )
+                .write(sourceRoot);
+
+        classesModel = parse();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public JavaDocBuilder parse() {
+        JavaDocBuilder builder = new JavaDocBuilder();
+        builder.addSourceTree(sourceRoot);
+        return builder;
+    }
+
+    /**
+     * @return new empty directory for the generated classes
+     */
+    public File createOutputDirectory() throws IOException {
+        File result = new File( directory, "generated" );
+        FileUtils.deleteDirectory(result);
+        if ( !result.mkdirs() ) {
+            throw new IOException("Failed to create directory " + result );
+        }
+
+        return result;
+    }
+
+}
@@ -0,0 +1,165 @@
+package com.a5000.platform.api.annotations.generators.jpa.benchmarks;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Synthetic set of JPA entities to feed the generators with.
+ *
+ * Entities form inheritance chains of the given depth (the chain root owns the {@code @Id}), every
+ * entity refers the given number of other entities through {@code @DtoInclude} relations, declares
+ * the given number of {@code @NativeQuery} and {@code @DtoExtend} synthetic fields.
+ */
+public class EntityCorpus {
+
+    public static final String BASE_PACKAGE = "bench.model";
+
+    private static final String ENTITY_NAME_PREFIX = "Entity";
+
+    private final int entitiesCount;
+
+    private final int inheritanceDepth;
+
+    private final int includeFanOut;
+
+    private final int queriesPerEntity;
+
+    private final int syntheticFields;
+
+    /**
+     * @param entitiesCount total count of the entities
+     * @param inheritanceDepth count of the superclasses above the deepest entity of a chain
+     * @param includeFanOut count of the {@code @DtoInclude} relations of every entity
+     * @param queriesPerEntity count of the {@code @NativeQuery} declared by every entity
+     * @param syntheticFields count of the {@code @DtoExtend} fields declared by every entity
+     */
+    public EntityCorpus( int entitiesCount, int inheritanceDepth, int includeFanOut,
+                         int queriesPerEntity, int syntheticFields ) {
+        this.entitiesCount = entitiesCount;
+        this.inheritanceDepth = inheritanceDepth;
+        this.includeFanOut = includeFanOut;
+        this.queriesPerEntity = queriesPerEntity;
+        this.syntheticFields = syntheticFields;
+    }
+
+    /**
+     * Writes entities sources under the given source root
+     *
+     * @return fully qualified names of the written entities
+     */
+    public List<String> write( File sourceRoot ) throws IOException {
+        File packageDirectory = new File( sourceRoot, BASE_PACKAGE.replace( '.', File.separatorChar ) );
+        if ( !packageDirectory.isDirectory() && !packageDirectory.mkdirs() ) {
+            throw new IOException("Failed to create directory " + packageDirectory );
+        }
+
+        List<String> result = new ArrayList<String>();
+        for ( int i = 0; i < entitiesCount; i++ ) {
+            Writer writer = new OutputStreamWriter(
+                    new FileOutputStream( new File( packageDirectory, getEntityName(i) + ".java" ) ), "UTF-8" );
+            try {
+                writer.write( generateEntity(i) );
+            } finally {
+                writer.close();
+            }
+
+            result.add( BASE_PACKAGE + "." + getEntityName(i) );
+        }
+
+        return Collections.unmodifiableList(result);
+    }
+
+    protected String generateEntity( int index ) {
+        String name = getEntityName(index);
+        boolean chainRoot = index % ( inheritanceDepth + 1 ) == 0;
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("package ").append(BASE_PACKAGE).append(";\n\n");
+        builder.append("import com.a5000.platform.api.annotations.dto.AggregationType;\n");
+        builder.append("import com.a5000.platform.api.annotations.dto.DtoExtend;\n");
+        builder.append("import com.a5000.platform.api.annotations.dto.DtoInclude;\n");
+        builder.append("import com.a5000.platform.api.annotations.generators.NativeQueries;\n");
+        builder.append("import com.a5000.platform.api.annotations.generators.NativeQuery;\n");
+        builder.append("import com.a5000.platform.api.annotations.generators.Parameter;\n\n");
+        builder.append("import javax.persistence.Entity;\n");
+        builder.append("import javax.persistence.Id;\n");
+        builder.append("import javax.persistence.ManyToOne;\n");
+        builder.append("import java.util.Date;\n\n");
+
+        builder.append("@Entity\n");
+        if ( queriesPerEntity > 0 ) {
+            builder.append("@NativeQueries({\n");
+            for ( int i = 0; i < queriesPerEntity; i++ ) {
+                builder.append("    @NativeQuery(\n")
+                       .append("        name = \"findByName").append(i).append("\",\n")
+                       .append("        value = \"select x from ").append(name)
+                            .append(" x where x.name = :name").append(i).append("\",\n")
+                       .append("        resultType = ").append(name).append(".class,\n")
+                       .append("        parameters = {\n")
+                       .append("            @Parameter( value = \"name").append(i).append("\", type = String.class )\n")
+                       .append("        }\n")
+                       .append("    )").append( i + 1 < queriesPerEntity ? ",\n" : "\n" );
+            }
+            builder.append("})\n");
+        }
+
+        if ( syntheticFields > 0 ) {
+            builder.append("@DtoExtend({\n");
+            for ( int i = 0; i < syntheticFields; i++ ) {
+                builder.append("    @Parameter( value = \"").append( getSyntheticFieldName(index, i) )
+                       .append("\", type = Long.class )").append( i + 1 < syntheticFields ? ",\n" : "\n" );
+            }
+            builder.append("})\n");
+        }
+
+        builder.append("public class ").append(name);
+        if ( !chainRoot ) {
+            builder.append(" extends ").append( getEntityName( index - 1 ) );
+        }
+        builder.append(" {\n\n");
+
+        if ( chainRoot ) {
+            builder.append("    @Id\n    private Long id;\n\n");
+            appendAccessors( builder, "Long", "id" );
+        }
+
+        String prefix = "field" + index;
+        builder.append("    private String ").append(prefix).append("Name;\n\n");
+        appendAccessors( builder, "String", prefix + "Name" );
+        builder.append("    private Date ").append(prefix).append("Created;\n\n");
+        appendAccessors( builder, "Date", prefix + "Created" );
+
+        for ( int i = 0; i < includeFanOut; i++ ) {
+            String relatedName = getEntityName( ( index + i + 1 ) % entitiesCount );
+            String fieldName = prefix + "Related" + i;
+            builder.append("    @ManyToOne\n")
+                   .append("    @DtoInclude(AggregationType.").append( i % 2 == 0 ? "ID" : "DTO" ).append(")\n")
+                   .append("    private ").append(relatedName).append(" ").append(fieldName).append(";\n\n");
+            appendAccessors( builder, relatedName, fieldName );
+        }
+
+        builder.append("}\n");
+        return builder.toString();
+    }
+
+    private static void appendAccessors( StringBuilder builder, String type, String fieldName ) {
+        String suffix = Character.toUpperCase( fieldName.charAt(0) ) + fieldName.substring(1);
+        builder.append("    public ").append(type).append(" get").append(suffix).append("() {\n")
+               .append("        return ").append(fieldName).append(";\n")
+               .append("    }\n\n")
+               .append("    public void set").append(suffix).append("( ").append(type).append(" value ) {\n")
+               .append("        this.").append(fieldName).append(" = value;\n")
+               .append("    }\n\n");
+    }
+
+    private static String getEntityName( int index ) {
+        return ENTITY_NAME_PREFIX + index;
+    }
+
+    private static String getSyntheticFieldName( int entityIndex, int index ) {
+        return "synthetic" + entityIndex + "x" + index;
+    }
+
+}
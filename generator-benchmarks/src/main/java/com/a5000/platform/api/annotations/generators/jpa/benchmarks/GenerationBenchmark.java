@@ -0,0 +1,100 @@
+package com.a5000.platform.api.annotations.generators.jpa.benchmarks;
+
+import com.a5000.platform.api.annotations.generators.jpa.AbstractGeneratorMojo;
+import com.a5000.platform.api.annotations.generators.jpa.GeneratorHarness;
+import com.a5000.platform.api.annotations.generators.jpa.mojo.GenDaoMojo;
+import com.a5000.platform.api.annotations.generators.jpa.mojo.GenDtoMojo;
+import com.a5000.platform.api.annotations.generators.jpa.mojo.GenJpaToDtoConverterMojo;
+import com.sun.codemodel.JClassAlreadyExistsException;
+import com.thoughtworks.qdox.model.JavaClass;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generation of the classes of all corpus entities by every goal, and writing of the generated
+ * code model into an empty output directory.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GenerationBenchmark {
+
+    @State(Scope.Thread)
+    public static class GeneratorState {
+
+        @Param({ "gen-dao", "gen-dto", "gen-jpa-converter" })
+        public String goal;
+
+        public GeneratorHarness harness;
+
+        @Setup(Level.Invocation)
+        public void setUp( CorpusState corpus ) throws IOException {
+            harness = new GeneratorHarness( createGenerator(goal), corpus.classesModel, corpus.entityNames,
+                    EntityCorpus.BASE_PACKAGE, corpus.createOutputDirectory() );
+        }
+
+    }
+
+    @State(Scope.Thread)
+    public static class GeneratedState {
+
+        @Param({ "gen-dao", "gen-dto", "gen-jpa-converter" })
+        public String goal;
+
+        public GeneratorHarness harness;
+
+        @Setup(Level.Invocation)
+        public void setUp( CorpusState corpus ) throws IOException, MojoExecutionException {
+            harness = new GeneratorHarness( createGenerator(goal), corpus.classesModel, corpus.entityNames,
+                    EntityCorpus.BASE_PACKAGE, corpus.createOutputDirectory() );
+            harness.generate();
+        }
+
+    }
+
+    @Benchmark
+    public void generateClasses( GeneratorState state ) throws MojoExecutionException {
+        state.harness.generate();
+    }
+
+    @Benchmark
+    public void writeClasses( GeneratedState state ) throws MojoExecutionException {
+        state.harness.write();
+    }
+
+    private static AbstractGeneratorMojo createGenerator( String goal ) {
+        if ( "gen-dao".equals(goal) ) {
+            return new GenDaoMojo();
+        } else if ( "gen-dto".equals(goal) ) {
+            return new GenDtoMojo();
+        } else if ( "gen-jpa-converter".equals(goal) ) {
+            return new ConverterGenerator();
+        }
+
+        throw new IllegalArgumentException("Unknown goal: " + goal );
+    }
+
+    /**
+     * Converter service class is defined by the goal execution, which the harness does not invoke
+     */
+    public static class ConverterGenerator extends GenJpaToDtoConverterMojo {
+
+        @Override
+        protected void generateClass( JavaClass entityClazz ) throws MojoExecutionException {
+            try {
+                init();
+            } catch ( JClassAlreadyExistsException e ) {
+                throw new MojoExecutionException( e.getMessage(), e );
+            }
+
+            super.generateClass(entityClazz);
+        }
+
+    }
+
+}
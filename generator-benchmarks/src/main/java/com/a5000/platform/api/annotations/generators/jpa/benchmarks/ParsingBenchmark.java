@@ -0,0 +1,49 @@
+package com.a5000.platform.api.annotations.generators.jpa.benchmarks;
+
+import com.a5000.platform.api.annotations.generators.jpa.CachingJavaDocBuilder;
+import com.a5000.platform.api.annotations.generators.jpa.ParsedSourceCache;
+import com.thoughtworks.qdox.JavaDocBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building of the classes model from the corpus sources: plain QDox parsing and replaying of
+ * the parsed sources cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParsingBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class CacheState {
+
+        public ParsedSourceCache cache;
+
+        @Setup(Level.Trial)
+        public void setUp( CorpusState corpus ) {
+            cache = new ParsedSourceCache( new File( corpus.directory, "cache" ) );
+
+            CachingJavaDocBuilder builder = new CachingJavaDocBuilder(cache);
+            builder.addSourceTree( corpus.sourceRoot );
+        }
+
+    }
+
+    @Benchmark
+    public JavaDocBuilder parseModel( CorpusState corpus ) {
+        return corpus.parse();
+    }
+
+    @Benchmark
+    public JavaDocBuilder replayCachedModel( CorpusState corpus, CacheState state ) {
+        CachingJavaDocBuilder builder = new CachingJavaDocBuilder( state.cache );
+        builder.addSourceTree( corpus.sourceRoot );
+        return builder;
+    }
+
+}
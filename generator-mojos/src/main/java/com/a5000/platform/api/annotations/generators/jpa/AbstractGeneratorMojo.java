@@ -4,20 +4,27 @@ import com.a5000.platform.api.annotations.generators.jpa.utils.StringUtils;
 import com.sun.codemodel.*;
 import com.thoughtworks.qdox.JavaDocBuilder;
 import com.thoughtworks.qdox.model.*;
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.codehaus.plexus.util.DirectoryScanner;
+import org.codehaus.plexus.util.FileUtils;
 
 import javax.persistence.*;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.URL;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 
-public abstract class AbstractGeneratorMojo extends AbstractMojo {
+public abstract class AbstractGeneratorMojo extends AbstractMojo implements Cloneable {
 
     public static final String DTO_GENERATOR_PREFIX = "";
     public static final String DTO_GENERATOR_SUFFIX = "dto";
@@ -33,6 +40,9 @@ public abstract class AbstractGeneratorMojo extends AbstractMojo {
             = "org.springframework.stereotype.Service";
     private static final String WELCOME_MESSAGE
             = "----------------------------   Generator: %s  --------------------------------------------";
+    private static final String STATE_DIRECTORY_NAME = "generator-state";
+    private static final String REPORTS_DIRECTORY_NAME = "generator-reports";
+    private static final String BINARY_SOURCE_DIGEST = "binary";
 
     public static final String DTO_EXCLUDE_ANNOTATION_CLASS_NAME = "DtoExclude";
     public static final String DTO_INCLUDE_ANNOTATION_CLASS_NAME = "DtoInclude";
@@ -49,7 +59,7 @@ public abstract class AbstractGeneratorMojo extends AbstractMojo {
     private static final String LONG_TYPE_NAME = "java.lang.Long";
     private static final String STRING_TYPE_NAME = "java.lang.String";
 
-    protected final JCodeModel codeModel;
+    protected JCodeModel codeModel;
     protected JavaDocBuilder classMetaBuilder;
 
     @Parameter( property = "outputPath", required = true, defaultValue = "target/")
@@ -88,8 +98,62 @@ public abstract class AbstractGeneratorMojo extends AbstractMojo {
     @Parameter( property = "convertersPackage", required = true )
     protected String convertersPackage;
 
+    /**
+     * Regenerate only entities which sources (or sources of their supertypes and
+     * included entities) has been changed since the previous run. Turned off unless configured,
+     * except for the 'watch' goal
+     */
+    @Parameter( property = "incremental" )
+    protected Boolean incremental;
+
+    /**
+     * Number of workers which will generate classes concurrently (for the generators which supports it)
+     */
+    @Parameter( property = "parallelism", defaultValue = "1" )
+    protected Integer parallelism = 1;
+
+    /**
+     * Write classes of every entity as soon as they have been generated instead of keeping the whole
+     * code model in memory till the end of the execution (for the generators which supports it)
+     */
+    @Parameter( property = "streamingEmission", defaultValue = "false" )
+    protected Boolean streamingEmission = false;
+
+    /**
+     * Save timings of the generation phases and entities into JSON report under the build directory
+     */
+    @Parameter( property = "timingReport", defaultValue = "true" )
+    protected Boolean timingReport = true;
+
+    /**
+     * Package metadata of the module entities (declarations, id types and DTO names) into the module
+     * classes, so generators of the dependent modules could take it instead of the compiled classes
+     */
+    @Parameter( property = "exportEntityIndex", defaultValue = "false" )
+    protected Boolean exportEntityIndex = false;
+
     private final AtomicBoolean classMetaBuilderCreated = new AtomicBoolean();
 
+    private List<JavaClass> supportedEntities = Collections.emptyList();
+
+    private final Map<String, String> sourceDigests = new HashMap<String, String>();
+
+    private GenerationState generationState;
+
+    private InheritanceIndex inheritanceIndex;
+
+    /**
+     * Keyed by identity: model methods are equal when their signatures are, even in different classes
+     */
+    private final Map<AbstractBaseJavaEntity, MemberIndex> memberIndexes =
+            Collections.synchronizedMap( new IdentityHashMap<AbstractBaseJavaEntity, MemberIndex>() );
+
+    private final List<JCodeModel> workerCodeModels = new ArrayList<JCodeModel>();
+
+    private IncrementalCodeWriter codeWriter;
+
+    private GenerationReport report;
+
     private final String generatorName;
 
     private final String generatorPostfix;
@@ -112,6 +176,14 @@ public abstract class AbstractGeneratorMojo extends AbstractMojo {
         this.codeModel = new JCodeModel();
     }
 
+    /**
+     * Makes the generator to use already built classes model instead of creating its own one
+     */
+    protected void setClassMetaBuilder( JavaDocBuilder classMetaBuilder ) {
+        classMetaBuilderCreated.set(true);
+        this.classMetaBuilder = classMetaBuilder;
+    }
+
     protected JavaDocBuilder getClassMetaBuilder() {
         if ( classMetaBuilderCreated.compareAndSet(false, true) ) {
             try {
@@ -124,11 +196,35 @@ public abstract class AbstractGeneratorMojo extends AbstractMojo {
         return this.classMetaBuilder;
     }
 
+    /**
+     * Index is built once the first hierarchy query happens and reflects the classes model
+     * as it was at that moment
+     */
+    protected synchronized InheritanceIndex getInheritanceIndex() {
+        if ( inheritanceIndex == null ) {
+            inheritanceIndex = new InheritanceIndex( getClassMetaBuilder().getClasses() );
+        }
+
+        return inheritanceIndex;
+    }
+
+    /**
+     * @return index of the element annotations (and members for classes), built on the first request
+     */
+    protected MemberIndex getMemberIndex( AbstractBaseJavaEntity element ) {
+        MemberIndex result = memberIndexes.get(element);
+        if ( result == null ) {
+            result = new MemberIndex( element, element instanceof JavaClass
+                    ? getInheritanceIndex().getHierarchy( (JavaClass) element )
+                    : Collections.<JavaClass>emptyList() );
+            memberIndexes.put( element, result );
+        }
+
+        return result;
+    }
+
     protected boolean isA( JavaClass classType, String className ) {
-        return classType.getFullyQualifiedName().equals(className)
-                || classType.getPackageName().isEmpty() && classType.getName().endsWith( className )
-                || (classType.getFullyQualifiedName().substring(
-                        classType.getFullyQualifiedName().lastIndexOf(".") + 1).equals(className) );
+        return MemberIndex.isA( classType, className );
     }
 
     protected String[] findClasses( String sourceRoot, String classPattern ) {
@@ -145,35 +241,580 @@ public abstract class AbstractGeneratorMojo extends AbstractMojo {
             return new String[0];
         }
 
+        // scanner follows the file system order, which differs between machines
+        Arrays.sort(sources);
         return sources;
     }
 
     public void execute() throws MojoExecutionException, MojoFailureException {
+        try {
+            generateSources();
+        } finally {
+            closeSessionResources();
+        }
+    }
+
+    private void generateSources() throws MojoExecutionException, MojoFailureException {
         getLog().info( String.format(WELCOME_MESSAGE, generatorName) );
         getLog().info("Looking for classes matching '" + entityPattern + "' pattern in " + sourceRoot );
+        report = new GenerationReport( getClass().getSimpleName() );
+
+        long started = System.nanoTime();
+        getClassMetaBuilder();
+        getImportedEntityIndex();
+        report.recordPhase( "parse", started );
+
+        started = System.nanoTime();
         String[] classes = findClasses( sourceRoot, entityPattern );
 
-        int processed = 0;
+        List<JavaClass> entities = new ArrayList<JavaClass>();
+        Set<String> entityNames = new HashSet<String>();
         for ( String className : classes ) {
             JavaClass entityClass = getClassMetaBuilder().getClassByName( pathToName(className) );
             if ( isSupported(entityClass) ) {
-                getLog().info("Processing class " + entityClass.getFullyQualifiedName() );
-                generateClass(entityClass);
-                processed += 1;
+                entities.add(entityClass);
+                entityNames.add( entityClass.getFullyQualifiedName() );
+            }
+        }
+
+        supportedEntities = entities;
+
+        report.setEntitiesCount( entities.size() );
+        report.recordPhase( "discovery", started );
+
+        started = System.nanoTime();
+        GenerationState previousState = loadGenerationState();
+        generationState = new GenerationState( previousState.getStateFile() );
+        generationState.setConfiguration( computeConfigurationFingerprint() );
+
+        Set<String> dirtyEntities = detectDirtyEntities( previousState, entities );
+        for ( JavaClass entityClass : entities ) {
+            if ( !dirtyEntities.contains( entityClass.getFullyQualifiedName() ) ) {
+                generationState.retain( previousState, entityClass.getFullyQualifiedName() );
+            }
+        }
+
+        boolean aggregatesChanged = hasAggregatedOutputs()
+                && ( !dirtyEntities.isEmpty() || !entityNames.equals( previousState.getEntities() ) );
+
+        report.recordPhase( "incrementalCheck", started );
+
+        if ( dirtyEntities.isEmpty() && !entities.isEmpty() && !aggregatesChanged ) {
+            getLog().info("All " + entities.size() + " classes are up-to-date, nothing to generate...");
+            generationState.getAggregatedOutputs().addAll( previousState.getAggregatedOutputs() );
+            removeStaleOutputs(previousState);
+            exportEntityIndex(classes);
+            saveGenerationState();
+            saveReport();
+            return;
+        }
+
+        List<JavaClass> dirtyClasses = new ArrayList<JavaClass>();
+        for ( JavaClass entityClass : entities ) {
+            if ( dirtyEntities.contains( entityClass.getFullyQualifiedName() ) ) {
+                dirtyClasses.add(entityClass);
             }
         }
 
+        codeWriter = new IncrementalCodeWriter( prepareOutputDirectory() );
+        if ( streamingEmission && !supportsStreamingEmission() ) {
+            getLog().info("Generator does not support streaming emission, classes will be written at the end");
+        }
+
+        started = System.nanoTime();
+        onExecutionStarted();
+        boolean parallel = parallelism > 1 && supportsParallelGeneration() && dirtyClasses.size() > 1;
+        if ( parallel && !( getClassMetaBuilder() instanceof CachingJavaDocBuilder ) ) {
+            getLog().info("Classes model can not be shared between generation workers, classes will be generated serially");
+            parallel = false;
+        }
+
+        if ( parallel ) {
+            generateInParallel(dirtyClasses);
+        } else {
+            for ( JavaClass entityClass : dirtyClasses ) {
+                generateEntity(entityClass);
+            }
+        }
+
+        int processed = dirtyClasses.size();
+
         onExecutionFinished();
+        report.recordPhase( "generation", started );
 
         getLog().info( processed + " classes has been processed...");
+        if ( processed != entities.size() ) {
+            getLog().info( ( entities.size() - processed ) + " classes are up-to-date and has been skipped...");
+        }
 
         getLog().info( "Flushing code model contents..." );
+        started = System.nanoTime();
         writeClasses();
+        report.recordPhase( "write", started );
+        report.recordOutput( codeWriter.getWrittenCount(), codeWriter.getUnchangedCount(),
+                codeWriter.getWrittenBytes() );
+
+        removeStaleOutputs(previousState);
+        exportEntityIndex(classes);
+        saveGenerationState();
+        saveReport();
+    }
+
+    /**
+     * Generates classes of the given entities into the writer, out of the Maven build: there is no sources
+     * discovery, generation state, entities index or reports, the classes model is built by the caller
+     * (see {@link com.a5000.platform.api.annotations.generators.jpa.processor.EntityGeneratorProcessor})
+     *
+     * @param classesModel model the entities belong to
+     */
+    public void generate( JavaDocBuilder classesModel, Collection<JavaClass> entities, CodeWriter writer )
+            throws MojoExecutionException {
+        generate( classesModel, entities, entities, writer );
+    }
+
+    /**
+     * The same as {@link #generate(JavaDocBuilder, Collection, CodeWriter)}, but classes are generated for the
+     * changed entities only, while the aggregated ones (see {@link #hasAggregatedOutputs()}) cover all entities
+     *
+     * @param changedEntities entities which classes are generated, a subset of the entities
+     */
+    public void generate( JavaDocBuilder classesModel, Collection<JavaClass> entities,
+                          Collection<JavaClass> changedEntities, CodeWriter writer ) throws MojoExecutionException {
+        setClassMetaBuilder(classesModel);
+        resetExecutionState();
+        if ( importedEntityIndex == null ) {
+            importedEntityIndex = new EntityMetadataIndex();
+        }
+
+        List<JavaClass> orderedEntities = new ArrayList<JavaClass>();
+        for ( JavaClass entityClass : entities ) {
+            if ( isSupported(entityClass) ) {
+                orderedEntities.add(entityClass);
+            }
+        }
+
+        Collections.sort( orderedEntities, CachingJavaDocBuilder.CLASS_NAME_ORDER );
+        supportedEntities = orderedEntities;
+
+        onExecutionStarted();
+        for ( JavaClass entityClass : orderedEntities ) {
+            if ( changedEntities.contains(entityClass) ) {
+                getLog().info("Processing class " + entityClass.getFullyQualifiedName() );
+                generateClass(entityClass);
+            }
+        }
+
+        onExecutionFinished();
+
+        try {
+            codeModel.build(writer);
+        } catch ( IOException e ) {
+            throw new MojoExecutionException("Failed to save code model contents...", e );
+        }
+    }
+
+    private void generateEntity( JavaClass entityClass ) throws MojoExecutionException {
+        getLog().info("Processing class " + entityClass.getFullyQualifiedName() );
+
+        long started = System.nanoTime();
+        generateClass(entityClass);
+        report.recordEntity( entityClass.getFullyQualifiedName(), started );
+
+        emitClasses();
+    }
+
+    /**
+     * Drops everything derived from the classes model as well as the code model of the previous execution,
+     * so the generator could be executed again once sources of the classes model have been changed
+     */
+    protected void resetExecutionState() {
+        codeModel = new JCodeModel();
+        workerCodeModels.clear();
+        memberIndexes.clear();
+        sourceDigests.clear();
+        synchronized ( this ) {
+            inheritanceIndex = null;
+        }
+    }
+
+    /**
+     * Drops the classes model (the one shared with the other goals too), it is built again out of the sources
+     * on the next request
+     */
+    protected void reloadClassMetaBuilder() throws MojoExecutionException {
+        discardSharedJavaDocBuilder();
+        classMetaBuilder = null;
+        classMetaBuilderCreated.set(false);
+    }
+
+    /**
+     * @return entities supported by the generator which have been found by the current execution,
+     *         both regenerated and up-to-date ones
+     */
+    protected List<JavaClass> getSupportedEntities() {
+        return supportedEntities;
+    }
+
+    /**
+     * Adds classes generated for the entity by the previous executions, which are kept as is by the current one,
+     * to the classes model: generators find them there instead of the code model
+     */
+    protected void addRetainedOutputs( JavaClass entityClass ) throws MojoExecutionException {
+        if ( generationState == null ) {
+            return;
+        }
+
+        for ( String className : generationState.getOutputs( entityClass.getFullyQualifiedName() ) ) {
+            File file = new File( outputPath, className.replace( '.', File.separatorChar ) + ".java" );
+            if ( codeModel._getClass(className) != null || !file.isFile() ) {
+                continue;
+            }
+
+            try {
+                getClassMetaBuilder().addSource(file);
+            } catch ( IOException e ) {
+                throw new MojoExecutionException( "Failed to read previously generated " + file, e );
+            }
+        }
+    }
+
+    /**
+     * @return files produced by the last execution, both written and unchanged ones
+     */
+    protected List<File> getWrittenFiles() {
+        return codeWriter == null ? Collections.<File>emptyList() : codeWriter.getFiles();
+    }
+
+    /**
+     * Invoked once before the first entity will be generated
+     */
+    protected void onExecutionStarted() throws MojoExecutionException {}
+
+    protected void onExecutionFinished() throws MojoExecutionException {}
+
+    /**
+     * Makes the given generator a part of this one: it shares configuration, classes model, code model
+     * and generation state of this generator, so its classes are written and tracked together with
+     * classes of this generator. Should be invoked once the execution has been started.
+     */
+    protected void attachDelegate( AbstractGeneratorMojo delegate ) {
+        delegate.setLog( getLog() );
+        delegate.project = project;
+        delegate.session = session;
+        delegate.outputPath = outputPath;
+        delegate.entityPattern = entityPattern;
+        delegate.sourceRoot = sourceRoot;
+        delegate.basePackage = basePackage;
+        delegate.daoPackage = daoPackage;
+        delegate.dtoPackage = dtoPackage;
+        delegate.convertersPackage = convertersPackage;
+        delegate.attachSuffixes = attachSuffixes;
+        delegate.attachPrefixes = attachPrefixes;
+        delegate.attachPostfixes = attachPostfixes;
+        delegate.disableAffixesAttach = disableAffixesAttach;
+        delegate.skipStaticFields = skipStaticFields;
+
+        delegate.setClassMetaBuilder( getClassMetaBuilder() );
+        delegate.importedEntityIndex = getImportedEntityIndex();
+        delegate.inheritanceIndex = getInheritanceIndex();
+        delegate.codeModel = codeModel;
+        delegate.generationState = generationState;
+
+        configureDelegate(delegate);
+    }
+
+    /**
+     * Passes parameters of this generator to the delegate: parameters specific to the delegate take
+     * values of the same named parameters of this generator, so this generator must declare every one
+     * of them with the same type
+     */
+    protected void configureDelegate( AbstractGeneratorMojo delegate ) {
+        Map<String, Field> parameters = getSpecificParameters( getClass() );
+        for ( Field field : getSpecificParameters( delegate.getClass() ).values() ) {
+            Field parameter = parameters.get( field.getName() );
+            if ( parameter == null || !parameter.getType().equals( field.getType() ) ) {
+                throw new IllegalStateException( getClass().getSimpleName() + " does not declare parameter "
+                        + field.getName() + " of type " + field.getType().getSimpleName() + " required by "
+                        + delegate.getClass().getSimpleName() );
+            }
+
+            try {
+                field.set( delegate, parameter.get(this) );
+            } catch ( IllegalAccessException e ) {
+                throw new IllegalStateException( "Failed to pass parameter " + field.getName() + " to the delegate", e );
+            }
+        }
+    }
+
+    /**
+     * @return values of the parameters which are declared by the generator class on top of the common ones
+     */
+    protected Map<String, Object> getSpecificParameterValues() {
+        Map<String, Object> result = new TreeMap<String, Object>();
+        for ( Field field : getSpecificParameters( getClass() ).values() ) {
+            try {
+                result.put( field.getName(), field.get(this) );
+            } catch ( IllegalAccessException e ) {
+                throw new IllegalStateException( "Failed to read parameter " + field.getName(), e );
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Parameters are the instance fields open to the subclasses, the rest is the internal state of the generator
+     */
+    private static Map<String, Field> getSpecificParameters( Class<?> generatorClass ) {
+        Map<String, Field> result = new HashMap<String, Field>();
+        for ( Class<?> type = generatorClass; type != AbstractGeneratorMojo.class; type = type.getSuperclass() ) {
+            for ( Field field : type.getDeclaredFields() ) {
+                int modifiers = field.getModifiers();
+                if ( Modifier.isPrivate(modifiers) || Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers)
+                        || field.isSynthetic() || result.containsKey( field.getName() ) ) {
+                    continue;
+                }
+
+                field.setAccessible(true);
+                result.put( field.getName(), field );
+            }
+        }
+
+        return result;
+    }
+
+    protected void startDelegate( AbstractGeneratorMojo delegate ) throws MojoExecutionException {
+        delegate.onExecutionStarted();
+    }
+
+    /**
+     * Generates classes of the entity by the delegate, unless the delegate does not support it
+     */
+    protected void generateByDelegate( AbstractGeneratorMojo delegate, JavaClass entityClass )
+            throws MojoExecutionException {
+        if ( delegate.isSupported(entityClass) ) {
+            delegate.generateClass(entityClass);
+        }
+    }
+
+    protected void finishDelegate( AbstractGeneratorMojo delegate ) throws MojoExecutionException {
+        delegate.onExecutionFinished();
+    }
+
+    /**
+     * Whether {@link #generateClass(JavaClass)} of the generator could be invoked concurrently
+     * by the workers created through {@link #createWorker()}
+     */
+    protected boolean supportsParallelGeneration() {
+        return false;
+    }
+
+    /**
+     * Whether classes generated for an entity are complete once {@link #generateClass(JavaClass)}
+     * returns, so they could be written and released right away; classes of such generators
+     * must refer each other by name only
+     */
+    protected boolean supportsStreamingEmission() {
+        return supportsParallelGeneration();
+    }
+
+    /**
+     * Writes classes generated so far and starts a new code model, when streaming emission is on
+     */
+    private void emitClasses() throws MojoExecutionException {
+        if ( !streamingEmission || !supportsStreamingEmission() ) {
+            return;
+        }
+
+        try {
+            codeModel.build(codeWriter);
+        } catch ( IOException e ) {
+            throw new MojoExecutionException("Failed to save code model contents...", e );
+        }
+
+        codeModel = new JCodeModel();
+    }
+
+    /**
+     * Creates a copy of the generator which shares configuration and classes model with
+     * this instance but emits classes into its own code model.
+     */
+    protected AbstractGeneratorMojo createWorker() {
+        try {
+            AbstractGeneratorMojo worker = (AbstractGeneratorMojo) clone();
+            worker.codeModel = new JCodeModel();
+            return worker;
+        } catch ( CloneNotSupportedException e ) {
+            throw new IllegalStateException( e.getMessage(), e );
+        }
+    }
+
+    private void generateInParallel( List<JavaClass> entities ) throws MojoExecutionException {
+        int workersCount = Math.min( parallelism, entities.size() );
+        getLog().info("Preparing classes model to be shared between " + workersCount + " generation workers...");
+        prepareClassMetaModel(entities);
+
+        List<List<JavaClass>> partitions = new ArrayList<List<JavaClass>>();
+        for ( int i = 0; i < workersCount; i++ ) {
+            partitions.add( new ArrayList<JavaClass>() );
+        }
+
+        for ( int i = 0; i < entities.size(); i++ ) {
+            partitions.get( i % workersCount ).add( entities.get(i) );
+        }
+
+        List<Callable<JCodeModel>> tasks = new ArrayList<Callable<JCodeModel>>();
+        for ( final List<JavaClass> partition : partitions ) {
+            final AbstractGeneratorMojo worker = createWorker();
+            tasks.add( new Callable<JCodeModel>() {
+                @Override
+                public JCodeModel call() throws Exception {
+                    for ( JavaClass entityClass : partition ) {
+                        worker.generateEntity(entityClass);
+                    }
+
+                    return worker.codeModel;
+                }
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(workersCount);
+        try {
+            for ( Future<JCodeModel> result : pool.invokeAll(tasks) ) {
+                workerCodeModels.add( result.get() );
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Classes generation has been interrupted", e );
+        } catch ( ExecutionException e ) {
+            if ( e.getCause() instanceof MojoExecutionException ) {
+                throw (MojoExecutionException) e.getCause();
+            }
+
+            throw new MojoExecutionException( e.getCause().getMessage(), e.getCause() );
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Resolves everything which is reachable from the given entities before the model will be shared
+     * between workers, so the workers mostly take already memoized classes instead of the model lock.
+     */
+    protected void prepareClassMetaModel( Collection<JavaClass> entities ) {
+        Set<String> visited = new HashSet<String>();
+        for ( JavaClass entityClass : entities ) {
+            prepareClass( entityClass, visited );
+        }
+
+        // resolves supertypes of every class of the model
+        getInheritanceIndex();
+    }
+
+    private void prepareClass( JavaClass javaClass, Set<String> visited ) {
+        if ( javaClass == null || !visited.add( javaClass.getFullyQualifiedName() ) ) {
+            return;
+        }
+
+        javaClass.getTypeParameters();
+        prepareAnnotations( javaClass.getAnnotations(), visited );
+
+        for ( JavaField field : javaClass.getFields() ) {
+            prepareType( field.getType(), visited );
+            prepareAnnotations( field.getAnnotations(), visited );
+        }
+
+        for ( JavaMethod method : javaClass.getMethods() ) {
+            if ( !method.isConstructor() ) {
+                prepareType( method.getReturnType(), visited );
+            }
+
+            for ( JavaParameter parameter : method.getParameters() ) {
+                prepareType( parameter.getType(), visited );
+            }
+
+            prepareAnnotations( method.getAnnotations(), visited );
+        }
+
+        for ( JavaClass interfaceClass : javaClass.getImplementedInterfaces() ) {
+            prepareClass( interfaceClass, visited );
+        }
+
+        prepareClass( javaClass.getSuperJavaClass(), visited );
+    }
+
+    private void prepareType( Type type, Set<String> visited ) {
+        if ( type == null ) {
+            return;
+        }
+
+        JavaClass typeClass = type.getJavaClass();
+        if ( typeClass != null ) {
+            isSimpleType(typeClass);
+            isListType(typeClass);
+            isSetType(typeClass);
+
+            JavaSource source = typeClass.getParentSource();
+            if ( source != null && source.getURL() != null ) {
+                prepareClass( typeClass, visited );
+            }
+        }
+
+        if ( type.getActualTypeArguments() != null ) {
+            for ( Type argument : type.getActualTypeArguments() ) {
+                prepareType( argument, visited );
+            }
+        }
+    }
+
+    private void prepareAnnotations( Annotation[] annotations, Set<String> visited ) {
+        for ( Annotation annotation : annotations ) {
+            annotation.getType().getJavaClass();
+            for ( Object value : annotation.getNamedParameterMap().values() ) {
+                if ( value instanceof Annotation ) {
+                    prepareAnnotations( new Annotation[] { (Annotation) value }, visited );
+                } else if ( value instanceof List ) {
+                    for ( Object item : (List) value ) {
+                        if ( item instanceof Annotation ) {
+                            prepareAnnotations( new Annotation[] { (Annotation) item }, visited );
+                        }
+                    }
+                }
+            }
+        }
     }
 
-    protected void onExecutionFinished() {}
+    /**
+     * Looks up class in the classes model, safe to be invoked by concurrent generation workers
+     * as the model is {@link CachingJavaDocBuilder}
+     */
+    protected JavaClass resolveClass( String className ) {
+        return getClassMetaBuilder().getClassByName(className);
+    }
 
     protected void writeClasses() throws MojoExecutionException {
+        if ( codeWriter == null ) {
+            codeWriter = new IncrementalCodeWriter( prepareOutputDirectory() );
+        }
+
+        try {
+            codeModel.build(codeWriter);
+
+            // classes emitted by parallel workers never intersects, so their models are flushed side by side
+            for ( JCodeModel workerCodeModel : workerCodeModels ) {
+                workerCodeModel.build(codeWriter);
+            }
+        } catch ( IOException e ) {
+            throw new MojoExecutionException("Failed to save code model contents...", e );
+        }
+
+        getLog().info( codeWriter.getWrittenCount() + " files has been written, "
+                + codeWriter.getUnchangedCount() + " files are unchanged and kept as is" );
+
+        refreshJavaDocBuilder( getClassMetaBuilder(), codeWriter.getFiles() );
+    }
+
+    private File prepareOutputDirectory() throws MojoExecutionException {
         File outputDirectory = new File(outputPath);
         outputDirectory.mkdirs();
 
@@ -185,33 +826,350 @@ public abstract class AbstractGeneratorMojo extends AbstractMojo {
             throw new MojoExecutionException("Output path must be a directory type!");
         }
 
+        return outputDirectory;
+    }
+
+    /**
+     * Whether the generator produces output which depends on the whole entities set
+     * (and so has to be regenerated completely once any of entities has been changed)
+     */
+    protected boolean isAggregatingGenerator() {
+        return false;
+    }
+
+    /**
+     * Whether the generator produces output which depends on the whole entities set besides the classes
+     * of every entity: the execution goes on once any of entities has been changed (or the set itself),
+     * but only the changed entities are passed to {@link #generateClass(JavaClass)}
+     */
+    protected boolean hasAggregatedOutputs() {
+        return false;
+    }
+
+    /**
+     * Adds generator parameters which affect generation result into the given map.
+     * Any changes in these values invalidates results of the previous runs.
+     */
+    protected void collectConfiguration( Map<String, Object> configuration ) {
+        configuration.put("generatorName", generatorName);
+        configuration.put("outputPath", outputPath);
+        configuration.put("entityPattern", entityPattern);
+        configuration.put("sourceRoot", sourceRoot);
+        configuration.put("basePackage", basePackage);
+        configuration.put("daoPackage", daoPackage);
+        configuration.put("dtoPackage", dtoPackage);
+        configuration.put("convertersPackage", convertersPackage);
+        configuration.put("attachSuffixes", attachSuffixes);
+        configuration.put("attachPrefixes", attachPrefixes);
+        configuration.put("attachPostfixes", attachPostfixes);
+        configuration.put("disableAffixesAttach", disableAffixesAttach);
+        configuration.put("skipStaticFields", skipStaticFields);
+
+        try {
+            configuration.put("classpath", project.getCompileClasspathElements());
+        } catch ( DependencyResolutionRequiredException e ) {
+            getLog().warn("Project classpath is not resolved, it will not be tracked by incremental generation");
+        }
+    }
+
+    protected void recordAggregatedOutput( String className ) {
+        if ( generationState != null ) {
+            generationState.recordOutput( null, className );
+        }
+    }
+
+    private String computeConfigurationFingerprint() {
+        Map<String, Object> configuration = new TreeMap<String, Object>();
+        collectConfiguration(configuration);
+
+        List<String> parts = new ArrayList<String>();
+        for ( Map.Entry<String, Object> entry : configuration.entrySet() ) {
+            Object value = entry.getValue();
+            parts.add( entry.getKey() + "="
+                    + ( value instanceof Object[] ? Arrays.toString( (Object[]) value ) : String.valueOf(value) ) );
+        }
+
+        return GenerationState.digest(parts);
+    }
+
+    private GenerationState loadGenerationState() throws MojoExecutionException {
+        String stateName = getExecutionName() + ".state";
+        File stateFile = new File( new File( getBuildDirectory(), STATE_DIRECTORY_NAME ), stateName );
+
         try {
-            codeModel.build( outputDirectory, (PrintStream) null );
+            return GenerationState.load(stateFile);
         } catch ( IOException e ) {
-            throw new MojoExecutionException("Failed to save code model contents...", e );
+            getLog().warn("Failed to read generation state " + stateFile + ", full generation will be performed");
+            return new GenerationState(stateFile);
         }
     }
 
-    private String pathToName( String path ) {
-        return path.replaceAll(Pattern.quote(File.separator), ".").replace(".java", "").trim();
+    private void saveReport() {
+        if ( !timingReport ) {
+            return;
+        }
+
+        File reportFile = new File( new File( getBuildDirectory(), REPORTS_DIRECTORY_NAME ), getExecutionName() + ".json" );
+        try {
+            report.save(reportFile);
+        } catch ( IOException e ) {
+            getLog().warn("Failed to save generation report " + reportFile, e );
+        }
     }
 
-    protected boolean hasDescendants( JavaClass clazz ) {
-        boolean result = false;
-        for ( JavaClass classItem : getClassMetaBuilder().getClasses() ) {
-            if ( !classItem.isA( clazz )
-                    || clazz.equals(classItem)
-                    || classItem.getFullyQualifiedName().equals(Object.class.getCanonicalName()) ) {
+    /**
+     * @return name which distinguishes files of the generator executions with different outputs
+     */
+    private String getExecutionName() {
+        return getClass().getSimpleName() + "-"
+                + Integer.toHexString( (outputPath + ":" + entityPattern + ":" + basePackage).hashCode() );
+    }
+
+    private void saveGenerationState() {
+        try {
+            generationState.save();
+        } catch ( IOException e ) {
+            getLog().warn("Failed to save generation state " + generationState.getStateFile(), e );
+        }
+    }
+
+    /**
+     * Computes fingerprints for the given entities and returns names of those which
+     * has to be regenerated.
+     */
+    protected Set<String> detectDirtyEntities( GenerationState previousState, List<JavaClass> entities ) {
+        boolean fullGeneration = !Boolean.TRUE.equals(incremental)
+                || !generationState.getConfiguration().equals( previousState.getConfiguration() )
+                || !isOutputPresent( previousState.getAggregatedOutputs() );
+
+        Set<String> result = new HashSet<String>();
+        Set<String> entityNames = new HashSet<String>();
+        for ( JavaClass entityClass : entities ) {
+            String entityName = entityClass.getFullyQualifiedName();
+            entityNames.add(entityName);
+
+            Set<String> dependencies = collectEntityDependencies(entityClass);
+            List<String> parts = new ArrayList<String>();
+            parts.add( computeSourceDigest(entityClass) );
+            for ( String dependency : dependencies ) {
+                parts.add( dependency + ":" + computeSourceDigest( getClassMetaBuilder().getClassByName(dependency) ) );
+            }
+
+            String fingerprint = GenerationState.digest(parts);
+            generationState.setFingerprint( entityName, fingerprint, dependencies );
+
+            if ( previousState.getFingerprint(entityName) == null ) {
+                // new entity changes hierarchy of its supertypes
+                result.addAll(dependencies);
+            }
+
+            if ( fullGeneration
+                    || !fingerprint.equals( previousState.getFingerprint(entityName) )
+                    || !isOutputPresent( previousState.getOutputs(entityName) ) ) {
+                result.add(entityName);
+            }
+        }
+
+        for ( String entityName : previousState.getEntities() ) {
+            if ( !entityNames.contains(entityName) ) {
+                result.addAll( previousState.getDependencies(entityName) );
+            }
+        }
+
+        result.retainAll(entityNames);
+
+        if ( isAggregatingGenerator()
+                && ( !result.isEmpty() || !entityNames.equals( previousState.getEntities() ) ) ) {
+            result.addAll(entityNames);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return names of transitive supertypes and types referenced by {@code @DtoInclude} fields of the entity
+     */
+    protected Set<String> collectEntityDependencies( JavaClass entityClass ) {
+        Set<String> result = new TreeSet<String>();
+        collectSupertypes( entityClass, result );
+
+        for ( JavaField field : collectAllFields(entityClass) ) {
+            if ( !hasAnnotation(field, DTO_INCLUDE_ANNOTATION_CLASS_NAME) ) {
                 continue;
             }
 
-            result = true;
-            break;
+            result.add( field.getType().getFullyQualifiedName() );
+            if ( field.getType().getActualTypeArguments() != null ) {
+                for ( Type argument : field.getType().getActualTypeArguments() ) {
+                    result.add( argument.getFullyQualifiedName() );
+                }
+            }
+
+            for ( Annotation annotation : field.getAnnotations() ) {
+                if ( !isJpaRelationType( annotation.getType().getJavaClass() )
+                        || annotation.getNamedParameter("targetEntity") == null ) {
+                    continue;
+                }
+
+                String targetEntity = normalizeAnnotationValue(
+                        (String) annotation.getNamedParameter("targetEntity") ).replace(".class", "");
+                if ( !targetEntity.contains(".") ) {
+                    targetEntity = field.getParentClass().getPackageName() + "." + targetEntity;
+                }
+
+                result.add(targetEntity);
+            }
+        }
+
+        result.remove( entityClass.getFullyQualifiedName() );
+        return result;
+    }
+
+    private void collectSupertypes( JavaClass javaClass, Set<String> result ) {
+        JavaClass superClass = javaClass.getSuperJavaClass();
+        if ( superClass != null && !isA( superClass, Object.class.getCanonicalName() )
+                && result.add( superClass.getFullyQualifiedName() ) ) {
+            collectSupertypes( superClass, result );
+        }
+
+        for ( JavaClass interfaceClass : javaClass.getImplementedInterfaces() ) {
+            if ( result.add( interfaceClass.getFullyQualifiedName() ) ) {
+                collectSupertypes( interfaceClass, result );
+            }
+        }
+    }
+
+    private String computeSourceDigest( JavaClass javaClass ) {
+        JavaSource source = javaClass == null ? null : javaClass.getParentSource();
+        if ( source == null || source.getURL() == null ) {
+            return BINARY_SOURCE_DIGEST;
+        }
+
+        URL url = source.getURL();
+        String result = sourceDigests.get( url.toExternalForm() );
+        if ( result != null ) {
+            return result;
+        }
+
+        try {
+            InputStream stream = url.openStream();
+            try {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                byte[] chunk = new byte[8192];
+                int read;
+                while ( ( read = stream.read(chunk) ) != -1 ) {
+                    buffer.write(chunk, 0, read);
+                }
+
+                result = GenerationState.digest( buffer.toByteArray() );
+            } finally {
+                stream.close();
+            }
+        } catch ( IOException e ) {
+            // unreadable source will be always treated as changed
+            result = String.valueOf( System.nanoTime() );
         }
 
+        sourceDigests.put( url.toExternalForm(), result );
         return result;
     }
 
+    /**
+     * Deletes classes generated by the previous run which have not been produced by the current one
+     * (e.g. their source entity has been removed)
+     */
+    private void removeStaleOutputs( GenerationState previousState ) {
+        Set<String> staleOutputs = new TreeSet<String>( previousState.getAllOutputs() );
+        staleOutputs.removeAll( generationState.getAllOutputs() );
+
+        for ( String className : staleOutputs ) {
+            File classFile = new File( outputPath, className.replace('.', File.separatorChar) + ".java" );
+            if ( classFile.exists() ) {
+                getLog().info("Removing stale generated class " + className );
+                if ( !classFile.delete() ) {
+                    getLog().warn("Failed to remove stale generated class " + classFile );
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves the entities index with the entities (and mapped superclasses) matching the entities pattern and
+     * their supertypes declared by the project sources
+     */
+    private void exportEntityIndex( String[] classes ) throws MojoExecutionException {
+        if ( !exportEntityIndex ) {
+            return;
+        }
+
+        Set<JavaClass> indexed = new LinkedHashSet<JavaClass>();
+        for ( String className : classes ) {
+            JavaClass javaClass = getClassMetaBuilder().getClassByName( pathToName(className) );
+            if ( isJpaEntity(javaClass) || isMappedSuperclassEntity(javaClass) ) {
+                for ( JavaClass type : getInheritanceIndex().getHierarchy(javaClass) ) {
+                    if ( getSourceFile(type) != null ) {
+                        indexed.add(type);
+                    }
+                }
+            }
+        }
+
+        EntityMetadataIndex index = new EntityMetadataIndex();
+        for ( JavaClass javaClass : indexed ) {
+            index.add( javaClass.getFullyQualifiedName(), detectIdKeyType(javaClass),
+                    isJpaEntity(javaClass)
+                        ? prepareClassName( dtoPackage, javaClass.getFullyQualifiedName(),
+                                DTO_GENERATOR_PREFIX, DTO_GENERATOR_SUFFIX, DTO_GENERATOR_POSTFIX )
+                        : null,
+                    getSourceFile(javaClass) );
+        }
+
+        try {
+            List<String> skipped = index.save( getOutputDirectory(), System.getProperty("file.encoding") );
+            for ( String className : skipped ) {
+                getLog().warn("Class " + className + " uses annotation expressions not supported by the entities "
+                        + "index and has been left out of it" );
+            }
+
+            getLog().info( ( indexed.size() - skipped.size() ) + " classes has been exported into the entities index" );
+        } catch ( IOException e ) {
+            throw new MojoExecutionException( "Failed to save entities index", e );
+        }
+    }
+
+    /**
+     * @return source file of a class declared by the project sources, null for the classes taken from
+     *         the dependencies
+     */
+    private File getSourceFile( JavaClass javaClass ) {
+        if ( javaClass.getSource() == null || javaClass.getSource().getURL() == null
+                || !"file".equals( javaClass.getSource().getURL().getProtocol() ) ) {
+            return null;
+        }
+
+        File file = FileUtils.toFile( javaClass.getSource().getURL() );
+        return file.getName().endsWith(".java") ? file : null;
+    }
+
+    private boolean isOutputPresent( Collection<String> classNames ) {
+        for ( String className : classNames ) {
+            File classFile = new File( outputPath, className.replace('.', File.separatorChar) + ".java" );
+            if ( !classFile.exists() ) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private String pathToName( String path ) {
+        return path.replaceAll(Pattern.quote(File.separator), ".").replace(".java", "").trim();
+    }
+
+    protected boolean hasDescendants( JavaClass clazz ) {
+        return getInheritanceIndex().hasSubtypes(clazz);
+    }
+
     protected List<String> resolveSyntheticFieldGetter(Annotation syntheticFieldAnnotation) {
         String expression = normalizeAnnotationValue(
                 (String) syntheticFieldAnnotation.getNamedParameter("expression")
@@ -234,20 +1192,12 @@ public abstract class AbstractGeneratorMojo extends AbstractMojo {
     }
 
     protected Annotation getSyntheticFieldMethod( JavaField field ) {
-        JavaClass fieldContext = field.getParentClass();
         Annotation extendsAnnotation = null;
-        while ( extendsAnnotation == null && fieldContext != null ) {
-            for ( Annotation annotation : fieldContext.getAnnotations() ) {
-                if ( !isA(annotation.getType().getJavaClass(),
-                        DTO_EXTENDS_ANNOTATION_CLASS_NAME) ) {
-                    continue;
-                }
-
-                extendsAnnotation = annotation;
+        for ( JavaClass fieldContext : getInheritanceIndex().getHierarchy( field.getParentClass() ) ) {
+            extendsAnnotation = findAnnotation( fieldContext, DTO_EXTENDS_ANNOTATION_CLASS_NAME );
+            if ( extendsAnnotation != null ) {
                 break;
             }
-
-            fieldContext = fieldContext.getSuperJavaClass();
         }
 
         if ( extendsAnnotation == null ) {
@@ -273,7 +1223,7 @@ public abstract class AbstractGeneratorMojo extends AbstractMojo {
     }
 
     protected boolean isInterface(String fullyQualifiedName) {
-        return !classMetaBuilder.getClassByName( fullyQualifiedName ).isInterface();
+        return !resolveClass( fullyQualifiedName ).isInterface();
     }
 
     protected boolean isJpaRelationType(JavaClass annotationTypeName) {
@@ -318,29 +1268,13 @@ public abstract class AbstractGeneratorMojo extends AbstractMojo {
     protected boolean isMethodExists( String methodName, String className,
                                       final boolean deepSearch,
                                       final boolean publicOnly ) {
-        JavaClass javaClazz = classMetaBuilder.getClassByName(className);
+        JavaClass javaClazz = resolveClass(className);
         if ( javaClazz == null ) {
             throw new IllegalArgumentException("Class not found: "
                     + javaClazz.getFullyQualifiedName() );
         }
 
-        boolean result = false;
-        JavaClass parentClass = javaClazz;
-        do {
-            for ( JavaMethod method : parentClass.getMethods() ) {
-                if ( !method.getName().equals( methodName )
-                        || ( publicOnly && !method.isPublic() ) ) {
-                    continue;
-                }
-
-                result = true;
-                break;
-            }
-
-            parentClass = parentClass.getSuperJavaClass();
-        } while ( deepSearch && !result && parentClass != null );
-
-        return result;
+        return getMemberIndex(javaClazz).hasMethod( methodName, deepSearch, publicOnly );
     }
 
     protected boolean isListType( JavaClass classType ) {
@@ -348,7 +1282,7 @@ public abstract class AbstractGeneratorMojo extends AbstractMojo {
     }
 
     protected boolean isListType( String classType ) {
-        return isListType( classMetaBuilder.getClassByName(classType) );
+        return isListType( resolveClass(classType) );
     }
 
     protected boolean isSetType( JavaClass classType ) {
@@ -356,11 +1290,11 @@ public abstract class AbstractGeneratorMojo extends AbstractMojo {
     }
 
     protected boolean isSetType( String className ) {
-        return isSetType( classMetaBuilder.getClassByName(className) );
+        return isSetType( resolveClass(className) );
     }
 
     protected boolean isCollectionType( String className ) {
-        return isCollectionType( classMetaBuilder.getClassByName(className) );
+        return isCollectionType( resolveClass(className) );
     }
 
     protected boolean isCollectionType( JavaClass classType ) {
@@ -386,17 +1320,14 @@ public abstract class AbstractGeneratorMojo extends AbstractMojo {
     }
 
     protected boolean hasAnnotation(AbstractBaseJavaEntity clazz, String className, boolean checkParent ) {
-        boolean result = false;
-        for ( Annotation annotation : clazz.getAnnotations() ) {
-            if ( !isA( annotation.getType().getJavaClass(), className) ) {
-                continue;
-            }
-
-            result = true;
-            break;
-        }
+        return getMemberIndex(clazz).hasAnnotation(className);
+    }
 
-        return result;
+    /**
+     * @return first annotation of the given type or null when the element is not annotated with it
+     */
+    protected Annotation findAnnotation( AbstractBaseJavaEntity element, String className ) {
+        return getMemberIndex(element).getAnnotation(className);
     }
 
     protected JType convertType( JavaClass context, Type originalType ) {
@@ -424,7 +1355,7 @@ public abstract class AbstractGeneratorMojo extends AbstractMojo {
                         if ( isJpaEntity(type.getJavaClass()) ) {
                             narrowsList.add(
                                 codeModel.ref(
-                                    prepareClassName(dtoPackage, type.getFullyQualifiedName(), generatorPrefix,
+                                    prepareDtoClassName(type.getFullyQualifiedName(), generatorPrefix,
                                             generatorSuffix, generatorPostfix)
                                 )
                             );
@@ -446,7 +1377,7 @@ public abstract class AbstractGeneratorMojo extends AbstractMojo {
             returnType = codeModel.ref( originalType.getFullyQualifiedName() );
         } else if ( isJpaEntity( originalType.getJavaClass() ) ) {
             returnType = codeModel.ref(
-                prepareClassName(dtoPackage, originalType.getFullyQualifiedName(), generatorPrefix,
+                prepareDtoClassName(originalType.getFullyQualifiedName(), generatorPrefix,
                         generatorSuffix, generatorPostfix)
             );
         }
@@ -455,43 +1386,19 @@ public abstract class AbstractGeneratorMojo extends AbstractMojo {
     }
 
     protected String detectIdKeyType( JavaClass entityClass ) {
-        String result = null;
-
-        for ( JavaField field : entityClass.getFields() ) {
-            boolean isId = false;
-            for (Annotation annotation : field.getAnnotations()) {
-                if ( !isA( annotation.getType().getJavaClass(), Id.class.getName() ) ) {
-                    continue;
-                }
-
-                isId = true;
-                break;
-            }
-
-            if ( isId ) {
-                result = field.getType().getFullyQualifiedName();
-                break;
+        for ( JavaField field : getMemberIndex(entityClass).getFields() ) {
+            if ( hasAnnotation( field, Id.class.getName() ) ) {
+                return field.getType().getFullyQualifiedName();
             }
         }
 
-        if ( result == null && entityClass.getSuperClass() != null
-                && !isA( entityClass.getSuperJavaClass(), Object.class.getSimpleName() ) ) {
-            result = detectIdKeyType( entityClass.getSuperJavaClass() );
-        }
-
-        return result;
+        // identifier could be declared by a supertype missing in the classes model of this module
+        EntityMetadataIndex.Entry imported = getImportedEntityIndex().getEntry( entityClass.getFullyQualifiedName() );
+        return imported != null ? imported.getIdType() : null;
     }
 
     protected Set<JavaField> collectAllFields( JavaClass javaClass ) {
-        Set<JavaField> result = new HashSet<JavaField>();
-
-        JavaClass parent = javaClass;
-        while ( parent != null ) {
-            result.addAll( Arrays.asList(parent.getFields()) );
-            parent = parent.getSuperJavaClass();
-        }
-
-        return result;
+        return new LinkedHashSet<JavaField>( getMemberIndex(javaClass).getFields() );
     }
 
     protected void generateAccessors(JavaField originalField, JDefinedClass clazz, JFieldVar clazzField) {
@@ -520,17 +1427,15 @@ public abstract class AbstractGeneratorMojo extends AbstractMojo {
 
         JExpression returnStm = JExpr.refthis( clazzField.name() );
         if ( clazzField.type().isReference()
-                && isSimpleType( classMetaBuilder.getClassByName(clazzField.type().fullName()) ) ) {
+                && isSimpleType( resolveClass(clazzField.type().fullName()) ) ) {
             JConditional nullHandler = getterMethod.body()._if(returnStm.eq(JExpr._null()));
 
             String typeName = clazzField.type().fullName();
 
             JExpression lit = null;
             if ( originalField != null && hasAnnotation(originalField, DTO_DEFAULT_VALUE_ANNOTATION_CLASS_NAME) ) {
-                for ( Annotation annotation : originalField.getAnnotations() ) {
-                    if ( !isA(annotation.getType().getJavaClass(), DTO_DEFAULT_VALUE_ANNOTATION_CLASS_NAME) ) {
-                        continue;
-                    }
+                for ( Annotation annotation : getMemberIndex(originalField).getAnnotations(
+                        DTO_DEFAULT_VALUE_ANNOTATION_CLASS_NAME ) ) {
 
                     String defaultValue = normalizeAnnotationValue( (String) annotation.getNamedParameter("value") );
                     String type = normalizeAnnotationValue(
@@ -612,8 +1517,13 @@ public abstract class AbstractGeneratorMojo extends AbstractMojo {
             flags |= JMod.ABSTRACT;
         }
 
-        return codeModel._package( packagePart )
+        JDefinedClass result = codeModel._package( packagePart )
                 ._class(flags,  classPart, type);
+        if ( generationState != null ) {
+            generationState.recordOutput( className, result.fullName() );
+        }
+
+        return result;
     }
 
     protected String prepareClassName( String generatedPackage, String name ) {
@@ -624,6 +1534,26 @@ public abstract class AbstractGeneratorMojo extends AbstractMojo {
         }
     }
 
+    /**
+     * @return name of the DTO class of the given entity (or of the DTO interface of an entity interface)
+     */
+    protected String prepareDtoClassName( String name ) {
+        return prepareDtoClassName( name, DTO_GENERATOR_PREFIX, DTO_GENERATOR_SUFFIX, DTO_GENERATOR_POSTFIX );
+    }
+
+    /**
+     * DTOs of the entities imported from the entities indexes of the other modules are named the way their
+     * modules did, the given affixes are applied to the entities of this module only
+     */
+    protected String prepareDtoClassName( String name, String prefix, String suffix, String postfix ) {
+        EntityMetadataIndex.Entry imported = getImportedEntityIndex().getEntry(name);
+        if ( imported != null && imported.getDtoClassName() != null ) {
+            return imported.getDtoClassName();
+        }
+
+        return prepareClassName( dtoPackage, name, prefix, suffix, postfix );
+    }
+
     protected String prepareClassName( String generatedPackage, String name,
                                        String prefix, String suffix, String postfix) {
         name = name.replace(basePackage, generatedPackage);
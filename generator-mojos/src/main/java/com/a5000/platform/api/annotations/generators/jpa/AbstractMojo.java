@@ -4,24 +4,57 @@ import com.a5000.platform.api.annotations.generators.jpa.utils.StringUtils;
 import com.thoughtworks.qdox.JavaDocBuilder;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 
 import java.io.File;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLClassLoader;
-import java.util.List;
+import java.io.IOException;
+import java.util.*;
 
 /**
  * Created by cyril on 8/28/13.
  */
 public abstract class AbstractMojo extends org.apache.maven.plugin.AbstractMojo {
 
+    private static final String PARSED_SOURCES_DIRECTORY_NAME = "generator-cache/sources";
+
     @Parameter( property = "project" )
     protected MavenProject project;
 
+    @Parameter( defaultValue = "${session}", readonly = true )
+    protected MavenSession session;
+
+    /**
+     * Reuse classes model parsed by the previous generator goals of the same build
+     */
+    @Parameter( property = "shareClassesModel", defaultValue = "true" )
+    protected Boolean shareClassesModel = true;
+
+    /**
+     * Keep the parsed sources model under the build directory to not to parse unchanged sources again
+     */
+    @Parameter( property = "cacheParsedSources", defaultValue = "true" )
+    protected Boolean cacheParsedSources = true;
+
+    /**
+     * Parse only sources of the processed entities and classes reachable from them (supertypes,
+     * annotations, related entities) on demand, skipping javadoc and method bodies not used by generators.
+     * Classes not reachable from the entities are not visible to generators in this mode.
+     */
+    @Parameter( property = "lazySourceLoading", defaultValue = "false" )
+    protected Boolean lazySourceLoading = false;
+
+    /**
+     * Take entities declared by the dependencies (and other modules of the reactor) from the metadata
+     * index packaged by their generators instead of the compiled classes
+     */
+    @Parameter( property = "importEntityIndex", defaultValue = "true" )
+    protected Boolean importEntityIndex = true;
+
+    protected EntityMetadataIndex importedEntityIndex;
+
     public void setProject(MavenProject project) {
         this.project = project;
     }
@@ -34,24 +67,38 @@ public abstract class AbstractMojo extends org.apache.maven.plugin.AbstractMojo
     }
 
     /**
+     * Classloader over the compile classpath, shared by the goals of the build session which have
+     * the same classpath
+     *
      * @return the project classloader
      * @throws org.apache.maven.artifact.DependencyResolutionRequiredException failed to resolve project dependencies
-     * @throws java.net.MalformedURLException configuration issue ?
+     * @throws java.io.IOException failed to index classpath jars
      */
     protected ClassLoader getProjectClassLoader()
-            throws DependencyResolutionRequiredException, MalformedURLException {
-        List<?> compile = project.getCompileClasspathElements();
-        URL[] urls = new URL[compile.size()];
-        int i = 0;
-        for ( Object object : compile ) {
+            throws DependencyResolutionRequiredException, IOException {
+        List<File> classpath = new ArrayList<File>();
+        for ( Object object : project.getCompileClasspathElements() ) {
             if ( object instanceof Artifact) {
-                urls[i] = ( (Artifact) object ).getFile().toURI().toURL();
+                classpath.add( ( (Artifact) object ).getFile() );
             } else {
-                urls[i] = new File( (String) object ).toURI().toURL();
+                classpath.add( new File( (String) object ) );
             }
-            i++;
         }
-        return new URLClassLoader( urls, ClassLoader.getSystemClassLoader() );
+
+        if ( session == null ) {
+            return IndexedProjectClassLoader.create( null, classpath, ClassLoader.getSystemClassLoader() );
+        }
+
+        String key = IndexedProjectClassLoader.class.getName() + ":" + classpath;
+        synchronized ( IndexedProjectClassLoader.class ) {
+            ClassLoader result = (ClassLoader) BuildSessionCache.get( session, key );
+            if ( result == null ) {
+                result = IndexedProjectClassLoader.create( session, classpath, ClassLoader.getSystemClassLoader() );
+                BuildSessionCache.put( session, key, result );
+            }
+
+            return result;
+        }
     }
 
     protected String normalizeAnnotationValue( String value ) {
@@ -63,6 +110,28 @@ public abstract class AbstractMojo extends org.apache.maven.plugin.AbstractMojo
         return value;
     }
 
+    /**
+     * @return project build directory (usually 'target/')
+     */
+    protected File getBuildDirectory() {
+        if ( project.getBuild() != null && project.getBuild().getDirectory() != null ) {
+            return new File( project.getBuild().getDirectory() );
+        }
+
+        return new File( project.getBasedir(), "target" );
+    }
+
+    /**
+     * @return project classes directory (usually 'target/classes')
+     */
+    protected File getOutputDirectory() {
+        if ( project.getBuild() != null && project.getBuild().getOutputDirectory() != null ) {
+            return new File( project.getBuild().getOutputDirectory() );
+        }
+
+        return new File( getBuildDirectory(), "classes" );
+    }
+
     /**
      * @param path file to add to the project compile directories
      */
@@ -72,17 +141,208 @@ public abstract class AbstractMojo extends org.apache.maven.plugin.AbstractMojo
 
     protected JavaDocBuilder createJavaDocBuilder() throws MojoExecutionException {
         try {
-            JavaDocBuilder builder = new JavaDocBuilder();
-            builder.getClassLibrary().addClassLoader( getProjectClassLoader() );
-            for ( String sourceRoot : project.getCompileSourceRoots() ) {
-                builder.addSourceTree( new File( sourceRoot ) );
+            String modelKey = null;
+            if ( session != null && shareClassesModel ) {
+                modelKey = getClassesModelKey();
+
+                JavaDocBuilder builder = (JavaDocBuilder) BuildSessionCache.get( session, modelKey );
+                if ( builder != null ) {
+                    getLog().info("Reusing classes model of " + project.getId() );
+                    return builder;
+                }
+            }
+
+            ParsedSourceCache cache = cacheParsedSources
+                    ? new ParsedSourceCache( new File( getBuildDirectory(), PARSED_SOURCES_DIRECTORY_NAME ) )
+                    : null;
+
+            CachingJavaDocBuilder builder;
+            if ( lazySourceLoading ) {
+                IndexedClassLibrary classLibrary = new IndexedClassLibrary();
+                classLibrary.addClassLoader( getProjectClassLoader() );
+                for ( String sourceRoot : project.getCompileSourceRoots() ) {
+                    classLibrary.addSourceFolder( new File( sourceRoot ) );
+                }
+
+                builder = new CachingJavaDocBuilder( cache, classLibrary );
+                builder.setDeclarationsOnly(true);
+                addIndexedEntities(builder);
+
+                getLog().info( "Classes model: " + classLibrary.getIndexedClasses().size()
+                        + " sources indexed to be loaded on demand" );
+            } else {
+                builder = new CachingJavaDocBuilder(cache);
+                builder.getClassLibrary().addClassLoader( getProjectClassLoader() );
+                addIndexedEntities(builder);
+                for ( String sourceRoot : project.getCompileSourceRoots() ) {
+                    builder.addSourceTree( new File( sourceRoot ) );
+                }
+
+                getLog().info( "Classes model: " + builder.getCachedCount() + " sources taken from the cache, "
+                        + builder.getParsedCount() + " parsed" );
+
+                // all sources of the project have been added, the rest of the entries are outdated
+                int pruned = builder.pruneCache();
+                if ( pruned > 0 ) {
+                    getLog().info( "Classes model: " + pruned + " outdated entries removed from the cache" );
+                }
+            }
+
+            if ( builder.getIndexedCount() > 0 ) {
+                getLog().info( "Classes model: " + builder.getIndexedCount()
+                        + " sources taken from the entities indexes of the dependencies" );
+            }
+
+            if ( modelKey != null ) {
+                BuildSessionCache.put( session, modelKey, builder );
             }
+
             return builder;
-        } catch ( MalformedURLException e ) {
+        } catch ( DependencyResolutionRequiredException e ) {
+            throw new MojoExecutionException( "Failed to resolve project classpath", e );
+        } catch ( IOException e ) {
+            throw new MojoExecutionException( "Failed to read project classpath", e );
+        }
+    }
+
+    /**
+     * @return entities index of the dependencies and other modules of the reactor, without the classes
+     *         declared by the project sources (the project index could be found in its own output)
+     */
+    protected synchronized EntityMetadataIndex getImportedEntityIndex() {
+        if ( importedEntityIndex != null ) {
+            return importedEntityIndex;
+        }
+
+        EntityMetadataIndex index = new EntityMetadataIndex();
+        if ( importEntityIndex ) {
+            try {
+                // reactor modules may not be packaged yet, their indexes are taken from the output directories
+                List<File> outputDirectories = new ArrayList<File>();
+                new ClasspathBuilder().addOutputDirectoriesWithActiveProjects( project, outputDirectories,
+                        Artifact.SCOPE_COMPILE );
+                for ( File outputDirectory : outputDirectories ) {
+                    index.load(outputDirectory);
+                }
+
+                index.load( getProjectClassLoader() );
+            } catch ( IOException e ) {
+                throw new IllegalStateException( "Failed to read entities index", e );
+            } catch ( DependencyResolutionRequiredException e ) {
+                throw new IllegalStateException( "Failed to resolve project classpath", e );
+            }
+
+            for ( EntityMetadataIndex.Entry entry : new ArrayList<EntityMetadataIndex.Entry>( index.getEntries() ) ) {
+                if ( isDeclaredBySources( entry.getClassName() ) ) {
+                    index.remove( entry.getClassName() );
+                }
+            }
+        }
+
+        importedEntityIndex = index;
+        return importedEntityIndex;
+    }
+
+    private void addIndexedEntities( CachingJavaDocBuilder builder ) throws IOException {
+        Set<String> added = new HashSet<String>();
+        for ( EntityMetadataIndex.Entry entry : getImportedEntityIndex().getEntries() ) {
+            if ( added.add( entry.getDeclarations().toExternalForm() )
+                    && builder.addIndexedSource( entry.getDeclarations() ) == null ) {
+                getLog().warn( "Damaged entities index entry of " + entry.getClassName()
+                        + ", compiled class will be used instead" );
+            }
+        }
+    }
+
+    private boolean isDeclaredBySources( String className ) {
+        String path = className.replace( '.', File.separatorChar ) + ".java";
+        for ( String sourceRoot : project.getCompileSourceRoots() ) {
+            if ( new File( sourceRoot, path ).exists() ) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Shared model must reflect sources emitted by the goal, otherwise the next goals
+     * would see outdated (or not see at all) classes generated into the compile source roots.
+     *
+     * @param builder classes model used by the goal
+     * @param files generated source files
+     */
+    protected void refreshJavaDocBuilder( JavaDocBuilder builder, Collection<File> files )
+            throws MojoExecutionException {
+        if ( session == null || !shareClassesModel ) {
+            return;
+        }
+
+        try {
+            if ( BuildSessionCache.get( session, getClassesModelKey() ) != builder ) {
+                return;
+            }
+
+            for ( File file : files ) {
+                if ( file.exists() && isUnderCompileSourceRoot(file) ) {
+                    builder.addSource(file);
+                }
+            }
+        } catch ( DependencyResolutionRequiredException e ) {
             throw new MojoExecutionException( "Failed to resolve project classpath", e );
+        } catch ( IOException e ) {
+            throw new MojoExecutionException( "Failed to refresh classes model", e );
+        }
+    }
+
+    /**
+     * Closes resources shared through the {@link BuildSessionCache} (classpath jars) once the goal is done with
+     * the last project of a sequential reactor, they are reopened if another goal needs them. The last project
+     * of a parallel build is not known, its resources are closed at the end of the session by
+     * {@link BuildSessionCacheParticipant} (plugin extensions enabled) or when the next session starts.
+     */
+    protected void closeSessionResources() {
+        if ( session == null || session.isParallel() || session.getProjects() == null
+                || session.getProjects().isEmpty() ) {
+            return;
+        }
+
+        if ( session.getProjects().get( session.getProjects().size() - 1 ) == project ) {
+            BuildSessionCache.closeResources(session);
+        }
+    }
+
+    /**
+     * Makes the next {@link #createJavaDocBuilder()} build the classes model again instead of reusing the shared one
+     */
+    protected void discardSharedJavaDocBuilder() throws MojoExecutionException {
+        if ( session == null || !shareClassesModel ) {
+            return;
+        }
+
+        try {
+            BuildSessionCache.remove( session, getClassesModelKey() );
         } catch ( DependencyResolutionRequiredException e ) {
             throw new MojoExecutionException( "Failed to resolve project classpath", e );
         }
     }
 
+    private boolean isUnderCompileSourceRoot( File file ) {
+        String path = file.getAbsolutePath();
+        for ( String sourceRoot : project.getCompileSourceRoots() ) {
+            if ( path.startsWith( new File(sourceRoot).getAbsolutePath() + File.separator ) ) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private String getClassesModelKey() throws DependencyResolutionRequiredException {
+        return JavaDocBuilder.class.getName() + ":" + project.getId() + ":" + lazySourceLoading
+                + ":" + importEntityIndex
+                + ":" + project.getCompileSourceRoots()
+                + ":" + project.getCompileClasspathElements();
+    }
+
 }
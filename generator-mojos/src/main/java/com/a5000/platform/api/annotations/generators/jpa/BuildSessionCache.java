@@ -0,0 +1,102 @@
+package com.a5000.platform.api.annotations.generators.jpa;
+
+import org.apache.maven.execution.MavenSession;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+/**
+ * Holds objects which are shared between the generator goals executed within the same
+ * Maven build session. Plugin classes are loaded once per build, so the holder is static;
+ * entries of the previous session are dropped as soon as another session accesses the cache.
+ *
+ * Values are softly referenced to not to keep models of all reactor modules till the end of the build.
+ * {@link Closeable} values are the session resources: they are held till the session is released
+ * (see {@link BuildSessionCacheParticipant}), so they are always closed, and they must reopen whatever
+ * they need once they are used after {@link #closeResources(MavenSession)}.
+ */
+public final class BuildSessionCache {
+
+    private static WeakReference<MavenSession> session = new WeakReference<MavenSession>(null);
+
+    private static final Map<Object, SoftReference<Object>> entries = new HashMap<Object, SoftReference<Object>>();
+
+    private static final Set<Closeable> resources = Collections.newSetFromMap( new IdentityHashMap<Closeable, Boolean>() );
+
+    private BuildSessionCache() {}
+
+    public static synchronized Object get( MavenSession currentSession, Object key ) {
+        checkSession(currentSession);
+
+        SoftReference<Object> reference = entries.get(key);
+        if ( reference == null ) {
+            return null;
+        }
+
+        Object result = reference.get();
+        if ( result == null ) {
+            entries.remove(key);
+        }
+
+        return result;
+    }
+
+    public static synchronized void put( MavenSession currentSession, Object key, Object value ) {
+        checkSession(currentSession);
+        entries.put( key, new SoftReference<Object>(value) );
+        if ( value instanceof Closeable ) {
+            resources.add( (Closeable) value );
+        }
+    }
+
+    public static synchronized void remove( MavenSession currentSession, Object key ) {
+        checkSession(currentSession);
+        entries.remove(key);
+    }
+
+    /**
+     * Closes resources of the session, entries are kept
+     */
+    public static synchronized void closeResources( MavenSession currentSession ) {
+        if ( session.get() == currentSession ) {
+            closeResources();
+        }
+    }
+
+    /**
+     * Closes resources and drops entries of the session which is over
+     */
+    public static synchronized void release( MavenSession currentSession ) {
+        if ( session.get() == currentSession ) {
+            release();
+            session = new WeakReference<MavenSession>(null);
+        }
+    }
+
+    private static void checkSession( MavenSession currentSession ) {
+        if ( session.get() != currentSession ) {
+            release();
+            session = new WeakReference<MavenSession>(currentSession);
+        }
+    }
+
+    private static void release() {
+        closeResources();
+        resources.clear();
+        entries.clear();
+    }
+
+    private static void closeResources() {
+        for ( Closeable resource : resources ) {
+            try {
+                resource.close();
+            } catch ( IOException e ) {
+                // nothing to do with it, it would be reopened if needed
+            }
+        }
+    }
+
+}
@@ -0,0 +1,21 @@
+package com.a5000.platform.api.annotations.generators.jpa;
+
+import org.apache.maven.AbstractMavenLifecycleParticipant;
+import org.apache.maven.MavenExecutionException;
+import org.apache.maven.execution.MavenSession;
+
+/**
+ * Releases the {@link BuildSessionCache} once the build session is over. Maven invokes lifecycle participants
+ * of the plugins declared with extensions enabled only; without them resources are closed by the goals executed
+ * for the last project of the reactor (see {@link AbstractMojo#closeSessionResources()}).
+ */
+public class BuildSessionCacheParticipant extends AbstractMavenLifecycleParticipant {
+
+    /**
+     * Invoked by Maven 3.2.1 and newer, the method is not declared by the API the plugin is built with
+     */
+    public void afterSessionEnd( MavenSession session ) throws MavenExecutionException {
+        BuildSessionCache.release(session);
+    }
+
+}
@@ -0,0 +1,416 @@
+package com.a5000.platform.api.annotations.generators.jpa;
+
+import com.thoughtworks.qdox.JavaClassContext;
+import com.thoughtworks.qdox.JavaDocBuilder;
+import com.thoughtworks.qdox.model.*;
+import com.thoughtworks.qdox.parser.Builder;
+import com.thoughtworks.qdox.parser.ParseException;
+import com.thoughtworks.qdox.parser.impl.JFlexLexer;
+import com.thoughtworks.qdox.parser.impl.Parser;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * {@link JavaDocBuilder} which takes source files model from the {@link ParsedSourceCache} when
+ * their content has not been changed since the model was stored, other files are parsed and stored.
+ *
+ * Mimics {@link JavaDocBuilder#addSource(java.io.Reader, String)}, but keeps file sources on its own,
+ * so a source added again (e.g. regenerated one) replaces the previous version.
+ *
+ * Cache is optional, without it the builder only parses. When the class library knows the source of
+ * a class, the source is preferred over the compiled class (which lacks annotations).
+ *
+ * Unlike {@link JavaDocBuilder} the model is safe to be shared by concurrent generation workers,
+ * see {@link SynchronizedJavaClassContext}.
+ */
+public class CachingJavaDocBuilder extends JavaDocBuilder {
+
+    /**
+     * Orders classes by their fully qualified names, so the generated output does not depend on the
+     * order sources are discovered or hashed in
+     */
+    public static final Comparator<JavaClass> CLASS_NAME_ORDER = new Comparator<JavaClass>() {
+        @Override
+        public int compare( JavaClass first, JavaClass second ) {
+            return first.getFullyQualifiedName().compareTo( second.getFullyQualifiedName() );
+        }
+    };
+
+    private final ParsedSourceCache cache;
+
+    private final DocletTagFactory docletTagFactory = new DefaultDocletTagFactory();
+
+    private final Map<String, JavaSource> fileSources = new LinkedHashMap<String, JavaSource>();
+
+    private final JavaClassContext context;
+
+    private ErrorHandler errorHandler = new DefaultErrorHandler();
+
+    private String encoding = System.getProperty("file.encoding");
+
+    private int cachedCount;
+
+    private int parsedCount;
+
+    private int indexedCount;
+
+    private boolean declarationsOnly;
+
+    public CachingJavaDocBuilder( ParsedSourceCache cache ) {
+        this.cache = cache;
+        this.context = installContext( getClassLibrary() );
+    }
+
+    public CachingJavaDocBuilder( ParsedSourceCache cache, ClassLibrary classLibrary ) {
+        super( new DefaultDocletTagFactory(), classLibrary );
+        this.cache = cache;
+        this.context = installContext(classLibrary);
+    }
+
+    /**
+     * @param declarationsOnly skip javadoc and method bodies not required by the generators
+     */
+    public void setDeclarationsOnly( boolean declarationsOnly ) {
+        this.declarationsOnly = declarationsOnly;
+    }
+
+    @Override
+    public JavaSource addSource( File file ) throws IOException {
+        byte[] content = readContent(file);
+        // the same bytes decoded with another encoding make another model
+        String digest = GenerationState.digest( Arrays.asList( encoding, GenerationState.digest(content) ) );
+        URL url = file.toURI().toURL();
+
+        ModelBuilder builder = new ModelBuilder( getContext(), docletTagFactory, null );
+        if ( cache != null && cache.replay( digest, createTargetBuilder(builder) ) ) {
+            cachedCount++;
+        } else {
+            builder = new ModelBuilder( getContext(), docletTagFactory, null );
+            ParsedSourceCache.Recorder recorder = new ParsedSourceCache.Recorder( createTargetBuilder(builder) );
+            Parser parser = new Parser(
+                    new JFlexLexer( new InputStreamReader( new ByteArrayInputStream(content), encoding ) ), recorder );
+
+            boolean parsed = true;
+            try {
+                parser.parse();
+            } catch ( ParseException e ) {
+                e.setSourceInfo( url.toExternalForm() );
+                errorHandler.handle(e);
+                parsed = false;
+            }
+
+            if ( parsed && cache != null ) {
+                cache.store( digest, recorder );
+            }
+
+            parsedCount++;
+        }
+
+        JavaSource source = builder.getSource();
+        source.setURL(url);
+        register(source);
+        return source;
+    }
+
+    /**
+     * Adds source rebuilt from the parser events stored by the {@link EntityMetadataIndex}
+     *
+     * @param events location of the stored events
+     * @return null when the events could not be replayed
+     */
+    public JavaSource addIndexedSource( URL events ) throws IOException {
+        ModelBuilder builder = new ModelBuilder( getContext(), docletTagFactory, null );
+        if ( !ParsedSourceCache.replay( events.openStream(), builder ) ) {
+            return null;
+        }
+
+        JavaSource source = builder.getSource();
+        source.setURL(events);
+        register(source);
+        indexedCount++;
+        return source;
+    }
+
+    /**
+     * Adds source built out of the parser events produced by the given emitter rather than the source text
+     *
+     * @param url location the source is known by, a source added with the same location is replaced
+     */
+    public JavaSource addSource( URL url, SourceEmitter emitter ) {
+        ModelBuilder builder = new ModelBuilder( getContext(), docletTagFactory, null );
+        emitter.emit( createTargetBuilder(builder) );
+
+        JavaSource source = builder.getSource();
+        source.setURL(url);
+        register(source);
+        return source;
+    }
+
+    @Override
+    protected JavaClass createBinaryClass( String name ) {
+        if ( getClassLibrary().getSourceFile(name) != null ) {
+            return null;
+        }
+
+        return super.createBinaryClass(name);
+    }
+
+    @Override
+    public JavaSource[] getSources() {
+        List<JavaSource> result = new ArrayList<JavaSource>( Arrays.asList( super.getSources() ) );
+        result.addAll( fileSources.values() );
+        return result.toArray( new JavaSource[result.size()] );
+    }
+
+    @Override
+    public JavaClass[] getClasses() {
+        Set<JavaClass> result = new TreeSet<JavaClass>(CLASS_NAME_ORDER);
+        for ( JavaSource source : getSources() ) {
+            for ( JavaClass javaClass : source.getClasses() ) {
+                collectClasses( javaClass, result );
+            }
+        }
+
+        return result.toArray( new JavaClass[result.size()] );
+    }
+
+    @Override
+    public JavaPackage[] getPackages() {
+        return getContext().getPackages();
+    }
+
+    @Override
+    public void setErrorHandler( ErrorHandler errorHandler ) {
+        super.setErrorHandler(errorHandler);
+        this.errorHandler = errorHandler;
+    }
+
+    @Override
+    public void setEncoding( String encoding ) {
+        super.setEncoding(encoding);
+        this.encoding = encoding;
+    }
+
+    /**
+     * Drops cached models of the sources which have not been added to the builder, see {@link ParsedSourceCache#prune()}
+     *
+     * @return count of the removed cache entries
+     */
+    public int pruneCache() {
+        return cache == null ? 0 : cache.prune();
+    }
+
+    /**
+     * @return count of the sources taken from the cache
+     */
+    public int getCachedCount() {
+        return cachedCount;
+    }
+
+    /**
+     * @return count of the sources which were parsed
+     */
+    public int getParsedCount() {
+        return parsedCount;
+    }
+
+    /**
+     * @return count of the sources taken from the entity metadata indexes
+     */
+    public int getIndexedCount() {
+        return indexedCount;
+    }
+
+    /**
+     * Cache always keeps complete model, so the declarations filter goes after the cache recorder
+     */
+    private Builder createTargetBuilder( ModelBuilder builder ) {
+        return declarationsOnly ? new DeclarationsOnlyBuilder(builder) : builder;
+    }
+
+    private void register( JavaSource source ) {
+        fileSources.put( source.getURL().toExternalForm(), source );
+
+        Set<JavaClass> classes = new HashSet<JavaClass>();
+        for ( JavaClass javaClass : source.getClasses() ) {
+            collectClasses( javaClass, classes );
+        }
+
+        for ( JavaClass javaClass : classes ) {
+            getContext().add(javaClass);
+            javaClass.setJavaClassContext( getContext() );
+        }
+    }
+
+    private void collectClasses( JavaClass javaClass, Set<JavaClass> result ) {
+        result.add(javaClass);
+        for ( JavaClass nestedClass : javaClass.getNestedClasses() ) {
+            collectClasses( nestedClass, result );
+        }
+    }
+
+    private JavaClassContext getContext() {
+        return context;
+    }
+
+    /**
+     * Context of the builder is neither exposed nor replaceable in QDox, so it is swapped in place
+     */
+    private JavaClassContext installContext( ClassLibrary classLibrary ) {
+        SynchronizedJavaClassContext result = new SynchronizedJavaClassContext( this, classLibrary );
+        setField( JavaDocBuilder.class, this, "context", result );
+        setField( ClassLibrary.class, classLibrary, "classNames",
+                new ConcurrentSkipListSet<Object>( (Set<?>) getField( ClassLibrary.class, classLibrary, "classNames" ) ) );
+        setField( ClassLibrary.class, classLibrary, "classNameToClassMap",
+                new ConcurrentHashMap<Object, Object>( (Map<?, ?>) getField( ClassLibrary.class, classLibrary, "classNameToClassMap" ) ) );
+        return result;
+    }
+
+    private static Object getField( Class<?> owner, Object target, String name ) {
+        try {
+            return getAccessibleField( owner, name ).get(target);
+        } catch ( IllegalAccessException e ) {
+            throw new IllegalStateException( e.getMessage(), e );
+        }
+    }
+
+    private static void setField( Class<?> owner, Object target, String name, Object value ) {
+        try {
+            getAccessibleField( owner, name ).set( target, value );
+        } catch ( IllegalAccessException e ) {
+            throw new IllegalStateException( e.getMessage(), e );
+        }
+    }
+
+    private static Field getAccessibleField( Class<?> owner, String name ) {
+        try {
+            Field field = owner.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch ( NoSuchFieldException e ) {
+            throw new IllegalStateException( "Unsupported QDox version, " + owner.getName() + "." + name + " not found", e );
+        }
+    }
+
+    private static byte[] readContent( File file ) throws IOException {
+        InputStream stream = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream result = new ByteArrayOutputStream( (int) file.length() );
+            byte[] buffer = new byte[8192];
+            int read;
+            while ( ( read = stream.read(buffer) ) != -1 ) {
+                result.write( buffer, 0, read );
+            }
+
+            return result.toByteArray();
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * QDox resolves classes, types and even member arrays lazily into plain fields and maps, so a model
+     * shared by generation workers would be modified concurrently. Every class lookup of the model goes
+     * through this context: classes are created and registered under a single lock and their lazy state
+     * is built before they are published, resolved classes (unknown ones included) are memoized for
+     * lock free reads.
+     */
+    private static class SynchronizedJavaClassContext extends JavaClassContext {
+
+        private final ConcurrentMap<String, JavaClass> resolvedClasses = new ConcurrentHashMap<String, JavaClass>();
+
+        SynchronizedJavaClassContext( JavaDocBuilder builder, ClassLibrary classLibrary ) {
+            super(builder);
+            setClassLibrary(classLibrary);
+        }
+
+        @Override
+        public JavaClass getClassByName( String name ) {
+            JavaClass result = resolvedClasses.get(name);
+            if ( result == null ) {
+                synchronized ( this ) {
+                    result = super.getClassByName(name);
+                    if ( result != null ) {
+                        resolvedClasses.put( name, result );
+                    }
+                }
+            }
+
+            return result;
+        }
+
+        @Override
+        public synchronized JavaClass[] getClasses() {
+            return super.getClasses();
+        }
+
+        @Override
+        public synchronized void add( JavaClass javaClass ) {
+            prepare(javaClass);
+            super.add(javaClass);
+            // the class replaces the previous version, e.g. of a regenerated source
+            resolvedClasses.remove( javaClass.getFullyQualifiedName() );
+        }
+
+        @Override
+        public synchronized void add( String fullyQualifiedClassName ) {
+            super.add(fullyQualifiedClassName);
+        }
+
+        @Override
+        public synchronized JavaPackage getPackageByName( String name ) {
+            return super.getPackageByName(name);
+        }
+
+        @Override
+        public synchronized void add( JavaPackage jPackage ) {
+            super.add(jPackage);
+        }
+
+        @Override
+        public synchronized JavaPackage[] getPackages() {
+            return super.getPackages();
+        }
+
+        /**
+         * Member arrays are assigned before they are filled, so they are built while the class is not shared yet
+         */
+        private void prepare( JavaClass javaClass ) {
+            javaClass.asType();
+            javaClass.getFields();
+            javaClass.getNestedClasses();
+            for ( JavaMethod method : javaClass.getMethods() ) {
+                method.getParameters();
+            }
+
+            JavaSource source = javaClass.getSource();
+            if ( source != null ) {
+                source.getImports();
+                source.getClasses();
+                // types are resolved on demand and memoized by the source
+                Object resolvedTypes = getField( JavaSource.class, source, "resolvedTypeCache" );
+                if ( !( resolvedTypes instanceof ConcurrentMap ) ) {
+                    setField( JavaSource.class, source, "resolvedTypeCache",
+                            new ConcurrentHashMap<Object, Object>( (Map<?, ?>) resolvedTypes ) );
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Producer of the parser events of a source, see {@link #addSource(URL, SourceEmitter)}
+     */
+    public interface SourceEmitter {
+
+        void emit( Builder builder );
+
+    }
+
+}
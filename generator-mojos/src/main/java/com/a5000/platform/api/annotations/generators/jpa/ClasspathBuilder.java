@@ -94,6 +94,27 @@ public class ClasspathBuilder
         }
     }
 
+    public void addOutputDirectoriesWithActiveProjects( final MavenProject project, final Collection<File> items,
+                                                        final String scope )
+    {
+        final List<Artifact> scopeArtifacts = getScopeArtifacts( project, scope );
+        if ( scopeArtifacts == null || project.getProjectReferences() == null )
+        {
+            return;
+        }
+
+        for ( Artifact artifact : scopeArtifacts )
+        {
+            String projectReferenceId =
+                getProjectReferenceId( artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion() );
+            MavenProject refProject = (MavenProject) project.getProjectReferences().get( projectReferenceId );
+            if ( refProject != null && refProject.getBuild() != null )
+            {
+                items.add( new File( refProject.getBuild().getOutputDirectory() ) );
+            }
+        }
+    }
+
     public void addResourcesWithActiveProjects( final MavenProject project, final Collection<File> items,
                                                 final String scope )
     {
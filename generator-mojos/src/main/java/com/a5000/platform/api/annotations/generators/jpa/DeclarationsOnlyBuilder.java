@@ -0,0 +1,119 @@
+package com.a5000.platform.api.annotations.generators.jpa;
+
+import com.thoughtworks.qdox.model.Annotation;
+import com.thoughtworks.qdox.model.Type;
+import com.thoughtworks.qdox.parser.Builder;
+import com.thoughtworks.qdox.parser.structs.*;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Builder decorator which passes to the target builder declarations only: javadoc is dropped as well as
+ * bodies of the methods, except methods annotated with @DtoMethod (their bodies are copied into DTOs).
+ */
+public class DeclarationsOnlyBuilder implements Builder {
+
+    private final Builder target;
+
+    /**
+     * Raw names of the annotation types, annotations must not be resolved while the source is being parsed
+     */
+    private final Map<Type, String> annotationTypes = new IdentityHashMap<Type, String>();
+
+    private boolean bodyRequested;
+
+    private boolean keepMethodBody;
+
+    public DeclarationsOnlyBuilder( Builder target ) {
+        this.target = target;
+    }
+
+    public void addPackage( PackageDef packageDef ) {
+        target.addPackage(packageDef);
+    }
+
+    public void addImport( String importName ) {
+        target.addImport(importName);
+    }
+
+    public void addJavaDoc( String text ) {
+    }
+
+    public void addJavaDocTag( TagDef def ) {
+    }
+
+    public void beginClass( ClassDef def ) {
+        bodyRequested = false;
+        target.beginClass(def);
+    }
+
+    public void endClass() {
+        target.endClass();
+    }
+
+    public void beginMethod() {
+        keepMethodBody = bodyRequested;
+        bodyRequested = false;
+        target.beginMethod();
+    }
+
+    public void endMethod( MethodDef def ) {
+        if ( keepMethodBody || def.body == null ) {
+            target.endMethod(def);
+            return;
+        }
+
+        MethodDef declaration = new MethodDef();
+        declaration.name = def.name;
+        declaration.lineNumber = def.lineNumber;
+        declaration.typeParams = def.typeParams;
+        declaration.returnType = def.returnType;
+        declaration.modifiers = def.modifiers;
+        declaration.params = def.params;
+        declaration.exceptions = def.exceptions;
+        declaration.constructor = def.constructor;
+        declaration.dimensions = def.dimensions;
+        target.endMethod(declaration);
+    }
+
+    public void addParameter( FieldDef def ) {
+        bodyRequested = false;
+        target.addParameter(def);
+    }
+
+    public void addField( FieldDef def ) {
+        bodyRequested = false;
+        target.addField(def);
+    }
+
+    public void addAnnotation( Annotation annotation ) {
+        String typeName = annotationTypes.get( annotation.getType() );
+        if ( typeName != null && ( typeName.equals(AbstractGeneratorMojo.DTO_METHOD_ANNOTATION_CLASS_NAME)
+                || typeName.endsWith( "." + AbstractGeneratorMojo.DTO_METHOD_ANNOTATION_CLASS_NAME ) ) ) {
+            bodyRequested = true;
+        }
+
+        target.addAnnotation(annotation);
+    }
+
+    @SuppressWarnings("deprecation")
+    public Type createType( String name, int dimensions ) {
+        Type type = target.createType(name, dimensions);
+        if ( type != null ) {
+            annotationTypes.put( type, name );
+        }
+
+        return type;
+    }
+
+    public Type createType( TypeDef def ) {
+        Type type = target.createType(def);
+        if ( type != null ) {
+            annotationTypes.put( type, def.name );
+        }
+
+        return type;
+    }
+
+}
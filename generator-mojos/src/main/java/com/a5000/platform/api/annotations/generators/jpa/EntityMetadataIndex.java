@@ -0,0 +1,257 @@
+package com.a5000.platform.api.annotations.generators.jpa;
+
+import com.thoughtworks.qdox.JavaClassContext;
+import com.thoughtworks.qdox.model.ClassLibrary;
+import com.thoughtworks.qdox.model.DefaultDocletTagFactory;
+import com.thoughtworks.qdox.model.ModelBuilder;
+import com.thoughtworks.qdox.parser.ParseException;
+import com.thoughtworks.qdox.parser.impl.JFlexLexer;
+import com.thoughtworks.qdox.parser.impl.Parser;
+
+import java.io.*;
+import java.net.URL;
+import java.util.*;
+
+/**
+ * Metadata of the entities (and their supertypes) declared by a module, packaged into the module classes
+ * so generators of the dependent modules take the entities model from the index instead of the compiled
+ * classes (which lack annotations) or parsing sources of the module once again.
+ *
+ * Index consists of the {@link #INDEX_RESOURCE} listing with a line per class (name, id type, DTO class
+ * name and entry file), and of the entries: declarations of the class source (fields, methods signatures
+ * and annotations, no javadoc and method bodies) stored as parser events in the {@link ParsedSourceCache}
+ * format.
+ */
+public class EntityMetadataIndex {
+
+    public static final String INDEX_DIRECTORY = "META-INF/a5000-generators/entities";
+
+    public static final String INDEX_RESOURCE = INDEX_DIRECTORY + "/index";
+
+    private static final String ENTRY_EXTENSION = ".bin";
+
+    private static final String SEPARATOR = "\t";
+
+    private static final String NONE = "-";
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+    private final Map<String, File> sources = new LinkedHashMap<String, File>();
+
+    public Entry getEntry( String className ) {
+        return entries.get(className);
+    }
+
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection( entries.values() );
+    }
+
+    public void remove( String className ) {
+        entries.remove(className);
+        sources.remove(className);
+    }
+
+    /**
+     * Loads all the indexes visible to the class loader, the first loaded entry of a class wins
+     */
+    public void load( ClassLoader classLoader ) throws IOException {
+        Enumeration<URL> resources = classLoader.getResources(INDEX_RESOURCE);
+        while ( resources.hasMoreElements() ) {
+            load( resources.nextElement() );
+        }
+    }
+
+    /**
+     * Loads index of the classes directory, if there is one
+     */
+    public void load( File classesDirectory ) throws IOException {
+        File indexFile = new File( classesDirectory, INDEX_RESOURCE );
+        if ( indexFile.isFile() ) {
+            load( indexFile.toURI().toURL() );
+        }
+    }
+
+    public void load( URL index ) throws IOException {
+        BufferedReader reader = new BufferedReader( new InputStreamReader( index.openStream(), "UTF-8" ) );
+        try {
+            String line;
+            while ( ( line = reader.readLine() ) != null ) {
+                if ( line.trim().isEmpty() ) {
+                    continue;
+                }
+
+                String[] parts = line.split(SEPARATOR);
+                if ( parts.length != 4 ) {
+                    throw new IOException("Malformed entry '" + line + "' of the entities index " + index );
+                }
+
+                if ( !entries.containsKey( parts[0] ) ) {
+                    entries.put( parts[0], new Entry( parts[0], readValue( parts[1] ), readValue( parts[2] ),
+                            new URL( index, parts[3] ) ) );
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Adds class to be saved into the index
+     *
+     * @param source file which declares the class
+     */
+    public void add( String className, String idType, String dtoClassName, File source ) {
+        entries.put( className, new Entry( className, idType, dtoClassName, null ) );
+        sources.put( className, source );
+    }
+
+    /**
+     * Saves added classes into the classes directory replacing the previously saved index. Classes
+     * declared by the same source share the entry.
+     *
+     * @return names of the classes left out as their sources could not be stored
+     */
+    public List<String> save( File classesDirectory, String encoding ) throws IOException {
+        File directory = new File( classesDirectory, INDEX_DIRECTORY );
+        directory.mkdirs();
+
+        Map<File, String> entryNames = new HashMap<File, String>();
+        List<String> skipped = new ArrayList<String>();
+        StringBuilder index = new StringBuilder();
+        for ( Entry entry : entries.values() ) {
+            File source = sources.get( entry.getClassName() );
+            String entryName = entryNames.get(source);
+            if ( entryName == null ) {
+                byte[] events = record( source, encoding );
+                if ( events == null ) {
+                    skipped.add( entry.getClassName() );
+                    continue;
+                }
+
+                entryName = entry.getClassName() + ENTRY_EXTENSION;
+                writeIfChanged( new File( directory, entryName ), events );
+                entryNames.put( source, entryName );
+            }
+
+            index.append( entry.getClassName() ).append(SEPARATOR)
+                 .append( writeValue( entry.getIdType() ) ).append(SEPARATOR)
+                 .append( writeValue( entry.getDtoClassName() ) ).append(SEPARATOR)
+                 .append(entryName).append('\n');
+        }
+
+        File[] previous = directory.listFiles();
+        if ( previous != null ) {
+            for ( File file : previous ) {
+                if ( file.getName().endsWith(ENTRY_EXTENSION) && !entryNames.containsValue( file.getName() ) ) {
+                    file.delete();
+                }
+            }
+        }
+
+        writeIfChanged( new File( classesDirectory, INDEX_RESOURCE ), index.toString().getBytes("UTF-8") );
+        return skipped;
+    }
+
+    /**
+     * @return declarations of the source or null when the source contains annotation expressions
+     *         not supported by the events format
+     */
+    private static byte[] record( File source, String encoding ) throws IOException {
+        ModelBuilder model = new ModelBuilder( new JavaClassContext( new ClassLibrary() ),
+                new DefaultDocletTagFactory(), null );
+        ParsedSourceCache.Recorder recorder = new ParsedSourceCache.Recorder(model);
+
+        Reader reader = new InputStreamReader( new FileInputStream(source), encoding );
+        try {
+            new Parser( new JFlexLexer(reader), new DeclarationsOnlyBuilder(recorder) ).parse();
+        } catch ( ParseException e ) {
+            throw new IOException("Failed to parse " + source, e );
+        } finally {
+            reader.close();
+        }
+
+        if ( !recorder.isCacheable() ) {
+            return null;
+        }
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        ParsedSourceCache.write( result, recorder );
+        return result.toByteArray();
+    }
+
+    private static void writeIfChanged( File file, byte[] content ) throws IOException {
+        if ( file.isFile() && file.length() == content.length ) {
+            DataInputStream input = new DataInputStream( new FileInputStream(file) );
+            try {
+                byte[] existing = new byte[content.length];
+                input.readFully(existing);
+                if ( Arrays.equals( existing, content ) ) {
+                    return;
+                }
+            } finally {
+                input.close();
+            }
+        }
+
+        file.getParentFile().mkdirs();
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content);
+        } finally {
+            output.close();
+        }
+    }
+
+    private static String readValue( String value ) {
+        return NONE.equals(value) ? null : value;
+    }
+
+    private static String writeValue( String value ) {
+        return value == null ? NONE : value;
+    }
+
+    public static class Entry {
+
+        private final String className;
+
+        private final String idType;
+
+        private final String dtoClassName;
+
+        private final URL declarations;
+
+        public Entry( String className, String idType, String dtoClassName, URL declarations ) {
+            this.className = className;
+            this.idType = idType;
+            this.dtoClassName = dtoClassName;
+            this.declarations = declarations;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        /**
+         * @return type of the entity identifier or null when the class has none
+         */
+        public String getIdType() {
+            return idType;
+        }
+
+        /**
+         * @return name of the DTO generated for the entity by the module
+         */
+        public String getDtoClassName() {
+            return dtoClassName;
+        }
+
+        /**
+         * @return location of the stored declarations, null for the entries being saved
+         */
+        public URL getDeclarations() {
+            return declarations;
+        }
+
+    }
+
+}
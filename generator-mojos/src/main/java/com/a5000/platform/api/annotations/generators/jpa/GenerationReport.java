@@ -0,0 +1,112 @@
+package com.a5000.platform.api.annotations.generators.jpa;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Timings of a generator run: wall time of every phase (parse, discovery, generation, write) and
+ * of every processed entity, together with the amount of generated output.
+ *
+ * Saved as a JSON document, so the results could be compared across the builds.
+ * Entity timings could be recorded concurrently by the parallel generation workers.
+ */
+public class GenerationReport {
+
+    private final String generator;
+
+    private final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+
+    private final Map<String, Long> entities = new LinkedHashMap<String, Long>();
+
+    private int entitiesCount;
+
+    private int writtenFiles;
+
+    private int unchangedFiles;
+
+    private long writtenBytes;
+
+    public GenerationReport( String generator ) {
+        this.generator = generator;
+    }
+
+    /**
+     * @param started {@link System#nanoTime()} taken when the phase has been started
+     */
+    public synchronized void recordPhase( String phase, long started ) {
+        Long previous = phases.get(phase);
+        phases.put( phase, ( previous == null ? 0 : previous ) + System.nanoTime() - started );
+    }
+
+    /**
+     * @param started {@link System#nanoTime()} taken when generation of the entity has been started
+     */
+    public synchronized void recordEntity( String entityName, long started ) {
+        Long previous = entities.get(entityName);
+        entities.put( entityName, ( previous == null ? 0 : previous ) + System.nanoTime() - started );
+    }
+
+    public synchronized void setEntitiesCount( int entitiesCount ) {
+        this.entitiesCount = entitiesCount;
+    }
+
+    public synchronized void recordOutput( int writtenFiles, int unchangedFiles, long writtenBytes ) {
+        this.writtenFiles = writtenFiles;
+        this.unchangedFiles = unchangedFiles;
+        this.writtenBytes = writtenBytes;
+    }
+
+    public synchronized void save( File reportFile ) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\n");
+        builder.append("  \"generator\": ").append( quote(generator) ).append(",\n");
+        builder.append("  \"entities\": ").append(entitiesCount).append(",\n");
+        builder.append("  \"processedEntities\": ").append( entities.size() ).append(",\n");
+        builder.append("  \"writtenFiles\": ").append(writtenFiles).append(",\n");
+        builder.append("  \"unchangedFiles\": ").append(unchangedFiles).append(",\n");
+        builder.append("  \"writtenBytes\": ").append(writtenBytes).append(",\n");
+        builder.append("  \"phasesMillis\": ");
+        appendTimings( builder, phases );
+        builder.append(",\n");
+        builder.append("  \"entitiesMillis\": ");
+        appendTimings( builder, new TreeMap<String, Long>(entities) );
+        builder.append("\n}\n");
+
+        reportFile.getParentFile().mkdirs();
+        Writer writer = new OutputStreamWriter( new FileOutputStream(reportFile), "UTF-8" );
+        try {
+            writer.write( builder.toString() );
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void appendTimings( StringBuilder builder, Map<String, Long> timings ) {
+        builder.append("{");
+        boolean first = true;
+        for ( Map.Entry<String, Long> entry : timings.entrySet() ) {
+            builder.append( first ? "\n" : ",\n" );
+            builder.append("    ").append( quote(entry.getKey()) ).append(": ")
+                   .append( String.format( Locale.ROOT, "%.3f", entry.getValue() / 1000000.0 ) );
+            first = false;
+        }
+
+        builder.append( first ? "}" : "\n  }" );
+    }
+
+    private static String quote( String value ) {
+        StringBuilder result = new StringBuilder("\"");
+        for ( char item : value.toCharArray() ) {
+            if ( item == '"' || item == '\\' ) {
+                result.append('\\').append(item);
+            } else if ( item < 0x20 ) {
+                result.append( String.format( "\\u%04x", (int) item ) );
+            } else {
+                result.append(item);
+            }
+        }
+
+        return result.append('"').toString();
+    }
+
+}
@@ -0,0 +1,239 @@
+package com.a5000.platform.api.annotations.generators.jpa;
+
+import com.a5000.platform.api.annotations.generators.jpa.utils.StringUtils;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Persistent record of a generator run: configuration fingerprint and, for every
+ * processed entity, its fingerprint, the types it depends on and the classes it produced.
+ *
+ * Used by {@link AbstractGeneratorMojo} to skip entities which are up-to-date.
+ * Outputs could be recorded concurrently by the parallel generation workers.
+ */
+public class GenerationState {
+
+    private static final String FORMAT_VERSION = "1";
+
+    private static final String VERSION_KEY = "version";
+    private static final String CONFIGURATION_KEY = "configuration";
+    private static final String FINGERPRINT_PREFIX = "fingerprint.";
+    private static final String DEPENDENCIES_PREFIX = "dependencies.";
+    private static final String OUTPUTS_PREFIX = "outputs.";
+    private static final String AGGREGATED_OUTPUTS_KEY = "outputs";
+
+    private static final String LIST_SEPARATOR = ",";
+
+    private final File stateFile;
+
+    private String configuration;
+
+    private final Map<String, String> fingerprints = new HashMap<String, String>();
+    private final Map<String, Set<String>> dependencies = new HashMap<String, Set<String>>();
+    private final Map<String, Set<String>> outputs = new HashMap<String, Set<String>>();
+    private final Set<String> aggregatedOutputs = new TreeSet<String>();
+
+    public GenerationState( File stateFile ) {
+        this.stateFile = stateFile;
+    }
+
+    public static GenerationState load( File stateFile ) throws IOException {
+        GenerationState state = new GenerationState(stateFile);
+        if ( !stateFile.exists() ) {
+            return state;
+        }
+
+        Properties properties = new Properties();
+        InputStream stream = new FileInputStream(stateFile);
+        try {
+            properties.load(stream);
+        } finally {
+            stream.close();
+        }
+
+        if ( !FORMAT_VERSION.equals( properties.getProperty(VERSION_KEY) ) ) {
+            return state;
+        }
+
+        state.configuration = properties.getProperty(CONFIGURATION_KEY);
+        state.aggregatedOutputs.addAll( splitList(properties.getProperty(AGGREGATED_OUTPUTS_KEY)) );
+        for ( String key : properties.stringPropertyNames() ) {
+            String value = properties.getProperty(key);
+            if ( key.startsWith(FINGERPRINT_PREFIX) ) {
+                state.fingerprints.put( key.substring(FINGERPRINT_PREFIX.length()), value );
+            } else if ( key.startsWith(DEPENDENCIES_PREFIX) ) {
+                state.dependencies.put( key.substring(DEPENDENCIES_PREFIX.length()), splitList(value) );
+            } else if ( key.startsWith(OUTPUTS_PREFIX) ) {
+                state.outputs.put( key.substring(OUTPUTS_PREFIX.length()), splitList(value) );
+            }
+        }
+
+        return state;
+    }
+
+    public void save() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(VERSION_KEY, FORMAT_VERSION);
+        if ( configuration != null ) {
+            properties.setProperty(CONFIGURATION_KEY, configuration);
+        }
+
+        properties.setProperty(AGGREGATED_OUTPUTS_KEY, StringUtils.join(aggregatedOutputs, LIST_SEPARATOR));
+
+        for ( Map.Entry<String, String> entry : fingerprints.entrySet() ) {
+            properties.setProperty( FINGERPRINT_PREFIX + entry.getKey(), entry.getValue() );
+        }
+
+        for ( Map.Entry<String, Set<String>> entry : dependencies.entrySet() ) {
+            properties.setProperty( DEPENDENCIES_PREFIX + entry.getKey(),
+                    StringUtils.join(entry.getValue(), LIST_SEPARATOR) );
+        }
+
+        for ( Map.Entry<String, Set<String>> entry : outputs.entrySet() ) {
+            properties.setProperty( OUTPUTS_PREFIX + entry.getKey(),
+                    StringUtils.join(entry.getValue(), LIST_SEPARATOR) );
+        }
+
+        stateFile.getParentFile().mkdirs();
+        OutputStream stream = new FileOutputStream(stateFile);
+        try {
+            properties.store(stream, null);
+        } finally {
+            stream.close();
+        }
+    }
+
+    public File getStateFile() {
+        return stateFile;
+    }
+
+    public String getConfiguration() {
+        return configuration;
+    }
+
+    public void setConfiguration( String configuration ) {
+        this.configuration = configuration;
+    }
+
+    public Set<String> getEntities() {
+        return Collections.unmodifiableSet( fingerprints.keySet() );
+    }
+
+    public String getFingerprint( String entityName ) {
+        return fingerprints.get(entityName);
+    }
+
+    public void setFingerprint( String entityName, String fingerprint, Collection<String> entityDependencies ) {
+        fingerprints.put(entityName, fingerprint);
+        dependencies.put(entityName, new TreeSet<String>(entityDependencies) );
+    }
+
+    public Set<String> getDependencies( String entityName ) {
+        Set<String> result = dependencies.get(entityName);
+        return result == null ? Collections.<String>emptySet() : result;
+    }
+
+    public Set<String> getOutputs( String entityName ) {
+        Set<String> result = outputs.get(entityName);
+        return result == null ? Collections.<String>emptySet() : result;
+    }
+
+    public Set<String> getAggregatedOutputs() {
+        return aggregatedOutputs;
+    }
+
+    /**
+     * @return classes produced for all the entities together with aggregated ones
+     */
+    public synchronized Set<String> getAllOutputs() {
+        Set<String> result = new TreeSet<String>(aggregatedOutputs);
+        for ( Set<String> entityOutputs : outputs.values() ) {
+            result.addAll(entityOutputs);
+        }
+
+        return result;
+    }
+
+    /**
+     * @param entityName entity which caused class generation or null when class aggregates all entities
+     * @param className fully qualified name of the generated class
+     */
+    public synchronized void recordOutput( String entityName, String className ) {
+        if ( entityName == null ) {
+            aggregatedOutputs.add(className);
+            return;
+        }
+
+        Set<String> entityOutputs = outputs.get(entityName);
+        if ( entityOutputs == null ) {
+            outputs.put(entityName, entityOutputs = new TreeSet<String>() );
+        }
+
+        entityOutputs.add(className);
+    }
+
+    /**
+     * Copies everything known about the given entity from the previous state
+     */
+    public void retain( GenerationState previous, String entityName ) {
+        String fingerprint = previous.getFingerprint(entityName);
+        if ( fingerprint == null ) {
+            return;
+        }
+
+        setFingerprint(entityName, fingerprint, previous.getDependencies(entityName));
+        for ( String className : previous.getOutputs(entityName) ) {
+            recordOutput(entityName, className);
+        }
+    }
+
+    public static String digest( byte[] data ) {
+        return toHex( createDigest().digest(data) );
+    }
+
+    public static String digest( Collection<String> parts ) {
+        MessageDigest digest = createDigest();
+        for ( String part : parts ) {
+            try {
+                digest.update( String.valueOf(part).getBytes("UTF-8") );
+            } catch ( UnsupportedEncodingException e ) {
+                throw new IllegalStateException( e.getMessage(), e );
+            }
+            digest.update( (byte) 0 );
+        }
+
+        return toHex( digest.digest() );
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch ( NoSuchAlgorithmException e ) {
+            throw new IllegalStateException( e.getMessage(), e );
+        }
+    }
+
+    private static String toHex( byte[] data ) {
+        StringBuilder builder = new StringBuilder();
+        for ( byte item : data ) {
+            builder.append( Character.forDigit( (item >> 4) & 0xF, 16 ) )
+                   .append( Character.forDigit( item & 0xF, 16 ) );
+        }
+
+        return builder.toString();
+    }
+
+    private static Set<String> splitList( String value ) {
+        Set<String> result = new TreeSet<String>();
+        if ( value == null || value.isEmpty() ) {
+            return result;
+        }
+
+        result.addAll( Arrays.asList( value.split(LIST_SEPARATOR) ) );
+        return result;
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.a5000.platform.api.annotations.generators.jpa;
+
+import com.sun.codemodel.CodeWriter;
+import com.sun.codemodel.JPackage;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Code writer which renders every compilation unit into memory and touches the file on disk only
+ * when its content has been changed, so unchanged generated files keep their timestamps and do not
+ * trigger recompilation of the dependent code.
+ *
+ * The same writer could be shared by the code models built concurrently, as long as they produce
+ * different files.
+ */
+public class IncrementalCodeWriter extends CodeWriter {
+
+    private final File target;
+
+    private final List<File> files = new ArrayList<File>();
+
+    private int writtenCount;
+
+    private int unchangedCount;
+
+    private long writtenBytes;
+
+    public IncrementalCodeWriter( File target ) {
+        this.target = target;
+    }
+
+    @Override
+    public OutputStream openBinary( JPackage pkg, String fileName ) throws IOException {
+        final File file = getFile( pkg, fileName );
+        return new ByteArrayOutputStream() {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if ( !closed ) {
+                    closed = true;
+                    writeIfChanged( file, toByteArray() );
+                }
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    /**
+     * @return all the files produced through the writer, both written and unchanged ones
+     */
+    public synchronized List<File> getFiles() {
+        return Collections.unmodifiableList( new ArrayList<File>(files) );
+    }
+
+    /**
+     * @return count of the files which have been (re)written
+     */
+    public synchronized int getWrittenCount() {
+        return writtenCount;
+    }
+
+    /**
+     * @return total size of the files which have been (re)written
+     */
+    public synchronized long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    /**
+     * @return count of the files left untouched as their content is the same
+     */
+    public synchronized int getUnchangedCount() {
+        return unchangedCount;
+    }
+
+    protected File getFile( JPackage pkg, String fileName ) {
+        File directory = pkg.isUnnamed()
+                ? target
+                : new File( target, pkg.name().replace( '.', File.separatorChar ) );
+        return new File( directory, fileName );
+    }
+
+    private void writeIfChanged( File file, byte[] content ) throws IOException {
+        if ( file.isFile() && file.length() == content.length
+                && Arrays.equals( readContent(file), content ) ) {
+            record( file, -1 );
+            return;
+        }
+
+        file.getParentFile().mkdirs();
+        OutputStream stream = new FileOutputStream(file);
+        try {
+            stream.write(content);
+        } finally {
+            stream.close();
+        }
+
+        record( file, content.length );
+    }
+
+    /**
+     * @param written size of the written content or -1 when the file has been kept as is
+     */
+    private synchronized void record( File file, int written ) {
+        files.add(file);
+        if ( written >= 0 ) {
+            writtenCount++;
+            writtenBytes += written;
+        } else {
+            unchangedCount++;
+        }
+    }
+
+    private static byte[] readContent( File file ) throws IOException {
+        InputStream stream = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream result = new ByteArrayOutputStream( (int) file.length() );
+            byte[] buffer = new byte[8192];
+            int read;
+            while ( ( read = stream.read(buffer) ) != -1 ) {
+                result.write( buffer, 0, read );
+            }
+
+            return result.toByteArray();
+        } finally {
+            stream.close();
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.a5000.platform.api.annotations.generators.jpa;
+
+import com.thoughtworks.qdox.model.ClassLibrary;
+import org.codehaus.plexus.util.DirectoryScanner;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Class library which locates sources through the index of the source folders built once when
+ * the folder is added, instead of probing the file system on every class lookup.
+ */
+public class IndexedClassLibrary extends ClassLibrary {
+
+    private static final String SOURCE_EXTENSION = ".java";
+
+    private final Map<String, File> sourceFiles = new HashMap<String, File>();
+
+    public IndexedClassLibrary() {
+        addDefaultLoader();
+    }
+
+    @Override
+    public void addSourceFolder( File sourceFolder ) {
+        super.addSourceFolder(sourceFolder);
+        if ( !sourceFolder.isDirectory() ) {
+            return;
+        }
+
+        DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir(sourceFolder);
+        scanner.setIncludes( new String[] { "**/*" + SOURCE_EXTENSION } );
+        scanner.scan();
+
+        for ( String path : scanner.getIncludedFiles() ) {
+            String className = path.substring( 0, path.length() - SOURCE_EXTENSION.length() )
+                    .replace( File.separatorChar, '.' );
+
+            // first source folder wins, the same as the compiler does
+            if ( !sourceFiles.containsKey(className) ) {
+                sourceFiles.put( className, new File( sourceFolder, path ) );
+            }
+        }
+    }
+
+    @Override
+    public File getSourceFile( String className ) {
+        return sourceFiles.get( className.split("\\$")[0] );
+    }
+
+    public Set<String> getIndexedClasses() {
+        return Collections.unmodifiableSet( sourceFiles.keySet() );
+    }
+
+}
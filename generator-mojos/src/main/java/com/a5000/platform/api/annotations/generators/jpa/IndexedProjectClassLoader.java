@@ -0,0 +1,265 @@
+package com.a5000.platform.api.annotations.generators.jpa;
+
+import org.apache.maven.execution.MavenSession;
+
+import java.io.*;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Project classloader which knows packages of every classpath jar up front, so a class or resource is
+ * looked up in the jars which have its package only, instead of probing all of them. Classpath order is
+ * kept: the first element which has the class wins, as with the regular project classloader.
+ *
+ * Jars are indexed once and shared by the classloaders of the same build session (see {@link #create}),
+ * their files are closed together with the session resources of the {@link BuildSessionCache} and reopened
+ * if they are needed again. Directories could be changed during the build, so they are not indexed and
+ * always looked up.
+ */
+public class IndexedProjectClassLoader extends ClassLoader {
+
+    private static final String CLASS_EXTENSION = ".class";
+
+    private final List<Object> elements = new ArrayList<Object>();
+
+    private final ConcurrentMap<String, List<Object>> packageElements = new ConcurrentHashMap<String, List<Object>>();
+
+    /**
+     * @param elements classpath elements in the lookup order, directories (as files) and jars
+     */
+    public IndexedProjectClassLoader( List<?> elements, ClassLoader parent ) {
+        super(parent);
+
+        for ( Object element : elements ) {
+            if ( !( element instanceof File ) && !( element instanceof IndexedJar ) ) {
+                throw new IllegalArgumentException( "Unsupported classpath element: " + element );
+            }
+
+            this.elements.add(element);
+        }
+    }
+
+    /**
+     * @param session build session to share opened jars within, could be null
+     * @param classpath classpath elements (jars and directories)
+     */
+    public static IndexedProjectClassLoader create( MavenSession session, Collection<File> classpath,
+                                                    ClassLoader parent ) throws IOException {
+        List<Object> elements = new ArrayList<Object>();
+        for ( File element : classpath ) {
+            if ( element.isDirectory() ) {
+                elements.add(element);
+            } else if ( element.isFile() ) {
+                elements.add( getJar( session, element ) );
+            }
+        }
+
+        return new IndexedProjectClassLoader( elements, parent );
+    }
+
+    private static IndexedJar getJar( MavenSession session, File file ) throws IOException {
+        if ( session == null ) {
+            return new IndexedJar(file);
+        }
+
+        String key = IndexedJar.class.getName() + ":" + file.getAbsolutePath()
+                + ":" + file.lastModified() + ":" + file.length();
+        synchronized ( IndexedProjectClassLoader.class ) {
+            IndexedJar result = (IndexedJar) BuildSessionCache.get( session, key );
+            if ( result == null ) {
+                result = new IndexedJar(file);
+                BuildSessionCache.put( session, key, result );
+            }
+
+            return result;
+        }
+    }
+
+    @Override
+    protected Class<?> findClass( String name ) throws ClassNotFoundException {
+        String path = name.replace( '.', '/' ) + CLASS_EXTENSION;
+        try {
+            byte[] content = null;
+            for ( Object element : getElements(path) ) {
+                if ( element instanceof File ) {
+                    File file = new File( (File) element, path );
+                    if ( file.isFile() ) {
+                        content = readContent( new FileInputStream(file) );
+                    }
+                } else {
+                    content = ( (IndexedJar) element ).read(path);
+                }
+
+                if ( content != null ) {
+                    break;
+                }
+            }
+
+            if ( content == null ) {
+                throw new ClassNotFoundException(name);
+            }
+
+            definePackage(name);
+            return defineClass( name, content, 0, content.length );
+        } catch ( IOException e ) {
+            throw new ClassNotFoundException( name, e );
+        }
+    }
+
+    /**
+     * Failure to read the classpath means the resource is not found, as {@link ClassLoader#findResource(String)}
+     * can not report it; see {@link #findResources(String)}
+     */
+    @Override
+    protected URL findResource( String name ) {
+        try {
+            Enumeration<URL> resources = findResources(name);
+            return resources.hasMoreElements() ? resources.nextElement() : null;
+        } catch ( IOException e ) {
+            return null;
+        }
+    }
+
+    @Override
+    protected Enumeration<URL> findResources( String name ) throws IOException {
+        List<URL> result = new ArrayList<URL>();
+        for ( Object element : getElements(name) ) {
+            URL resource = null;
+            if ( element instanceof File ) {
+                File file = new File( (File) element, name );
+                if ( file.exists() ) {
+                    resource = file.toURI().toURL();
+                }
+            } else {
+                resource = ( (IndexedJar) element ).getResource(name);
+            }
+
+            if ( resource != null ) {
+                result.add(resource);
+            }
+        }
+
+        return Collections.enumeration(result);
+    }
+
+    /**
+     * @return directories and the jars which have package of the given path, in the classpath order
+     */
+    private List<Object> getElements( String path ) {
+        int separatorIndex = path.lastIndexOf('/');
+        String packagePath = separatorIndex == -1 ? "" : path.substring( 0, separatorIndex );
+
+        List<Object> result = packageElements.get(packagePath);
+        if ( result == null ) {
+            result = new ArrayList<Object>();
+            for ( Object element : elements ) {
+                if ( element instanceof File || ( (IndexedJar) element ).getPackages().contains(packagePath) ) {
+                    result.add(element);
+                }
+            }
+
+            packageElements.putIfAbsent( packagePath, result );
+        }
+
+        return result;
+    }
+
+    @SuppressWarnings("deprecation")
+    private void definePackage( String className ) {
+        int separatorIndex = className.lastIndexOf('.');
+        if ( separatorIndex == -1 ) {
+            return;
+        }
+
+        String packageName = className.substring( 0, separatorIndex );
+        if ( getPackage(packageName) == null ) {
+            try {
+                definePackage( packageName, null, null, null, null, null, null, null );
+            } catch ( IllegalArgumentException e ) {
+                // defined concurrently
+            }
+        }
+    }
+
+    private static byte[] readContent( InputStream stream ) throws IOException {
+        try {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ( ( read = stream.read(buffer) ) != -1 ) {
+                result.write( buffer, 0, read );
+            }
+
+            return result.toByteArray();
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Jar with the list of its packages (directories of the entries, '/' separated). File of the jar is
+     * opened on demand: it stays open till the jar is closed and is opened again if the jar is read after that.
+     */
+    public static class IndexedJar implements Closeable {
+
+        private final File file;
+
+        private final Set<String> packages = new HashSet<String>();
+
+        private JarFile jarFile;
+
+        public IndexedJar( File file ) throws IOException {
+            this.file = file;
+
+            Enumeration<JarEntry> entries = getJarFile().entries();
+            while ( entries.hasMoreElements() ) {
+                String name = entries.nextElement().getName();
+                int separatorIndex = name.lastIndexOf('/');
+                packages.add( separatorIndex == -1 ? "" : name.substring( 0, separatorIndex ) );
+            }
+        }
+
+        public Set<String> getPackages() {
+            return Collections.unmodifiableSet(packages);
+        }
+
+        /**
+         * @return entry content or null when there is no such entry
+         */
+        public synchronized byte[] read( String path ) throws IOException {
+            JarEntry entry = getJarFile().getJarEntry(path);
+            return entry == null || entry.isDirectory() ? null : readContent( getJarFile().getInputStream(entry) );
+        }
+
+        public synchronized URL getResource( String path ) throws IOException {
+            return getJarFile().getJarEntry(path) == null
+                    ? null
+                    : new URL( "jar:" + file.toURI().toURL().toExternalForm() + "!/" + path );
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if ( jarFile != null ) {
+                try {
+                    jarFile.close();
+                } finally {
+                    jarFile = null;
+                }
+            }
+        }
+
+        private synchronized JarFile getJarFile() throws IOException {
+            if ( jarFile == null ) {
+                jarFile = new JarFile(file);
+            }
+
+            return jarFile;
+        }
+
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.a5000.platform.api.annotations.generators.jpa;
+
+import com.thoughtworks.qdox.model.JavaClass;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Inheritance relations of the classes model, built in one pass over the model classes.
+ *
+ * Keeps direct subtypes (both by superclass and by interfaces) of every supertype and the superclasses
+ * chain of every class, so hierarchy queries neither scan the whole model nor resolve supertypes again.
+ * Chains of classes outside of the model (binary ones) are computed on demand.
+ */
+public class InheritanceIndex {
+
+    private static final String OBJECT_CLASS_NAME = Object.class.getCanonicalName();
+
+    private final Map<String, Set<JavaClass>> subtypes = new HashMap<String, Set<JavaClass>>();
+
+    private final ConcurrentMap<String, List<JavaClass>> hierarchies = new ConcurrentHashMap<String, List<JavaClass>>();
+
+    public InheritanceIndex( JavaClass[] classes ) {
+        for ( JavaClass javaClass : classes ) {
+            JavaClass superClass = javaClass.getSuperJavaClass();
+            if ( superClass != null ) {
+                addSubtype( superClass, javaClass );
+            }
+
+            for ( JavaClass interfaceClass : javaClass.getImplementedInterfaces() ) {
+                addSubtype( interfaceClass, javaClass );
+            }
+
+            getHierarchy(javaClass);
+        }
+    }
+
+    /**
+     * @return true when some class of the model extends or implements the given type
+     */
+    public boolean hasSubtypes( JavaClass javaClass ) {
+        return !getSubtypes(javaClass).isEmpty();
+    }
+
+    /**
+     * @return classes of the model which directly extend or implement the given type
+     */
+    public Set<JavaClass> getSubtypes( JavaClass javaClass ) {
+        Set<JavaClass> result = subtypes.get( javaClass.getFullyQualifiedName() );
+        return result == null ? Collections.<JavaClass>emptySet() : Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * @return the class itself followed by its superclasses ({@link Object} is excluded)
+     */
+    public List<JavaClass> getHierarchy( JavaClass javaClass ) {
+        if ( javaClass == null || OBJECT_CLASS_NAME.equals( javaClass.getFullyQualifiedName() ) ) {
+            return Collections.emptyList();
+        }
+
+        List<JavaClass> result = hierarchies.get( javaClass.getFullyQualifiedName() );
+        if ( result != null ) {
+            return result;
+        }
+
+        List<JavaClass> hierarchy = new ArrayList<JavaClass>();
+        hierarchy.add(javaClass);
+
+        JavaClass superClass = javaClass.getSuperJavaClass();
+        if ( superClass != null && !superClass.getFullyQualifiedName().equals( javaClass.getFullyQualifiedName() ) ) {
+            hierarchy.addAll( getHierarchy(superClass) );
+        }
+
+        result = Collections.unmodifiableList(hierarchy);
+        List<JavaClass> previous = hierarchies.putIfAbsent( javaClass.getFullyQualifiedName(), result );
+        return previous == null ? result : previous;
+    }
+
+    private void addSubtype( JavaClass supertype, JavaClass subtype ) {
+        if ( supertype.getFullyQualifiedName().equals( subtype.getFullyQualifiedName() ) ) {
+            return;
+        }
+
+        Set<JavaClass> result = subtypes.get( supertype.getFullyQualifiedName() );
+        if ( result == null ) {
+            subtypes.put( supertype.getFullyQualifiedName(), result = new LinkedHashSet<JavaClass>() );
+        }
+
+        result.add(subtype);
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.a5000.platform.api.annotations.generators.jpa;
+
+import com.thoughtworks.qdox.model.*;
+
+import java.util.*;
+
+/**
+ * Immutable lookup tables of a classes model element, built once per element.
+ *
+ * Annotations are kept by both qualified and simple names of their types. For classes also
+ * methods (by name, declared and inherited ones) and fields (declared and inherited) are kept.
+ */
+public class MemberIndex {
+
+    private final Annotation[] annotations;
+
+    private final Map<String, List<Annotation>> annotationsByName = new HashMap<String, List<Annotation>>();
+
+    /**
+     * Annotations with unresolved types (no package) are matched by the name suffix, which
+     * can not be answered by the lookup table
+     */
+    private boolean unresolvedAnnotations;
+
+    private final Map<String, MethodFlags> methods = new HashMap<String, MethodFlags>();
+
+    private final List<JavaField> fields = new ArrayList<JavaField>();
+
+    /**
+     * @param element model element
+     * @param hierarchy the class itself followed by its superclasses (for classes only)
+     */
+    public MemberIndex( AbstractBaseJavaEntity element, List<JavaClass> hierarchy ) {
+        this.annotations = element.getAnnotations() == null ? new Annotation[0] : element.getAnnotations();
+        for ( Annotation annotation : annotations ) {
+            JavaClass type = annotation.getType().getJavaClass();
+            if ( type.getPackageName().isEmpty() ) {
+                unresolvedAnnotations = true;
+            }
+
+            String name = type.getFullyQualifiedName();
+            addAnnotation( name, annotation );
+
+            String simpleName = name.substring( name.lastIndexOf(".") + 1 );
+            if ( !simpleName.equals(name) ) {
+                addAnnotation( simpleName, annotation );
+            }
+        }
+
+        boolean declared = true;
+        for ( JavaClass hierarchyClass : hierarchy ) {
+            for ( JavaMethod method : hierarchyClass.getMethods() ) {
+                MethodFlags flags = methods.get( method.getName() );
+                if ( flags == null ) {
+                    methods.put( method.getName(), flags = new MethodFlags() );
+                }
+
+                flags.add( declared, method.isPublic() );
+            }
+
+            fields.addAll( Arrays.asList( hierarchyClass.getFields() ) );
+            declared = false;
+        }
+    }
+
+    /**
+     * @return annotations of the element whose type has the given qualified or simple name
+     */
+    public List<Annotation> getAnnotations( String className ) {
+        if ( unresolvedAnnotations ) {
+            List<Annotation> result = new ArrayList<Annotation>();
+            for ( Annotation annotation : annotations ) {
+                if ( isA( annotation.getType().getJavaClass(), className ) ) {
+                    result.add(annotation);
+                }
+            }
+
+            return result;
+        }
+
+        List<Annotation> result = annotationsByName.get(className);
+        return result == null ? Collections.<Annotation>emptyList() : result;
+    }
+
+    /**
+     * @return first annotation of the element whose type has the given name or null
+     */
+    public Annotation getAnnotation( String className ) {
+        List<Annotation> result = getAnnotations(className);
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    public boolean hasAnnotation( String className ) {
+        return getAnnotation(className) != null;
+    }
+
+    /**
+     * @param inherited look into the superclasses as well
+     * @param publicOnly only public methods are taken into account
+     */
+    public boolean hasMethod( String methodName, boolean inherited, boolean publicOnly ) {
+        MethodFlags flags = methods.get(methodName);
+        if ( flags == null ) {
+            return false;
+        }
+
+        if ( inherited ) {
+            return publicOnly ? flags.publicInHierarchy : true;
+        }
+
+        return publicOnly ? flags.publicDeclared : flags.declared;
+    }
+
+    /**
+     * @return fields declared by the class and its superclasses
+     */
+    public List<JavaField> getFields() {
+        return Collections.unmodifiableList(fields);
+    }
+
+    /**
+     * The same matching as {@link AbstractGeneratorMojo#isA(JavaClass, String)} does
+     */
+    static boolean isA( JavaClass classType, String className ) {
+        return classType.getFullyQualifiedName().equals(className)
+                || classType.getPackageName().isEmpty() && classType.getName().endsWith( className )
+                || (classType.getFullyQualifiedName().substring(
+                        classType.getFullyQualifiedName().lastIndexOf(".") + 1).equals(className) );
+    }
+
+    private void addAnnotation( String name, Annotation annotation ) {
+        List<Annotation> result = annotationsByName.get(name);
+        if ( result == null ) {
+            annotationsByName.put( name, result = new ArrayList<Annotation>(1) );
+        }
+
+        result.add(annotation);
+    }
+
+    private static class MethodFlags {
+
+        private boolean declared;
+
+        private boolean publicDeclared;
+
+        private boolean publicInHierarchy;
+
+        private void add( boolean declared, boolean isPublic ) {
+            this.declared |= declared;
+            this.publicDeclared |= declared && isPublic;
+            this.publicInHierarchy |= isPublic;
+        }
+
+    }
+
+}
@@ -0,0 +1,758 @@
+package com.a5000.platform.api.annotations.generators.jpa;
+
+import com.thoughtworks.qdox.model.Annotation;
+import com.thoughtworks.qdox.model.Type;
+import com.thoughtworks.qdox.model.annotation.*;
+import com.thoughtworks.qdox.parser.Builder;
+import com.thoughtworks.qdox.parser.structs.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Binary cache of the parsed sources.
+ *
+ * Parser events (package, imports, javadoc, classes, fields, methods and annotations) are stored under
+ * the digest of the source content, so an unchanged source is rebuilt by replaying them into the QDox
+ * model builder instead of being tokenized and parsed again.
+ *
+ * Sources which contain annotation expressions not supported by the encoder (casts and conditional
+ * expressions) are never stored and always parsed.
+ */
+public class ParsedSourceCache {
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final String ENTRY_EXTENSION = ".bin";
+
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+
+    private static final byte END = 0;
+    private static final byte PACKAGE = 1;
+    private static final byte IMPORT = 2;
+    private static final byte JAVADOC = 3;
+    private static final byte JAVADOC_TAG = 4;
+    private static final byte BEGIN_CLASS = 5;
+    private static final byte END_CLASS = 6;
+    private static final byte BEGIN_METHOD = 7;
+    private static final byte END_METHOD = 8;
+    private static final byte PARAMETER = 9;
+    private static final byte FIELD = 10;
+    private static final byte ANNOTATION = 11;
+
+    private static final byte TYPE_NONE = 0;
+    private static final byte TYPE_PLAIN = 1;
+    private static final byte TYPE_WILDCARD = 2;
+
+    private static final byte VALUE_ANNOTATION = 1;
+    private static final byte VALUE_CONSTANT = 2;
+    private static final byte VALUE_FIELD_REF = 3;
+    private static final byte VALUE_TYPE_REF = 4;
+    private static final byte VALUE_LIST = 5;
+    private static final byte VALUE_BINARY_OPERATOR = 6;
+    private static final byte VALUE_UNARY_OPERATOR = 7;
+    private static final byte VALUE_PARENTHESES = 8;
+
+    private final File directory;
+
+    private final Set<String> usedEntries = Collections.synchronizedSet( new HashSet<String>() );
+
+    public ParsedSourceCache( File directory ) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @param digest source content digest
+     * @param builder builder to replay the stored parser events into
+     * @return false when there is no valid entry for the given digest
+     */
+    public boolean replay( String digest, Builder builder ) {
+        usedEntries.add(digest);
+        File entry = getEntryFile(digest);
+        if ( !entry.exists() ) {
+            return false;
+        }
+
+        try {
+            return replay( new FileInputStream(entry), builder );
+        } catch ( IOException e ) {
+            return false;
+        }
+    }
+
+    /**
+     * Replays events written by {@link #write(java.io.OutputStream, Recorder)}, the stream is closed
+     *
+     * @return false when the stream content is damaged or written by an incompatible version
+     */
+    public static boolean replay( InputStream stream, Builder builder ) {
+        try {
+            DataInputStream input = new DataInputStream( new BufferedInputStream(stream) );
+            try {
+                if ( input.readInt() != FORMAT_VERSION ) {
+                    return false;
+                }
+
+                byte event;
+                while ( ( event = input.readByte() ) != END ) {
+                    replayEvent( event, input, builder );
+                }
+
+                return true;
+            } finally {
+                input.close();
+            }
+        } catch ( IOException e ) {
+            return false;
+        } catch ( RuntimeException e ) {
+            // Damaged entry, source would be parsed again
+            return false;
+        }
+    }
+
+    /**
+     * Stores events collected by the recorder, nothing is stored if the recorder met unsupported content
+     */
+    public void store( String digest, Recorder recorder ) throws IOException {
+        usedEntries.add(digest);
+        if ( !recorder.isCacheable() ) {
+            return;
+        }
+
+        directory.mkdirs();
+
+        File entry = getEntryFile(digest);
+        File temporary = File.createTempFile( digest, TEMPORARY_EXTENSION, directory );
+        OutputStream stream = new FileOutputStream(temporary);
+        try {
+            write( stream, recorder );
+        } finally {
+            stream.close();
+        }
+
+        if ( !temporary.renameTo(entry) ) {
+            temporary.delete();
+        }
+    }
+
+    /**
+     * Writes events collected by the recorder, the stream is left open
+     */
+    public static void write( OutputStream stream, Recorder recorder ) throws IOException {
+        DataOutputStream output = new DataOutputStream(stream);
+        output.writeInt(FORMAT_VERSION);
+        output.write( recorder.getEvents() );
+        output.writeByte(END);
+        output.flush();
+    }
+
+    /**
+     * Removes entries which have not been replayed or stored through this cache (sources changed or deleted
+     * since they were stored), as well as leftovers of the interrupted writes. Should be called only once
+     * all the sources have been added, otherwise entries of the sources not added yet are lost.
+     *
+     * @return count of the removed entries
+     */
+    public int prune() {
+        File[] files = directory.listFiles();
+        if ( files == null ) {
+            return 0;
+        }
+
+        int result = 0;
+        for ( File file : files ) {
+            String name = file.getName();
+            boolean stale = name.endsWith(ENTRY_EXTENSION)
+                    ? !usedEntries.contains( name.substring( 0, name.length() - ENTRY_EXTENSION.length() ) )
+                    : name.endsWith(TEMPORARY_EXTENSION);
+            if ( stale && file.delete() ) {
+                result++;
+            }
+        }
+
+        return result;
+    }
+
+    private File getEntryFile( String digest ) {
+        return new File( directory, digest + ENTRY_EXTENSION );
+    }
+
+    private static void replayEvent( byte event, DataInputStream input, Builder builder ) throws IOException {
+        switch ( event ) {
+            case PACKAGE:
+                String packageName = readString(input);
+                builder.addPackage( new PackageDef( packageName, input.readInt() ) );
+                break;
+            case IMPORT:
+                builder.addImport( readString(input) );
+                break;
+            case JAVADOC:
+                builder.addJavaDoc( readString(input) );
+                break;
+            case JAVADOC_TAG:
+                String tagName = readString(input);
+                String tagText = readString(input);
+                builder.addJavaDocTag( new TagDef( tagName, tagText, input.readInt() ) );
+                break;
+            case BEGIN_CLASS:
+                builder.beginClass( readClass(input) );
+                break;
+            case END_CLASS:
+                builder.endClass();
+                break;
+            case BEGIN_METHOD:
+                builder.beginMethod();
+                break;
+            case END_METHOD:
+                builder.endMethod( readMethod(input) );
+                break;
+            case PARAMETER:
+                builder.addParameter( readField(input) );
+                break;
+            case FIELD:
+                builder.addField( readField(input) );
+                break;
+            case ANNOTATION:
+                builder.addAnnotation( (Annotation) readValue( input, builder ) );
+                break;
+            default:
+                throw new IOException("Unknown event " + event );
+        }
+    }
+
+    private static ClassDef readClass( DataInputStream input ) throws IOException {
+        ClassDef def = new ClassDef();
+        def.name = readString(input);
+        def.type = readString(input);
+        def.lineNumber = input.readInt();
+        def.modifiers = readStrings( input, new HashSet() );
+        def.typeParams = readTypeVariables(input);
+        def.extendz = readTypes( input, new HashSet() );
+        def.implementz = readTypes( input, new HashSet() );
+        return def;
+    }
+
+    private static MethodDef readMethod( DataInputStream input ) throws IOException {
+        MethodDef def = new MethodDef();
+        def.name = readString(input);
+        def.lineNumber = input.readInt();
+        def.typeParams = readTypeVariables(input);
+        def.returnType = readType(input);
+        def.modifiers = readStrings( input, new HashSet() );
+        def.exceptions = readStrings( input, new LinkedHashSet() );
+        def.constructor = input.readBoolean();
+        def.dimensions = input.readInt();
+        def.body = readString(input);
+        return def;
+    }
+
+    private static FieldDef readField( DataInputStream input ) throws IOException {
+        FieldDef def = new FieldDef();
+        def.name = readString(input);
+        def.lineNumber = input.readInt();
+        def.type = readType(input);
+        def.modifiers = readStrings( input, new HashSet() );
+        def.dimensions = input.readInt();
+        def.isVarArgs = input.readBoolean();
+        def.body = readString(input);
+        return def;
+    }
+
+    private static TypeDef readType( DataInputStream input ) throws IOException {
+        byte kind = input.readByte();
+        if ( kind == TYPE_NONE ) {
+            return null;
+        } else if ( kind == TYPE_WILDCARD ) {
+            String expressionType = readString(input);
+            TypeDef bound = readType(input);
+            return bound == null ? new WildcardTypeDef() : new WildcardTypeDef( bound, expressionType );
+        }
+
+        TypeDef def = new TypeDef( readString(input), input.readInt() );
+        int argumentsCount = input.readInt();
+        if ( argumentsCount >= 0 ) {
+            def.actualArgumentTypes = new ArrayList();
+            for ( int i = 0; i < argumentsCount; i++ ) {
+                def.actualArgumentTypes.add( readType(input) );
+            }
+        }
+
+        return def;
+    }
+
+    private static Set readTypes( DataInputStream input, Set result ) throws IOException {
+        int count = input.readInt();
+        for ( int i = 0; i < count; i++ ) {
+            result.add( readType(input) );
+        }
+
+        return result;
+    }
+
+    private static List readTypeVariables( DataInputStream input ) throws IOException {
+        int count = input.readInt();
+        if ( count < 0 ) {
+            return null;
+        }
+
+        List result = new ArrayList();
+        for ( int i = 0; i < count; i++ ) {
+            String name = readString(input);
+            int boundsCount = input.readInt();
+            List bounds = null;
+            if ( boundsCount >= 0 ) {
+                bounds = new ArrayList();
+                for ( int j = 0; j < boundsCount; j++ ) {
+                    bounds.add( readType(input) );
+                }
+            }
+
+            result.add( new TypeVariableDef( name, bounds ) );
+        }
+
+        return result;
+    }
+
+    private static AnnotationValue readValue( DataInputStream input, Builder builder ) throws IOException {
+        byte kind = input.readByte();
+        switch ( kind ) {
+            case VALUE_ANNOTATION:
+                Type annotationType = builder.createType( readType(input) );
+                Annotation annotation = new Annotation( annotationType, input.readInt() );
+                int propertiesCount = input.readInt();
+                for ( int i = 0; i < propertiesCount; i++ ) {
+                    String name = readString(input);
+                    annotation.setProperty( name, readValue( input, builder ) );
+                }
+                return annotation;
+            case VALUE_CONSTANT:
+                String image = readString(input);
+                return new AnnotationConstant( readConstant(input), image );
+            case VALUE_FIELD_REF:
+                return new AnnotationFieldRef( readString(input) );
+            case VALUE_TYPE_REF:
+                return new AnnotationTypeRef( builder.createType( readType(input) ) );
+            case VALUE_LIST:
+                int count = input.readInt();
+                List values = new ArrayList();
+                for ( int i = 0; i < count; i++ ) {
+                    values.add( readValue( input, builder ) );
+                }
+                return new AnnotationValueList(values);
+            case VALUE_BINARY_OPERATOR:
+                String binaryOperator = readString(input);
+                AnnotationValue left = readValue( input, builder );
+                AnnotationValue right = readValue( input, builder );
+                return createOperator( binaryOperator, AnnotationBinaryOperator.class,
+                        new Class[] { AnnotationValue.class, AnnotationValue.class }, left, right );
+            case VALUE_UNARY_OPERATOR:
+                String unaryOperator = readString(input);
+                return createOperator( unaryOperator, AnnotationUnaryOperator.class,
+                        new Class[] { AnnotationValue.class }, readValue( input, builder ) );
+            case VALUE_PARENTHESES:
+                return new AnnotationParenExpression( readValue( input, builder ) );
+            default:
+                throw new IOException("Unknown annotation value " + kind );
+        }
+    }
+
+    private static AnnotationValue createOperator( String className, Class<?> baseClass, Class[] parameterTypes,
+                                                   Object... operands ) throws IOException {
+        try {
+            Class<?> operatorClass = Class.forName( className, true, baseClass.getClassLoader() );
+            if ( !baseClass.isAssignableFrom(operatorClass) ) {
+                throw new IOException("Unexpected operator class " + className );
+            }
+
+            return (AnnotationValue) operatorClass.getConstructor(parameterTypes).newInstance(operands);
+        } catch ( ReflectiveOperationException e ) {
+            throw new IOException("Failed to create operator " + className, e );
+        }
+    }
+
+    private static Object readConstant( DataInputStream input ) throws IOException {
+        char kind = input.readChar();
+        switch ( kind ) {
+            case 'S':
+                return readString(input);
+            case 'I':
+                return input.readInt();
+            case 'J':
+                return input.readLong();
+            case 'F':
+                return input.readFloat();
+            case 'D':
+                return input.readDouble();
+            case 'Z':
+                return input.readBoolean();
+            case 'C':
+                return input.readChar();
+            default:
+                throw new IOException("Unknown constant type " + kind );
+        }
+    }
+
+    private static Set readStrings( DataInputStream input, Set result ) throws IOException {
+        int count = input.readInt();
+        for ( int i = 0; i < count; i++ ) {
+            result.add( readString(input) );
+        }
+
+        return result;
+    }
+
+    private static String readString( DataInputStream input ) throws IOException {
+        int length = input.readInt();
+        if ( length < 0 ) {
+            return null;
+        }
+
+        byte[] data = new byte[length];
+        input.readFully(data);
+        return new String( data, "UTF-8" );
+    }
+
+    /**
+     * Builder decorator which records the parser events passed to the target builder
+     */
+    public static class Recorder implements Builder {
+
+        private final Builder target;
+
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final DataOutputStream output = new DataOutputStream(buffer);
+
+        /**
+         * Annotation types are created by the parser through the builder, so here is
+         * the only place where their raw (not yet resolved) definitions are available
+         */
+        private final Map<Type, TypeDef> createdTypes = new IdentityHashMap<Type, TypeDef>();
+
+        private boolean cacheable = true;
+
+        public Recorder( Builder target ) {
+            this.target = target;
+        }
+
+        public boolean isCacheable() {
+            return cacheable;
+        }
+
+        public byte[] getEvents() {
+            return buffer.toByteArray();
+        }
+
+        public void addPackage( PackageDef packageDef ) {
+            target.addPackage(packageDef);
+            try {
+                output.writeByte(PACKAGE);
+                writeString( packageDef.name );
+                output.writeInt( packageDef.lineNumber );
+            } catch ( IOException e ) {
+                cacheable = false;
+            }
+        }
+
+        public void addImport( String importName ) {
+            target.addImport(importName);
+            try {
+                output.writeByte(IMPORT);
+                writeString(importName);
+            } catch ( IOException e ) {
+                cacheable = false;
+            }
+        }
+
+        public void addJavaDoc( String text ) {
+            target.addJavaDoc(text);
+            try {
+                output.writeByte(JAVADOC);
+                writeString(text);
+            } catch ( IOException e ) {
+                cacheable = false;
+            }
+        }
+
+        public void addJavaDocTag( TagDef def ) {
+            target.addJavaDocTag(def);
+            try {
+                output.writeByte(JAVADOC_TAG);
+                writeString( def.name );
+                writeString( def.text );
+                output.writeInt( def.lineNumber );
+            } catch ( IOException e ) {
+                cacheable = false;
+            }
+        }
+
+        public void beginClass( ClassDef def ) {
+            target.beginClass(def);
+            try {
+                output.writeByte(BEGIN_CLASS);
+                writeString( def.name );
+                writeString( def.type );
+                output.writeInt( def.lineNumber );
+                writeStrings( def.modifiers );
+                writeTypeVariables( def.typeParams );
+                writeTypes( def.extendz );
+                writeTypes( def.implementz );
+            } catch ( IOException e ) {
+                cacheable = false;
+            }
+        }
+
+        public void endClass() {
+            target.endClass();
+            try {
+                output.writeByte(END_CLASS);
+            } catch ( IOException e ) {
+                cacheable = false;
+            }
+        }
+
+        public void beginMethod() {
+            target.beginMethod();
+            try {
+                output.writeByte(BEGIN_METHOD);
+            } catch ( IOException e ) {
+                cacheable = false;
+            }
+        }
+
+        public void endMethod( MethodDef def ) {
+            target.endMethod(def);
+            try {
+                output.writeByte(END_METHOD);
+                writeString( def.name );
+                output.writeInt( def.lineNumber );
+                writeTypeVariables( def.typeParams );
+                writeType( def.returnType );
+                writeStrings( def.modifiers );
+                writeStrings( def.exceptions );
+                output.writeBoolean( def.constructor );
+                output.writeInt( def.dimensions );
+                writeString( def.body );
+            } catch ( IOException e ) {
+                cacheable = false;
+            }
+        }
+
+        public void addParameter( FieldDef def ) {
+            target.addParameter(def);
+            try {
+                output.writeByte(PARAMETER);
+                writeField(def);
+            } catch ( IOException e ) {
+                cacheable = false;
+            }
+        }
+
+        public void addField( FieldDef def ) {
+            target.addField(def);
+            try {
+                output.writeByte(FIELD);
+                writeField(def);
+            } catch ( IOException e ) {
+                cacheable = false;
+            }
+        }
+
+        public void addAnnotation( Annotation annotation ) {
+            target.addAnnotation(annotation);
+            try {
+                output.writeByte(ANNOTATION);
+                writeValue(annotation);
+            } catch ( IOException e ) {
+                cacheable = false;
+            }
+        }
+
+        @SuppressWarnings("deprecation")
+        public Type createType( String name, int dimensions ) {
+            Type type = target.createType(name, dimensions);
+            if ( type != null ) {
+                createdTypes.put( type, new TypeDef( name, dimensions ) );
+            }
+
+            return type;
+        }
+
+        public Type createType( TypeDef def ) {
+            Type type = target.createType(def);
+            if ( type != null ) {
+                createdTypes.put( type, def );
+            }
+
+            return type;
+        }
+
+        private void writeField( FieldDef def ) throws IOException {
+            writeString( def.name );
+            output.writeInt( def.lineNumber );
+            writeType( def.type );
+            writeStrings( def.modifiers );
+            output.writeInt( def.dimensions );
+            output.writeBoolean( def.isVarArgs );
+            writeString( def.body );
+        }
+
+        private void writeType( TypeDef def ) throws IOException {
+            if ( def == null ) {
+                output.writeByte(TYPE_NONE);
+            } else if ( def instanceof WildcardTypeDef ) {
+                WildcardTypeDef wildcard = (WildcardTypeDef) def;
+                output.writeByte(TYPE_WILDCARD);
+                writeString( wildcard.getWildcardExpressionType() );
+                writeType( wildcard.getTypeDef() );
+            } else {
+                output.writeByte(TYPE_PLAIN);
+                writeString( def.name );
+                output.writeInt( def.dimensions );
+                if ( def.actualArgumentTypes == null ) {
+                    output.writeInt(-1);
+                } else {
+                    output.writeInt( def.actualArgumentTypes.size() );
+                    for ( Object argument : def.actualArgumentTypes ) {
+                        writeType( (TypeDef) argument );
+                    }
+                }
+            }
+        }
+
+        private void writeTypes( Collection types ) throws IOException {
+            output.writeInt( types.size() );
+            for ( Object type : types ) {
+                writeType( (TypeDef) type );
+            }
+        }
+
+        private void writeTypeVariables( List typeVariables ) throws IOException {
+            if ( typeVariables == null ) {
+                output.writeInt(-1);
+                return;
+            }
+
+            output.writeInt( typeVariables.size() );
+            for ( Object item : typeVariables ) {
+                TypeVariableDef typeVariable = (TypeVariableDef) item;
+                writeString( typeVariable.name );
+                if ( typeVariable.bounds == null ) {
+                    output.writeInt(-1);
+                } else {
+                    writeTypes( typeVariable.bounds );
+                }
+            }
+        }
+
+        private void writeCreatedType( Type type ) throws IOException {
+            TypeDef def = createdTypes.get(type);
+            if ( def == null ) {
+                throw new IOException("Type " + type + " was not created by the builder");
+            }
+
+            writeType(def);
+        }
+
+        private void writeValue( AnnotationValue value ) throws IOException {
+            if ( value instanceof Annotation ) {
+                Annotation annotation = (Annotation) value;
+                output.writeByte(VALUE_ANNOTATION);
+                writeCreatedType( annotation.getType() );
+                output.writeInt( annotation.getLineNumber() );
+
+                Map properties = annotation.getPropertyMap();
+                output.writeInt( properties.size() );
+                for ( Object item : properties.entrySet() ) {
+                    Map.Entry entry = (Map.Entry) item;
+                    writeString( (String) entry.getKey() );
+                    writeValue( (AnnotationValue) entry.getValue() );
+                }
+            } else if ( value instanceof AnnotationConstant ) {
+                AnnotationConstant constant = (AnnotationConstant) value;
+                output.writeByte(VALUE_CONSTANT);
+                writeString( constant.getImage() );
+                writeConstant( constant.getValue() );
+            } else if ( value instanceof AnnotationFieldRef ) {
+                output.writeByte(VALUE_FIELD_REF);
+                writeString( ( (AnnotationFieldRef) value ).getName() );
+            } else if ( value instanceof AnnotationTypeRef ) {
+                output.writeByte(VALUE_TYPE_REF);
+                writeCreatedType( ( (AnnotationTypeRef) value ).getType() );
+            } else if ( value instanceof AnnotationValueList ) {
+                List values = ( (AnnotationValueList) value ).getValueList();
+                output.writeByte(VALUE_LIST);
+                output.writeInt( values.size() );
+                for ( Object item : values ) {
+                    writeValue( (AnnotationValue) item );
+                }
+            } else if ( value instanceof AnnotationBinaryOperator ) {
+                AnnotationBinaryOperator operator = (AnnotationBinaryOperator) value;
+                output.writeByte(VALUE_BINARY_OPERATOR);
+                writeString( operator.getClass().getName() );
+                writeValue( operator.getLeft() );
+                writeValue( operator.getRight() );
+            } else if ( value instanceof AnnotationUnaryOperator ) {
+                AnnotationUnaryOperator operator = (AnnotationUnaryOperator) value;
+                output.writeByte(VALUE_UNARY_OPERATOR);
+                writeString( operator.getClass().getName() );
+                writeValue( operator.getValue() );
+            } else if ( value instanceof AnnotationParenExpression ) {
+                output.writeByte(VALUE_PARENTHESES);
+                writeValue( ( (AnnotationParenExpression) value ).getValue() );
+            } else {
+                throw new IOException("Unsupported annotation value " + value );
+            }
+        }
+
+        private void writeConstant( Object value ) throws IOException {
+            if ( value instanceof String ) {
+                output.writeChar('S');
+                writeString( (String) value );
+            } else if ( value instanceof Integer ) {
+                output.writeChar('I');
+                output.writeInt( (Integer) value );
+            } else if ( value instanceof Long ) {
+                output.writeChar('J');
+                output.writeLong( (Long) value );
+            } else if ( value instanceof Float ) {
+                output.writeChar('F');
+                output.writeFloat( (Float) value );
+            } else if ( value instanceof Double ) {
+                output.writeChar('D');
+                output.writeDouble( (Double) value );
+            } else if ( value instanceof Boolean ) {
+                output.writeChar('Z');
+                output.writeBoolean( (Boolean) value );
+            } else if ( value instanceof Character ) {
+                output.writeChar('C');
+                output.writeChar( (Character) value );
+            } else {
+                throw new IOException("Unsupported constant " + value );
+            }
+        }
+
+        private void writeStrings( Collection values ) throws IOException {
+            output.writeInt( values.size() );
+            for ( Object value : values ) {
+                writeString( (String) value );
+            }
+        }
+
+        private void writeString( String value ) throws IOException {
+            if ( value == null ) {
+                output.writeInt(-1);
+                return;
+            }
+
+            byte[] data = value.getBytes("UTF-8");
+            output.writeInt( data.length );
+            output.write(data);
+        }
+
+    }
+
+}
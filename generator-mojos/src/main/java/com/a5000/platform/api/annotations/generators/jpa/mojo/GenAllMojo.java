@@ -0,0 +1,151 @@
+package com.a5000.platform.api.annotations.generators.jpa.mojo;
+
+import com.a5000.platform.api.annotations.generators.jpa.AbstractGeneratorMojo;
+import com.thoughtworks.qdox.model.JavaClass;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregate of the 'gen-dao', 'gen-dto' and 'gen-jpa-converter' goals: entities are discovered and
+ * parsed once, all generators emit classes into the same code model which is written in one flush.
+ *
+ * Conversion services are generated after all DTOs, so the converter inspects DTOs directly in the
+ * code model instead of looking for them in the classes model. On incremental runs DAOs and DTOs are
+ * generated for the changed entities only, while conversion services always cover all of them (DTOs of
+ * the unchanged entities are loaded from their previous output).
+ */
+@Mojo( name = "gen-all", defaultPhase = LifecyclePhase.PROCESS_SOURCES, threadSafe = true )
+public class GenAllMojo extends AbstractGeneratorMojo {
+
+    /*
+     * Parameters of the delegates, they are passed to the delegates by name (see configureDelegate),
+     * descriptions are found in GenDtoMojo and GenJpaToDtoConverterMojo
+     */
+
+    @Parameter( property = "dtoAnnotationClasses")
+    protected String[] dtoAnnotationClasses = new String[] {};
+
+    @Parameter( property = "dtoInterfaceClasses")
+    protected String[] dtoInterfaceClasses = new String[] { "java.io.Serializable"};
+
+    @Parameter( property = "generateMethods", defaultValue = "true" )
+    protected Boolean generateMethods = true;
+
+    @Parameter( property = "annotationInclusionMask", defaultValue = "^javax\\.validation\\..+?")
+    protected String annotationInclusionMask = "^javax\\.validation\\..+?";
+
+    @Parameter( property = "jpaEntityInterface", required = true )
+    protected String jpaEntityInterface = "com.a5000.platform.api.model.domain.api.IStoredBean";
+
+    @Parameter( property = "transactionalAnnotation", required = true,
+            defaultValue = "com.a5000.platform.api.services.A5TransactionalReadOnly")
+    protected String transactionalAnnotation = "com.a5000.platform.api.services.A5TransactionalReadOnly";
+
+    @Parameter( property = "profilingEnabled", required = false, defaultValue = "false")
+    protected Boolean profilingEnabled = false;
+
+    @Parameter( property = "transactionAnnotationOnConverterMethods", required = false, defaultValue = "false")
+    protected boolean transactionAnnotationOnConverterMethods;
+
+    @Parameter( property = "conversionContextEnabled", required = false, defaultValue = "false")
+    protected Boolean conversionContextEnabled = false;
+
+    @Parameter( property = "conversionMaxDepth", required = false, defaultValue = "32")
+    protected Integer conversionMaxDepth = 32;
+
+    @Parameter( property = "conversionProfilesEnabled", required = false, defaultValue = "false")
+    protected Boolean conversionProfilesEnabled = false;
+
+    @Parameter( property = "loadStateAware", required = false, defaultValue = "false")
+    protected Boolean loadStateAware = false;
+
+    @Parameter( property = "parallelConversionEnabled", required = false, defaultValue = "false")
+    protected Boolean parallelConversionEnabled = false;
+
+    @Parameter( property = "parallelConversionThreshold", required = false, defaultValue = "1000")
+    protected Integer parallelConversionThreshold = 1000;
+
+    @Parameter( property = "streamingConversionEnabled", required = false, defaultValue = "false")
+    protected Boolean streamingConversionEnabled = false;
+
+    private GenDaoMojo daoGenerator;
+
+    private GenDtoMojo dtoGenerator;
+
+    private GenJpaToDtoConverterMojo converterGenerator;
+
+    private final List<JavaClass> convertedEntities = new ArrayList<JavaClass>();
+
+    public GenAllMojo() {
+        super("DAO, DTO and conversion services generator", "", "", "");
+    }
+
+    @Override
+    protected boolean isSupported(JavaClass entityClass) {
+        return isJpaEntity(entityClass);
+    }
+
+    /**
+     * DAOs and DTOs are regenerated for the changed entities only, conversion service for all of them
+     */
+    @Override
+    protected boolean hasAggregatedOutputs() {
+        return true;
+    }
+
+    @Override
+    protected void onExecutionStarted() throws MojoExecutionException {
+        convertedEntities.clear();
+
+        daoGenerator = new GenDaoMojo();
+        attachDelegate(daoGenerator);
+
+        dtoGenerator = new GenDtoMojo();
+        attachDelegate(dtoGenerator);
+
+        converterGenerator = new GenJpaToDtoConverterMojo();
+        attachDelegate(converterGenerator);
+
+        startDelegate(daoGenerator);
+        startDelegate(dtoGenerator);
+        startDelegate(converterGenerator);
+    }
+
+    @Override
+    protected void generateClass(JavaClass entityClazz) throws MojoExecutionException {
+        generateByDelegate( daoGenerator, entityClazz );
+        generateByDelegate( dtoGenerator, entityClazz );
+        convertedEntities.add(entityClazz);
+    }
+
+    @Override
+    protected void onExecutionFinished() throws MojoExecutionException {
+        // DTOs of the up-to-date entities are not in the code model, converter looks them up in the classes model
+        for ( JavaClass entityClazz : getSupportedEntities() ) {
+            if ( !convertedEntities.contains(entityClazz) ) {
+                addRetainedOutputs(entityClazz);
+            }
+        }
+
+        for ( JavaClass entityClazz : getSupportedEntities() ) {
+            generateByDelegate( converterGenerator, entityClazz );
+        }
+
+        finishDelegate(daoGenerator);
+        finishDelegate(dtoGenerator);
+        finishDelegate(converterGenerator);
+    }
+
+    @Override
+    protected void collectConfiguration(Map<String, Object> configuration) {
+        super.collectConfiguration(configuration);
+        configuration.putAll( getSpecificParameterValues() );
+    }
+
+}
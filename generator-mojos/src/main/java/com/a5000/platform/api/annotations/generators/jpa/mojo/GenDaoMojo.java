@@ -11,11 +11,13 @@ import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Created by cyril on 8/28/13.
  */
-@Mojo( name = "gen-dao", defaultPhase = LifecyclePhase.PROCESS_SOURCES, threadSafe = false )
+@Mojo( name = "gen-dao", defaultPhase = LifecyclePhase.PROCESS_SOURCES, threadSafe = true )
 public class GenDaoMojo extends AbstractGeneratorMojo {
 
     public static final String JPA_REPOSITORY_CLASS_NAME
@@ -52,7 +54,10 @@ public class GenDaoMojo extends AbstractGeneratorMojo {
     private static final String SORT_CLASS_NAME
             = "org.springframework.data.domain.Sort";
 
-    private final Map<String, String> cache = new HashMap<String, String>();
+    /**
+     * Entity class name to the repository class name; shared with the parallel generation workers
+     */
+    private final ConcurrentMap<String, String> cache = new ConcurrentHashMap<String, String>();
 
     public GenDaoMojo() {
         super("Spring Data repositories generator", DAO_GENERATOR_PREFIX, DAO_GENERATOR_SUFFIX,
@@ -64,20 +69,24 @@ public class GenDaoMojo extends AbstractGeneratorMojo {
         return isJpaEntity(entityClass) && !isMappedSuperclassEntity(entityClass);
     }
 
+    @Override
+    protected boolean supportsParallelGeneration() {
+        return true;
+    }
+
     @Override
     protected void generateClass(JavaClass entityClazz) throws MojoExecutionException {
-        synchronized (entityClazz.getFullyQualifiedName().intern()) {
-            if ( cache.containsKey(entityClazz.getFullyQualifiedName()) ) {
-                getLog().info("Skipping already processed class " + entityClazz.getFullyQualifiedName() );
-                return;
-            }
+        String daoClassName = prepareClassName( daoPackage, entityClazz.getFullyQualifiedName() );
+        if ( cache.putIfAbsent(entityClazz.getFullyQualifiedName(), daoClassName) != null ) {
+            getLog().info("Skipping already processed class " + entityClazz.getFullyQualifiedName() );
+            return;
+        }
 
-            try {
-                JDefinedClass definedClass = defineDaoClass(entityClazz);
-                generateQueryMethods(entityClazz, definedClass);
-            } catch (JClassAlreadyExistsException e) {
-                throw new MojoExecutionException( e.getMessage(), e );
-            }
+        try {
+            JDefinedClass definedClass = defineDaoClass(entityClazz);
+            generateQueryMethods(entityClazz, definedClass);
+        } catch (JClassAlreadyExistsException e) {
+            throw new MojoExecutionException( e.getMessage(), e );
         }
     }
 
@@ -99,7 +108,6 @@ public class GenDaoMojo extends AbstractGeneratorMojo {
         }
 
         JDefinedClass daoClass = defineInterface( entityClazz.getFullyQualifiedName(), daoPackage );
-        cache.put( entityClazz.getFullyQualifiedName(), daoClass.fullName() );
 
         JClass repositoryClass;
 
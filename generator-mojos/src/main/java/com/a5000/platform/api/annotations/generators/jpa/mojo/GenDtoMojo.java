@@ -15,20 +15,20 @@ import java.util.*;
 /**
  * Created by cyril on 8/28/13.
  */
-@Mojo( name = "gen-dto", defaultPhase = LifecyclePhase.PROCESS_SOURCES, threadSafe = false)
+@Mojo( name = "gen-dto", defaultPhase = LifecyclePhase.PROCESS_SOURCES, threadSafe = true)
 public class GenDtoMojo extends AbstractGeneratorMojo {
 
     @Parameter( property = "dtoAnnotationClasses")
-    private String[] dtoAnnotationClasses = new String[] {};
+    protected String[] dtoAnnotationClasses = new String[] {};
 
     @Parameter( property = "dtoInterfaceClasses")
-    private String[] dtoInterfaceClasses = new String[] { "java.io.Serializable"};
+    protected String[] dtoInterfaceClasses = new String[] { "java.io.Serializable"};
 
     @Parameter( property = "generateMethods", defaultValue = "true" )
-    private Boolean generateMethods = true;
+    protected Boolean generateMethods = true;
 
     @Parameter( property = "annotationInclusionMask", defaultValue = "^javax\\.validation\\..+?")
-    private String annotationInclusionMask = "^javax\\.validation\\..+?";
+    protected String annotationInclusionMask = "^javax\\.validation\\..+?";
 
     public GenDtoMojo() {
         super("DTO generator", DTO_GENERATOR_PREFIX, DTO_GENERATOR_SUFFIX, DTO_GENERATOR_POSTFIX);
@@ -42,9 +42,7 @@ public class GenDtoMojo extends AbstractGeneratorMojo {
 
             if ( entityClazz.getSuperClass() != null && isJpaEntity( entityClazz.getSuperJavaClass() ) ) {
                 JClass parentClass = codeModel.ref(
-                        prepareClassName(
-                            dtoPackage, entityClazz.getSuperJavaClass().getFullyQualifiedName()
-                        )
+                        prepareDtoClassName( entityClazz.getSuperJavaClass().getFullyQualifiedName() )
                     );
 
                 Type[] actualTypeArguments = entityClazz.getSuperClass().getActualTypeArguments();
@@ -57,7 +55,7 @@ public class GenDtoMojo extends AbstractGeneratorMojo {
                                  * objects definition are shared between the a environments
                                  */
                                 isInterface(narrow.getFullyQualifiedName()) ?
-                                        prepareClassName( dtoPackage, narrow.getFullyQualifiedName() )
+                                        prepareDtoClassName( narrow.getFullyQualifiedName() )
                                         : narrow.getFullyQualifiedName()
                             )
                         );
@@ -89,7 +87,7 @@ public class GenDtoMojo extends AbstractGeneratorMojo {
                                  * objects definition are shared between the a environments
                                  */
                             isInterface(type.getValue()) ?
-                                prepareClassName(dtoPackage, type.getValue() )
+                                prepareDtoClassName( type.getValue() )
                                 : type.getValue()
                         )
                     );
@@ -137,7 +135,7 @@ public class GenDtoMojo extends AbstractGeneratorMojo {
         }
 
         boolean skip = false;
-        Map<String, JType> parameters = new HashMap<String, JType>();
+        Map<String, JType> parameters = new LinkedHashMap<String, JType>();
         for ( JavaParameter parameter : method.getParameters() ) {
             JType parameterType = convertType( entityClazz, parameter.getType() );
             if ( parameterType == null ) {
@@ -181,11 +179,8 @@ public class GenDtoMojo extends AbstractGeneratorMojo {
     protected void processClassAnnotations( JDefinedClass dtoClazz,
                                             JavaClass entityClazz )
         throws MojoExecutionException {
-        for ( Annotation annotation : entityClazz.getAnnotations() ) {
-            if ( isA( annotation.getType().getJavaClass(),
-                    DTO_EXTENDS_ANNOTATION_CLASS_NAME) ) {
-                processExtendsAnnotation( dtoClazz, annotation );
-            }
+        for ( Annotation annotation : getMemberIndex(entityClazz).getAnnotations( DTO_EXTENDS_ANNOTATION_CLASS_NAME ) ) {
+            processExtendsAnnotation( dtoClazz, annotation );
         }
     }
 
@@ -261,14 +256,13 @@ public class GenDtoMojo extends AbstractGeneratorMojo {
 
         JClass realType = null;
 
-        boolean ignoreField = false;
+        if ( hasAnnotation( field, DTO_EXCLUDE_ANNOTATION_CLASS_NAME ) ) {
+            return;
+        }
+
         boolean isComplexType = !isSimpleType( field.getType().getJavaClass() );
-        boolean isInclude = false;
         for ( Annotation annotation : field.getAnnotations() ) {
-            if ( isA(annotation.getType().getJavaClass(), DTO_EXCLUDE_ANNOTATION_CLASS_NAME) ) {
-                ignoreField = true;
-                break;
-            } else if ( isJpaRelationType(annotation.getType().getJavaClass()) ) {
+            if ( isJpaRelationType(annotation.getType().getJavaClass()) ) {
                 isComplexType = true;
                 if ( annotation.getNamedParameter("targetEntity") != null ) {
                     String className = normalizeAnnotationValue(
@@ -282,14 +276,14 @@ public class GenDtoMojo extends AbstractGeneratorMojo {
                     }
 
                     realType = codeModel.ref(
-                        prepareClassName(dtoPackage, className)
+                        prepareDtoClassName(className)
                     );
                 } else {
                     if ( field.getType().getActualTypeArguments() != null
                             && field.getType().getActualTypeArguments().length != 0
                             && field.getType().getActualTypeArguments()[0] != null ) {
                         realType = codeModel.ref(
-                                prepareClassName(dtoPackage, field.getType().getActualTypeArguments()[0].getFullyQualifiedName())
+                                prepareDtoClassName(field.getType().getActualTypeArguments()[0].getFullyQualifiedName())
                         );
                     }
                 }
@@ -298,23 +292,24 @@ public class GenDtoMojo extends AbstractGeneratorMojo {
                     realType = codeModel.ref(field.getType().getFullyQualifiedName())
                             .narrow( Commons.select(realType, fieldType) );
                 }
-            } else if ( isA( annotation.getType().getJavaClass(), DTO_INCLUDE_ANNOTATION_CLASS_NAME ) ) {
-                isInclude = true;
-                if ( annotation.getNamedParameter("value") != null ) {
-                    aggregationType = normalizeAnnotationValue(
-                            (String) annotation.getNamedParameter("value") );
-                }
             }
         }
 
-        if ( ignoreField
-                || ( isComplexType && !isInclude) ) {
+        List<Annotation> includeAnnotations = getMemberIndex(field).getAnnotations( DTO_INCLUDE_ANNOTATION_CLASS_NAME );
+        for ( Annotation annotation : includeAnnotations ) {
+            if ( annotation.getNamedParameter("value") != null ) {
+                aggregationType = normalizeAnnotationValue(
+                        (String) annotation.getNamedParameter("value") );
+            }
+        }
+
+        if ( isComplexType && includeAnnotations.isEmpty() ) {
             return;
         }
 
         if ( isComplexType ) {
             if ( !isCollectionType( fieldType.fullName() ) ) {
-                fieldType = codeModel.ref( prepareClassName( dtoPackage, fieldType.fullName() ) );
+                fieldType = codeModel.ref( prepareDtoClassName( fieldType.fullName() ) );
 
                 if ( aggregationType.equals("AggregationType.ID") ) {
                     fieldName += "Id";
@@ -329,7 +324,7 @@ public class GenDtoMojo extends AbstractGeneratorMojo {
                     if ( !aggregationType.equals("AggregationType.ID") ) {
                         fieldType = fieldType.narrow(
                             codeModel.ref(
-                                prepareClassName(dtoPackage,
+                                prepareDtoClassName(
                                     field.getType().getActualTypeArguments()[0].getFullyQualifiedName()
                                 )
                             )
@@ -465,4 +460,19 @@ public class GenDtoMojo extends AbstractGeneratorMojo {
     protected boolean isSupported(JavaClass entityClass) {
         return isJpaEntity(entityClass);
     }
+
+    @Override
+    protected boolean supportsParallelGeneration() {
+        return true;
+    }
+
+    @Override
+    protected void collectConfiguration(Map<String, Object> configuration) {
+        super.collectConfiguration(configuration);
+
+        configuration.put("dtoAnnotationClasses", dtoAnnotationClasses);
+        configuration.put("dtoInterfaceClasses", dtoInterfaceClasses);
+        configuration.put("generateMethods", generateMethods);
+        configuration.put("annotationInclusionMask", annotationInclusionMask);
+    }
 }
@@ -1,23 +1,34 @@
 package com.a5000.platform.api.annotations.generators.jpa.mojo;
 
 import com.a5000.platform.api.annotations.generators.jpa.AbstractGeneratorMojo;
+import com.a5000.platform.api.annotations.generators.jpa.utils.StringUtils;
 import com.sun.codemodel.*;
 import com.thoughtworks.qdox.model.Annotation;
 import com.thoughtworks.qdox.model.JavaClass;
 import com.thoughtworks.qdox.model.JavaField;
 import org.apache.maven.plugin.MojoExecutionException;
-import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Created by cyril on 8/28/13.
  */
-@Mojo( name = "gen-jpa-converter", defaultPhase = LifecyclePhase.PROCESS_SOURCES, threadSafe = false)
+@Mojo( name = "gen-jpa-converter", defaultPhase = LifecyclePhase.PROCESS_SOURCES, threadSafe = true)
 public class GenJpaToDtoConverterMojo extends AbstractGeneratorMojo {
 
     private static final String CONVERTER_CLASS_NAME = "DtoConversionService";
@@ -25,30 +36,111 @@ public class GenJpaToDtoConverterMojo extends AbstractGeneratorMojo {
     private static final String DTO_INCLUDE_ANNOTATION_CLASS_NAME = "DtoInclude";
     private static final String DTO_EXCLUDE_ANNOTATION_CLASS_NAME = "DtoExclude";
     private static final String METHODS_CACHE_FIELD_NAME = "METHODS";
-    private static final String CONVERSATION_METHOD_NOT_FOUND_EXCEPTION = "Conversion method not found: %s";
+    private static final String CONVERTER_TYPES_FIELD_NAME = "converterTypes";
+    private static final String CREATE_CONVERTER_TYPES_METHOD_NAME = "createConverterTypes";
+    private static final String REGISTER_CONVERTER_METHOD_NAME = "registerConverter";
+    private static final String CONVERSATION_METHOD_NOT_FOUND_EXCEPTION = "Conversion method not found: ";
     private static final String LIST_CONVERTER_METHOD_NAME = "convertToDtoList";
     private static final String CONVERT_TO_IDS_LIST_METHOD_NAME = "convertToIdsList";
     private static final String CONVERTER_INVOKE_TYPE_CLASS_NAME = "ConverterInvoke";
+    private static final String CONTEXT_CONVERTER_INVOKE_TYPE_CLASS_NAME = "ContextConverterInvoke";
+    private static final String CONVERSION_CONTEXT_CLASS_NAME = "ConversionContext";
+    private static final String DTO_PROFILE_ANNOTATION_CLASS_NAME = "DtoProfile";
+    private static final String DTO_PROFILES_ANNOTATION_CLASS_NAME = "DtoProfiles";
+    private static final String ALL_FIELDS_FIELD_NAME = "ALL_FIELDS";
+    private static final int MAX_PROFILE_FIELDS = 64;
+    private static final String PERSISTENCE_UNIT_UTIL_CLASS_NAME = "javax.persistence.PersistenceUnitUtil";
+    private static final String PERSISTENCE_UNIT_UTIL_FIELD_NAME = "persistenceUnitUtil";
+    private static final String IS_LOADED_METHOD_NAME = "isLoaded";
+    private static final String METRICS_CLASS_NAME = "ConversionMetrics";
+    private static final String METRICS_FIELD_NAME = "metrics";
+    private static final String METRICS_SAMPLE_RATE_FIELD_NAME = "metricsSampleRate";
+    private static final String SAMPLED_METRICS_METHOD_NAME = "sampledMetrics";
+    private static final String PARALLEL_LIST_CONVERTER_METHOD_NAME = "convertToDtoListParallel";
+    private static final String CONCURRENT_LIST_CONVERTER_METHOD_NAME = "convertToDtoListConcurrently";
+    private static final String CONVERSION_CHUNK_CLASS_NAME = "ConversionChunk";
+    private static final String COLLECT_CONVERTED_METHOD_NAME = "collectConverted";
+    private static final String STREAM_CONVERTER_METHOD_NAME = "convertToDtoStream";
+    private static final String ITERATOR_CONVERTER_METHOD_NAME = "convertToDtoIterator";
+    private static final String CONVERTING_ITERATOR_CLASS_NAME = "ConvertingIterator";
+    private static final String BATCH_LISTENER_CLASS_NAME = "ConversionBatchListener";
 
     @Parameter( property = "jpaEntityInterface", required = true )
     protected String jpaEntityInterface = "com.a5000.platform.api.model.domain.api.IStoredBean";
 
-    @Parameter( property = "jpaEntityInterface", required = true,
-            defaultValue = "com.a5000.platform.api.model.domain.api.IStoredBean")
-    protected String transactionalAnnotation;
+    @Parameter( property = "transactionalAnnotation", required = true,
+            defaultValue = "com.a5000.platform.api.services.A5TransactionalReadOnly")
+    protected String transactionalAnnotation = "com.a5000.platform.api.services.A5TransactionalReadOnly";
 
+    /**
+     * Report conversions to the ConversionMetrics recorder set on the conversion service: latency of every
+     * entity conversion (in nanoseconds) and size of every converted associations collection, optionally
+     * sampled 1-in-N; without a recorder the cost is a single volatile read per conversion
+     */
     @Parameter( property = "profilingEnabled", required = false, defaultValue = "false")
     protected Boolean profilingEnabled = false;
 
-    @Parameter( property = "transactionAnnotationOnConverterMethods",
-            required = true, defaultValue = "com.a5000.platform.api.services.A5TransactionalReadOnly")
+    @Parameter( property = "transactionAnnotationOnConverterMethods", required = false, defaultValue = "false")
     protected boolean transactionAnnotationOnConverterMethods;
 
+    /**
+     * Thread a conversion context through the generated converter methods: each entity instance is converted
+     * once per call (shared references and cycles resolve to the same DTO) and nesting is limited by
+     * conversionMaxDepth (associations deeper than that are left unset)
+     */
+    @Parameter( property = "conversionContextEnabled", required = false, defaultValue = "false")
+    protected Boolean conversionContextEnabled = false;
+
+    @Parameter( property = "conversionMaxDepth", required = false, defaultValue = "32")
+    protected Integer conversionMaxDepth = 32;
+
+    /**
+     * Converter methods take a mask of the DTO fields to convert: every field gets a bit constant
+     * (e.g. TEST_FIELD_NAME), profiles declared by @DtoProfile are compiled into the masks (e.g. TEST_PROFILE_SUMMARY);
+     * getters of the fields not selected are not invoked, so lazy associations stay untouched
+     */
+    @Parameter( property = "conversionProfilesEnabled", required = false, defaultValue = "false")
+    protected Boolean conversionProfilesEnabled = false;
+
+    /**
+     * Consult JPA PersistenceUnitUtil (when it is set on the conversion service): identifiers of the associations
+     * aggregated as IDs are read without initializing proxies, associations which are not loaded yet are left unset
+     * instead of being fetched one by one
+     */
+    @Parameter( property = "loadStateAware", required = false, defaultValue = "false")
+    protected Boolean loadStateAware = false;
+
+    /**
+     * Generate bulk list conversion: convertToDtoListParallel splits lists longer than parallelConversionThreshold
+     * across a fork-join pool, convertToDtoListConcurrently runs fixed size chunks on the given executor
+     * (e.g. virtual threads, when conversion blocks on lazy loads). Order of the records is preserved.
+     */
+    @Parameter( property = "parallelConversionEnabled", required = false, defaultValue = "false")
+    protected Boolean parallelConversionEnabled = false;
+
+    @Parameter( property = "parallelConversionThreshold", required = false, defaultValue = "1000")
+    protected Integer parallelConversionThreshold = 1000;
+
+    /**
+     * Generate convertToDtoStream and convertToDtoIterator, which convert the records one by one as they are
+     * consumed; every batchSize records the converted entities are passed to a listener, which could detach
+     * them or flush and clear the persistence context
+     */
+    @Parameter( property = "streamingConversionEnabled", required = false, defaultValue = "false")
+    protected Boolean streamingConversionEnabled = false;
+
     private final AtomicBoolean initialized = new AtomicBoolean(false);
 
     private JDefinedClass converterClazz;
     private JFieldVar cacheField;
-    private Map<JavaClass, JClass> converterInvokeList = new HashMap();
+    private JFieldVar converterTypesField;
+    private JDefinedClass conversionContextClazz;
+    private JFieldVar allFieldsField;
+    private JFieldVar persistenceUnitUtilField;
+    private JDefinedClass metricsClazz;
+    private JMethod sampledMetricsMethod;
+    private Map<JavaClass, JClass> converterInvokeList = new LinkedHashMap<JavaClass, JClass>();
+    private Map<String, JMethod> collectionConverters = new HashMap<String, JMethod>();
 
     public GenJpaToDtoConverterMojo() {
         super("JPA to DTO conversion services generator", "", "", "");
@@ -75,17 +167,36 @@ public class GenJpaToDtoConverterMojo extends AbstractGeneratorMojo {
     }
 
     @Override
-    public void execute() throws MojoExecutionException, MojoFailureException {
+    protected void onExecutionStarted() throws MojoExecutionException {
         try {
             init();
+            collectionConverters.clear();
 
             defineCacheField(converterClazz);
             generateTemplateConvertInvokeClass(converterClazz);
+            if ( conversionContextEnabled ) {
+                generateConversionContextClass(converterClazz);
+            }
+            if ( conversionProfilesEnabled ) {
+                allFieldsField = converterClazz.field(JMod.PUBLIC | JMod.STATIC | JMod.FINAL, codeModel.LONG,
+                        ALL_FIELDS_FIELD_NAME, JExpr.lit(-1L) );
+            }
+            if ( loadStateAware ) {
+                generateLoadStateSupport(converterClazz);
+            }
+            if ( profilingEnabled ) {
+                generateMetricsSupport(converterClazz);
+            }
+            generateConvertersDispatch(converterClazz);
             generateConvertToIdsListMethod(converterClazz);
             generateTemplateConvertMethod(converterClazz);
             generateTemplateListConvertMethod(converterClazz);
-
-            super.execute();
+            if ( parallelConversionEnabled ) {
+                generateParallelListConvertMethods(converterClazz);
+            }
+            if ( streamingConversionEnabled ) {
+                generateStreamingConvertMethods(converterClazz);
+            }
         } catch (JClassAlreadyExistsException e) {
             throw new MojoExecutionException( e.getMessage(), e );
         }
@@ -94,24 +205,96 @@ public class GenJpaToDtoConverterMojo extends AbstractGeneratorMojo {
     @Override
     protected void onExecutionFinished() {
         defineConverterMethodsCache(converterClazz);
+        recordAggregatedOutput(converterClazz.fullName());
+    }
+
+    @Override
+    protected boolean isAggregatingGenerator() {
+        return true;
+    }
+
+    @Override
+    protected void collectConfiguration(Map<String, Object> configuration) {
+        super.collectConfiguration(configuration);
+
+        configuration.put("jpaEntityInterface", jpaEntityInterface);
+        configuration.put("transactionalAnnotation", transactionalAnnotation);
+        configuration.put("profilingEnabled", profilingEnabled);
+        configuration.put("transactionAnnotationOnConverterMethods", transactionAnnotationOnConverterMethods);
+        configuration.put("conversionContextEnabled", conversionContextEnabled);
+        configuration.put("conversionMaxDepth", conversionMaxDepth);
+        configuration.put("conversionProfilesEnabled", conversionProfilesEnabled);
+        configuration.put("loadStateAware", loadStateAware);
+        configuration.put("parallelConversionEnabled", parallelConversionEnabled);
+        configuration.put("parallelConversionThreshold", parallelConversionThreshold);
+        configuration.put("streamingConversionEnabled", streamingConversionEnabled);
     }
 
     protected void defineCacheField(JDefinedClass converterClazz) {
         JClass methodType = codeModel.ref(CONVERTER_INVOKE_TYPE_CLASS_NAME);
         this.cacheField = converterClazz.field(JMod.FINAL | JMod.PRIVATE,
-                codeModel.ref(Map.class).narrow(codeModel.ref(Class.class), methodType),
+                codeModel.ref(ConcurrentMap.class).narrow(codeModel.ref(Class.class), methodType),
                 METHODS_CACHE_FIELD_NAME,
                 JExpr._new(
-                        codeModel.ref(HashMap.class)
+                        codeModel.ref(ConcurrentHashMap.class)
                                 .narrow(codeModel.ref(Class.class), methodType)
                 )
         );
     }
 
+    /**
+     * Converters are resolved through a {@link ClassValue}: a runtime class missing in the registry
+     * (Hibernate proxy, subclass without its own converter) is mapped to its closest registered superclass
+     * once and the mapping is kept by the class. The mapping refers neither converters nor the service,
+     * so classes do not pin the service (and its class loader). Registration of a new type replaces the
+     * {@link ClassValue}, so the classes resolved before could see the type; lookups stay lock-free.
+     */
+    protected void generateConvertersDispatch( JDefinedClass converterClazz ) {
+        JClass methodType = codeModel.ref(CONVERTER_INVOKE_TYPE_CLASS_NAME);
+        JClass anyClassType = codeModel.ref(Class.class).narrow( codeModel.ref(Object.class).wildcard() );
+        JClass converterTypesType = codeModel.ref(ClassValue.class).narrow(anyClassType);
+        JClass typesType = codeModel.ref(Set.class).narrow( codeModel.ref(Class.class) );
+
+        JMethod factoryMethod = converterClazz.method(JMod.PRIVATE | JMod.STATIC, converterTypesType,
+                CREATE_CONVERTER_TYPES_METHOD_NAME);
+        JVar typesParam = factoryMethod.param(typesType, "types");
+        JVar registeredVar = factoryMethod.body().decl(JMod.FINAL, typesType, "registered",
+                JExpr._new( codeModel.ref(HashSet.class).narrow( codeModel.ref(Class.class) ) ).arg(typesParam) );
+
+        JDefinedClass converterTypesClass = codeModel.anonymousClass(converterTypesType);
+        JMethod computeMethod = converterTypesClass.method(JMod.PROTECTED, anyClassType, "computeValue");
+        computeMethod.annotate(Override.class);
+        JVar typeParam = computeMethod.param(anyClassType, "type");
+
+        JForLoop hierarchyLoop = computeMethod.body()._for();
+        JVar currentVar = hierarchyLoop.init(anyClassType, "current", typeParam);
+        hierarchyLoop.test( currentVar.ne( JExpr._null() ) );
+        hierarchyLoop.update( currentVar.assign( currentVar.invoke("getSuperclass") ) );
+        hierarchyLoop.body()._if( registeredVar.invoke("contains").arg(currentVar) )
+                ._then()._return(currentVar);
+
+        computeMethod.body()._return( JExpr._null() );
+        factoryMethod.body()._return( JExpr._new(converterTypesClass) );
+
+        // assigned once the generated converters are registered, see defineConverterMethodsCache
+        this.converterTypesField = converterClazz.field(JMod.PRIVATE | JMod.VOLATILE, converterTypesType,
+                CONVERTER_TYPES_FIELD_NAME );
+
+        JMethod registerMethod = converterClazz.method(JMod.PUBLIC, codeModel.VOID, REGISTER_CONVERTER_METHOD_NAME);
+        JTypeVar typeVar = registerMethod.generify("T");
+        JVar entityTypeParam = registerMethod.param( codeModel.ref(Class.class).narrow(typeVar), "type" );
+        JVar converterParam = registerMethod.param(
+                methodType.narrow( typeVar, codeModel.ref(Object.class).wildcard() ), "converter" );
+        // replaced converter keeps its type, the mapping of the classes stays valid
+        registerMethod.body()._if( cacheField.invoke("put").arg(entityTypeParam).arg(converterParam).eq( JExpr._null() ) )
+                ._then().assign( JExpr._this().ref(converterTypesField),
+                        JExpr.invoke(factoryMethod).arg( cacheField.invoke("keySet") ) );
+    }
+
     protected void generateTemplateConvertInvokeClass( JDefinedClass converterClazz )
             throws JClassAlreadyExistsException {
         JDefinedClass converterInvokeClass =
-                converterClazz._class(JMod.NONE, "ConverterInvoke", ClassType.INTERFACE);
+                converterClazz._class(JMod.PUBLIC, "ConverterInvoke", ClassType.INTERFACE);
         converterInvokeClass.generify("T");
         converterInvokeClass.generify("V");
 
@@ -119,6 +302,204 @@ public class GenJpaToDtoConverterMojo extends AbstractGeneratorMojo {
                 .param( codeModel.ref("T"), "arg");
     }
 
+    /**
+     * Context keeps DTOs of the entities converted within a call by identity and the current nesting depth;
+     * converters of the generated entities implement the context aware invoke interface
+     */
+    protected void generateConversionContextClass( JDefinedClass converterClazz ) throws JClassAlreadyExistsException {
+        conversionContextClazz = converterClazz._class(JMod.PUBLIC | JMod.STATIC | JMod.FINAL,
+                CONVERSION_CONTEXT_CLASS_NAME);
+        JFieldVar defaultMaxDepthField = conversionContextClazz.field(JMod.PUBLIC | JMod.STATIC | JMod.FINAL,
+                codeModel.INT, "DEFAULT_MAX_DEPTH", JExpr.lit(conversionMaxDepth) );
+        JClass convertedType = codeModel.ref(Map.class).narrow( codeModel.ref(Object.class), codeModel.ref(Object.class) );
+        JFieldVar convertedField = conversionContextClazz.field(JMod.PRIVATE | JMod.FINAL, convertedType, "converted",
+                JExpr._new( codeModel.ref(IdentityHashMap.class)
+                        .narrow( codeModel.ref(Object.class), codeModel.ref(Object.class) ) ) );
+        JFieldVar maxDepthField = conversionContextClazz.field(JMod.PRIVATE | JMod.FINAL, codeModel.INT, "maxDepth");
+        JFieldVar depthField = conversionContextClazz.field(JMod.PRIVATE, codeModel.INT, "depth");
+
+        conversionContextClazz.constructor(JMod.PUBLIC).body().invoke("this").arg(defaultMaxDepthField);
+
+        JMethod constructor = conversionContextClazz.constructor(JMod.PUBLIC);
+        JVar maxDepthParam = constructor.param(codeModel.INT, "maxDepth");
+        constructor.body().assign( JExpr._this().ref(maxDepthField), maxDepthParam );
+
+        JMethod getMethod = conversionContextClazz.method(JMod.PUBLIC, Object.class, "get");
+        JVar entityParam = getMethod.param(Object.class, "entity");
+        getMethod.body()._return( convertedField.invoke("get").arg(entityParam) );
+
+        JMethod putMethod = conversionContextClazz.method(JMod.PUBLIC, codeModel.VOID, "put");
+        entityParam = putMethod.param(Object.class, "entity");
+        JVar dtoParam = putMethod.param(Object.class, "dto");
+        putMethod.body().add( convertedField.invoke("put").arg(entityParam).arg(dtoParam) );
+
+        JMethod enterMethod = conversionContextClazz.method(JMod.PUBLIC, codeModel.BOOLEAN, "enter");
+        enterMethod.body()._if( depthField.gte(maxDepthField) )
+                ._then()._return( JExpr.FALSE );
+        enterMethod.body().assignPlus( depthField, JExpr.lit(1) );
+        enterMethod.body()._return( JExpr.TRUE );
+
+        JMethod exitMethod = conversionContextClazz.method(JMod.PUBLIC, codeModel.VOID, "exit");
+        exitMethod.body().assign( depthField, depthField.minus( JExpr.lit(1) ) );
+
+        JDefinedClass contextInvokeClass = converterClazz._class(JMod.PUBLIC, CONTEXT_CONVERTER_INVOKE_TYPE_CLASS_NAME,
+                ClassType.INTERFACE);
+        JTypeVar entityType = contextInvokeClass.generify("T");
+        JTypeVar dtoType = contextInvokeClass.generify("V");
+        contextInvokeClass._implements( codeModel.ref(CONVERTER_INVOKE_TYPE_CLASS_NAME).narrow(entityType, dtoType) );
+
+        JMethod convertMethod = contextInvokeClass.method(JMod.NONE, dtoType, "convert");
+        convertMethod.param(entityType, "arg");
+        convertMethod.param(conversionContextClazz, "context");
+    }
+
+    /**
+     * PersistenceUnitUtil is optional, without it every association is treated as a loaded one
+     */
+    protected void generateLoadStateSupport( JDefinedClass converterClazz ) {
+        JClass persistenceUnitUtilType = codeModel.ref(PERSISTENCE_UNIT_UTIL_CLASS_NAME);
+        persistenceUnitUtilField = converterClazz.field(JMod.PRIVATE | JMod.VOLATILE, persistenceUnitUtilType,
+                PERSISTENCE_UNIT_UTIL_FIELD_NAME);
+
+        JMethod setter = converterClazz.method(JMod.PUBLIC, codeModel.VOID, generateSetterName(PERSISTENCE_UNIT_UTIL_FIELD_NAME));
+        JVar setterParam = setter.param(persistenceUnitUtilType, PERSISTENCE_UNIT_UTIL_FIELD_NAME);
+        setter.body().assign( JExpr._this().ref(persistenceUnitUtilField), setterParam );
+
+        JMethod isLoadedMethod = converterClazz.method(JMod.PRIVATE, codeModel.BOOLEAN, IS_LOADED_METHOD_NAME);
+        JVar entityParam = isLoadedMethod.param(Object.class, "entity");
+        JVar attributeParam = isLoadedMethod.param(String.class, "attribute");
+        JVar utilVar = isLoadedMethod.body().decl(persistenceUnitUtilType, "util", persistenceUnitUtilField);
+        isLoadedMethod.body()._return( utilVar.eq( JExpr._null() )
+                .cor( utilVar.invoke("isLoaded").arg(entityParam).arg(attributeParam) ) );
+    }
+
+    /**
+     * Recorder is optional: sampling is decided once per conversion, so the recorder gets either the complete
+     * measurement or nothing; sample rate is kept by the service to let the recorder stay a plain consumer
+     */
+    protected void generateMetricsSupport( JDefinedClass converterClazz ) throws JClassAlreadyExistsException {
+        metricsClazz = converterClazz._class(JMod.PUBLIC, METRICS_CLASS_NAME, ClassType.INTERFACE);
+        JClass entityTypeType = codeModel.ref(Class.class).narrow( codeModel.ref(Object.class).wildcard() );
+
+        JMethod recordConversionMethod = metricsClazz.method(JMod.NONE, codeModel.VOID, "recordConversion");
+        recordConversionMethod.param(entityTypeType, "entityType");
+        recordConversionMethod.param(codeModel.LONG, "nanos");
+
+        JMethod recordCollectionMethod = metricsClazz.method(JMod.NONE, codeModel.VOID, "recordCollection");
+        recordCollectionMethod.param(entityTypeType, "entityType");
+        recordCollectionMethod.param(codeModel.INT, "size");
+
+        JFieldVar metricsField = converterClazz.field(JMod.PRIVATE | JMod.VOLATILE, metricsClazz, METRICS_FIELD_NAME);
+        JFieldVar sampleRateField = converterClazz.field(JMod.PRIVATE | JMod.VOLATILE, codeModel.INT,
+                METRICS_SAMPLE_RATE_FIELD_NAME, JExpr.lit(1) );
+
+        JMethod setter = converterClazz.method(JMod.PUBLIC, codeModel.VOID, generateSetterName(METRICS_FIELD_NAME));
+        JVar metricsParam = setter.param(metricsClazz, METRICS_FIELD_NAME);
+        setter.body().invoke( setter.name() ).arg(metricsParam).arg( JExpr.lit(1) );
+
+        setter = converterClazz.method(JMod.PUBLIC, codeModel.VOID, generateSetterName(METRICS_FIELD_NAME));
+        metricsParam = setter.param(metricsClazz, METRICS_FIELD_NAME);
+        JVar sampleRateParam = setter.param(codeModel.INT, "sampleRate");
+        setter.body()._if( sampleRateParam.lt( JExpr.lit(1) ) )
+                ._then()._throw( JExpr._new( codeModel.ref(IllegalArgumentException.class) )
+                        .arg( JExpr.lit("Sample rate must be positive: ").plus(sampleRateParam) ) );
+        setter.body().assign( JExpr._this().ref(sampleRateField), sampleRateParam );
+        setter.body().assign( JExpr._this().ref(metricsField), metricsParam );
+
+        sampledMetricsMethod = converterClazz.method(JMod.PRIVATE, metricsClazz, SAMPLED_METRICS_METHOD_NAME);
+        JBlock body = sampledMetricsMethod.body();
+        JVar currentVar = body.decl(metricsClazz, "current", metricsField);
+        body._if( currentVar.eq( JExpr._null() ) )._then()._return( JExpr._null() );
+        JVar rateVar = body.decl(codeModel.INT, "rate", sampleRateField);
+        body._return( JOp.cond( rateVar.eq( JExpr.lit(1) )
+                        .cor( codeModel.ref(ThreadLocalRandom.class).staticInvoke("current").invoke("nextInt").arg(rateVar)
+                                .eq( JExpr.lit(0) ) ),
+                currentVar, JExpr._null() ) );
+    }
+
+    /**
+     * Adds the conversion context argument when the context is threaded through the converters
+     */
+    private JInvocation withContext( JInvocation invocation, JVar contextVar ) {
+        return contextVar == null ? invocation : invocation.arg(contextVar);
+    }
+
+    /**
+     * Converter method takes the value, fields mask (when the profiles are enabled) and conversion context
+     * (when the context is enabled); overloads which omit the optional arguments convert all the fields
+     * within a new context
+     */
+    private void generateConverterOverloads( JClass returnType, String methodName, JClass valueType, String valueName ) {
+        for ( boolean withFields : conversionProfilesEnabled ? new boolean[] { false, true } : new boolean[] { false } ) {
+            for ( boolean withContext : conversionContextEnabled ? new boolean[] { false, true } : new boolean[] { false } ) {
+                if ( withFields == conversionProfilesEnabled && withContext == conversionContextEnabled ) {
+                    continue;
+                }
+
+                JMethod method = converterClazz.method(JMod.PUBLIC | JMod.FINAL, returnType, methodName);
+                JInvocation invocation = JExpr.invoke(methodName).arg( method.param(valueType, valueName) );
+                if ( conversionProfilesEnabled ) {
+                    invocation.arg( withFields ? method.param(codeModel.LONG, "fields") : allFieldsField );
+                }
+
+                if ( conversionContextEnabled ) {
+                    invocation.arg( withContext ? method.param(conversionContextClazz, "context")
+                            : JExpr._new(conversionContextClazz) );
+                }
+
+                method.body()._return(invocation);
+            }
+        }
+    }
+
+    /**
+     * Masks of the profiles declared by the entity and its supertypes
+     */
+    private void generateProfileConstants( JavaClass entityClazz, String constantsPrefix, Map<String, JFieldVar> fieldConstants ) {
+        for ( JavaClass parent : getInheritanceIndex().getHierarchy(entityClazz) ) {
+            List<Annotation> profiles = new ArrayList<Annotation>(
+                    getMemberIndex(parent).getAnnotations( DTO_PROFILE_ANNOTATION_CLASS_NAME ) );
+            for ( Annotation annotation : getMemberIndex(parent).getAnnotations( DTO_PROFILES_ANNOTATION_CLASS_NAME ) ) {
+                Object value = annotation.getNamedParameter("value");
+                if ( value instanceof List ) {
+                    profiles.addAll( (List<Annotation>) value );
+                } else if ( value instanceof Annotation ) {
+                    profiles.add( (Annotation) value );
+                }
+            }
+
+            for ( Annotation profile : profiles ) {
+                String profileName = normalizeAnnotationValue( (String) profile.getNamedParameter("name") );
+                List<String> fieldNames = new ArrayList<String>();
+                Object fields = profile.getNamedParameter("fields");
+                if ( fields instanceof String ) {
+                    fieldNames.add( (String) fields );
+                } else if ( fields instanceof List ) {
+                    fieldNames.addAll( (List<String>) fields );
+                }
+
+                JExpression mask = null;
+                for ( String fieldName : fieldNames ) {
+                    JFieldVar fieldConstant = fieldConstants.get( normalizeAnnotationValue(fieldName) );
+                    if ( fieldConstant == null ) {
+                        getLog().warn("Profile " + profileName + " of " + parent.getFullyQualifiedName()
+                                + " refers to the field " + fieldName + " which is not converted, ignoring...");
+                        continue;
+                    }
+
+                    mask = mask == null ? fieldConstant : mask.bor(fieldConstant);
+                }
+
+                converterClazz.field(JMod.PUBLIC | JMod.STATIC | JMod.FINAL, codeModel.LONG,
+                        constantsPrefix + "_PROFILE_" + toConstantName(profileName), mask == null ? JExpr.lit(0L) : mask );
+            }
+        }
+    }
+
+    private static String toConstantName( String name ) {
+        return StringUtils.fromCamelCase( name, "_" ).toUpperCase();
+    }
+
     protected void generateConvertToIdsListMethod( JDefinedClass converterClazz ) {
         JMethod converterMethod = converterClazz.method(JMod.PRIVATE | JMod.STATIC,
                 codeModel.ref(List.class).narrow(Long.class),
@@ -151,39 +532,51 @@ public class GenJpaToDtoConverterMojo extends AbstractGeneratorMojo {
         }
 
         JClass entityClazzModel = codeModel.ref( entityClazz.getFullyQualifiedName() );
-        JClass dtoRef = codeModel.ref(
-            prepareClassName(
-                dtoPackage,
-                entityClazz.getFullyQualifiedName(),
-                DTO_GENERATOR_PREFIX,
-                DTO_GENERATOR_SUFFIX,
-                DTO_GENERATOR_POSTFIX
-            )
-        );
+        JClass dtoRef = codeModel.ref( prepareDtoClassName( entityClazz.getFullyQualifiedName() ) );
+
+        generateConverterOverloads( dtoRef, CONVERTER_METHOD_NAME, entityClazzModel, "value" );
 
         JMethod converterMethod = converterClazz.method(JMod.PUBLIC | JMod.FINAL,
-                codeModel.ref(prepareClassName(dtoPackage, entityClazz.getFullyQualifiedName(),
-                        DTO_GENERATOR_PREFIX, DTO_GENERATOR_SUFFIX, DTO_GENERATOR_POSTFIX)),
+                codeModel.ref(prepareDtoClassName(entityClazz.getFullyQualifiedName())),
                 CONVERTER_METHOD_NAME);
 
+        JVar sampledVar = null;
         JVar startedVar = null;
         if ( profilingEnabled ) {
-            startedVar = converterMethod.body().decl(codeModel.ref("long"), "started", codeModel.ref("java.lang.System")
-                    .staticInvoke("currentTimeMillis"));
-            converterMethod.body().add(
-                    codeModel.ref("java.lang.System").staticRef("out").invoke("println").arg(
-                            entityClazzModel.dotclass().invoke("toString").invoke("concat").arg(" Method Invoked")
-                    )
-            );
+            sampledVar = converterMethod.body().decl(metricsClazz, "sampled", JExpr.invoke(sampledMetricsMethod) );
+            startedVar = converterMethod.body().decl(codeModel.LONG, "started", JOp.cond(
+                    sampledVar.eq( JExpr._null() ), JExpr.lit(0L), codeModel.ref(System.class).staticInvoke("nanoTime") ) );
         }
 
         JVar converterMethodParam = converterMethod.param( entityClazzModel, "value" );
+        JVar fieldsParam = conversionProfilesEnabled ? converterMethod.param( codeModel.LONG, "fields" ) : null;
+        JVar contextParam = conversionContextEnabled ? converterMethod.param( conversionContextClazz, "context" ) : null;
         JBlock block = converterMethod.body();
+        String constantsPrefix = toConstantName( entityClazz.getName() );
+        Map<String, JFieldVar> fieldConstants = new LinkedHashMap<String, JFieldVar>();
 
         block._if( converterMethodParam.eq( JExpr._null() ) )
                 ._then()._return( JExpr._null() );
 
+        if ( contextParam != null ) {
+            // DTO is registered before its fields are converted, so cycles resolve to it; the instance could be
+            // converted before by the converter of its supertype, so the DTO type is checked
+            JVar convertedVar = block.decl( codeModel.ref(Object.class), "converted",
+                    contextParam.invoke("get").arg(converterMethodParam) );
+            block._if( convertedVar._instanceof(dtoRef) )
+                    ._then()._return( JExpr.cast( dtoRef, convertedVar ) );
+            block._if( JOp.not( contextParam.invoke("enter") ) )
+                    ._then()._return( JExpr._null() );
+
+            JTryBlock contextBlock = block._try();
+            contextBlock._finally().add( contextParam.invoke("exit") );
+            block = contextBlock.body();
+        }
+
         JVar dtoInstance = block.decl( dtoRef, "result", JExpr._new(dtoRef) );
+        if ( contextParam != null ) {
+            block.add( contextParam.invoke("put").arg(converterMethodParam).arg(dtoInstance) );
+        }
 
         Set<CollectedJavaField> collectedFields = collectConvertibleFields(entityClazz);
         for ( CollectedJavaField collectedField : collectedFields ) {
@@ -194,13 +587,10 @@ public class GenJpaToDtoConverterMojo extends AbstractGeneratorMojo {
             String getterName;
             String setterName;
             JClass resultType;
+            boolean lazyAssociation = false;
             if ( collectedField.isConvertible && !collectedField.isSynthetic ) {
                 String aggregationType = "AggregationType.ID";
-                for ( Annotation annotation : field.getAnnotations() ) {
-                    if ( !isA(annotation.getType().getJavaClass(), DTO_INCLUDE_ANNOTATION_CLASS_NAME ) ) {
-                        continue;
-                    }
-
+                for ( Annotation annotation : getMemberIndex(field).getAnnotations( DTO_INCLUDE_ANNOTATION_CLASS_NAME ) ) {
                     if ( annotation.getNamedParameter("value") != null ) {
                         aggregationType = normalizeAnnotationValue((String) annotation.getNamedParameter("value"));
                     }
@@ -209,36 +599,40 @@ public class GenJpaToDtoConverterMojo extends AbstractGeneratorMojo {
                 boolean isList = false;
                 if ("AggregationType.DTO".equals(aggregationType)) {
                         fieldName = field.getName();
+                        lazyAssociation = true;
 
                         if (isCollectionType(field.getType().getJavaClass())) {
+                            boolean isSet = isSetType(field.getType().getJavaClass());
                             if (isListType(field.getType().getJavaClass())) {
                                 resultType = codeModel.ref(List.class);
-                            } else if (isSetType(field.getType().getJavaClass())) {
+                            } else if (isSet) {
                                 resultType = codeModel.ref(Set.class);
                             } else {
                                 resultType = codeModel.ref(Collection.class);
                             }
 
+                            String elementClassName = field.getType().getActualTypeArguments()[0].getFullyQualifiedName();
                             resultType = resultType.narrow(
                                     codeModel.ref(
-                                            prepareClassName(dtoPackage,
-                                                    field.getType().getActualTypeArguments()[0].getFullyQualifiedName(),
-                                                    DTO_GENERATOR_PREFIX, DTO_GENERATOR_SUFFIX, DTO_GENERATOR_POSTFIX)
+                                            prepareDtoClassName(elementClassName)
                                     )
                             );
+
+                            valueExpr = withContext( JExpr._this().invoke( getCollectionConverter(elementClassName, isSet) ).arg(
+                                    converterMethodParam.invoke(getterName = generateGetterName(field.getName()))
+                            ), contextParam );
                         } else {
                             resultType = codeModel.ref(
-                                    prepareClassName(dtoPackage, field.getType().getFullyQualifiedName(),
-                                            DTO_GENERATOR_PREFIX, DTO_GENERATOR_SUFFIX, DTO_GENERATOR_POSTFIX)
+                                    prepareDtoClassName(field.getType().getFullyQualifiedName())
                             );
-                        }
 
-                        valueExpr = JExpr.cast(
-                                resultType,
-                                JExpr._this().invoke(CONVERTER_METHOD_NAME).arg(
-                                        converterMethodParam.invoke(getterName = generateGetterName(field.getName()))
-                                )
-                        );
+                            valueExpr = JExpr.cast(
+                                    resultType,
+                                    withContext( JExpr._this().invoke(CONVERTER_METHOD_NAME).arg(
+                                            converterMethodParam.invoke(getterName = generateGetterName(field.getName()))
+                                    ), contextParam )
+                            );
+                        }
                 } else if ( "AggregationType.ENUM".equals(aggregationType) ) {
                         fieldName = field.getName();
                         getterName = generateGetterName(field.getName());
@@ -269,10 +663,19 @@ public class GenJpaToDtoConverterMojo extends AbstractGeneratorMojo {
 
                         JInvocation valueAccessInvocation =
                                 converterMethodParam.invoke(getterName = generateGetterName(field.getName()));
+                        JExpression idExpr = valueAccessInvocation.invoke(generateGetterName("id"));
+                        if ( loadStateAware ) {
+                            // identifier of an uninitialized proxy is known without loading it
+                            idExpr = JOp.cond( persistenceUnitUtilField.eq( JExpr._null() ), idExpr,
+                                    JExpr.cast( codeModel.ref(Long.class),
+                                            persistenceUnitUtilField.invoke("getIdentifier").arg(valueAccessInvocation) ) );
+                        }
+
+                        lazyAssociation = isList;
                         valueExpr = !isList ?
                             JOp.cond(
                                 JOp.not(valueAccessInvocation.eq(JExpr._null())),
-                                valueAccessInvocation.invoke(generateGetterName("id")),
+                                idExpr,
                                 JExpr._null()
                             ) :
                             JExpr._this().invoke(CONVERT_TO_IDS_LIST_METHOD_NAME).arg( valueAccessInvocation );
@@ -336,7 +739,7 @@ public class GenJpaToDtoConverterMojo extends AbstractGeneratorMojo {
                      */
                     valueExpr = JOp.cond( npeCheckExpr,
                             isConvertibleCollection ?
-                                    JExpr._this().invoke(CONVERTER_METHOD_NAME).arg(valueExpr)
+                                    withContext( JExpr._this().invoke(CONVERTER_METHOD_NAME).arg(valueExpr), contextParam )
                                     : valueExpr,
                             JExpr._null() );
 
@@ -346,7 +749,7 @@ public class GenJpaToDtoConverterMojo extends AbstractGeneratorMojo {
 
             setterName = generateSetterName(fieldName);
             if ( !collectedField.isSynthetic
-                    && ( !isMethodExists( setterName, dtoRef.fullName() ) ||
+                    && ( !isDtoMethodExists( setterName, dtoRef.fullName() ) ||
                     !isMethodExists(getterName, entityClazz.getFullyQualifiedName()) )  ) {
                 getLog().warn("Skipping field " + fieldName
                         + " of " + entityClazz.getFullyQualifiedName()
@@ -354,38 +757,129 @@ public class GenJpaToDtoConverterMojo extends AbstractGeneratorMojo {
                 continue;
             }
 
+            JBlock fieldBlock = block;
+            if ( fieldsParam != null ) {
+                JFieldVar fieldConstant = fieldConstants.get(fieldName);
+                if ( fieldConstant == null && fieldConstants.size() < MAX_PROFILE_FIELDS ) {
+                    fieldConstant = converterClazz.field(JMod.PUBLIC | JMod.STATIC | JMod.FINAL, codeModel.LONG,
+                            constantsPrefix + "_FIELD_" + toConstantName(fieldName),
+                            JExpr.lit(1L).shl( JExpr.lit( fieldConstants.size() ) ) );
+                    fieldConstants.put( fieldName, fieldConstant );
+                } else if ( fieldConstant == null ) {
+                    getLog().warn("Field " + fieldName + " of " + entityClazz.getFullyQualifiedName()
+                            + " does not fit the profile mask and is always converted");
+                }
+
+                if ( fieldConstant != null ) {
+                    fieldBlock = block._if( fieldsParam.band(fieldConstant).ne( JExpr.lit(0L) ) )._then();
+                }
+            }
+
+            if ( loadStateAware && lazyAssociation ) {
+                fieldBlock = fieldBlock._if( JExpr.invoke(IS_LOADED_METHOD_NAME)
+                        .arg(converterMethodParam).arg( JExpr.lit( field.getName() ) ) )._then();
+            }
+
             JInvocation setterInvocation = dtoInstance.invoke( setterName );
             if ( collectedField.isConvertible ) {
-                JVar convertedValueVar = block.decl( resultType, fieldName + "Converted" )
+                JVar convertedValueVar = fieldBlock.decl( resultType, fieldName + "Converted" )
                         .init( valueExpr );
 
-                block._if( JOp.not( convertedValueVar.eq(JExpr._null()) ) )
+                fieldBlock._if( JOp.not( convertedValueVar.eq(JExpr._null()) ) )
                         ._then().add( setterInvocation.arg(convertedValueVar) );
             } else {
-                block.add( setterInvocation.arg( valueExpr ) );
+                fieldBlock.add( setterInvocation.arg( valueExpr ) );
             }
         }
 
+        if ( fieldsParam != null ) {
+            generateProfileConstants( entityClazz, constantsPrefix, fieldConstants );
+            // list endpoints convert the entities collections with the profiles too
+            getCollectionConverter( entityClazz.getFullyQualifiedName(), false );
+        }
+
         if ( profilingEnabled ) {
-            converterMethod.body().add(
-                    codeModel.ref("java.lang.System").staticRef("out").invoke("println").arg(
-                            codeModel.ref("java.lang.String").staticInvoke("valueOf").arg(
-                                    codeModel.ref("java.lang.System").staticInvoke("currentTimeMillis").minus(startedVar)
-                            ).invoke("concat").arg(" ms")
-                    )
-            );
+            block._if( sampledVar.ne( JExpr._null() ) )._then()
+                    .add( sampledVar.invoke("recordConversion").arg( entityClazzModel.dotclass() )
+                            .arg( codeModel.ref(System.class).staticInvoke("nanoTime").minus(startedVar) ) );
         }
 
         block._return(dtoInstance);
     }
 
+    /**
+     * Typed converter of the associated entities collection (e.g. List<TestDTO> convertTestList(Collection<? extends Test>)),
+     * generated once per element type and kind. Result is presized; elements are converted by their own converter
+     * method when the element type is a concrete entity without subclasses, otherwise through the runtime class dispatch.
+     */
+    protected JMethod getCollectionConverter( String elementClassName, boolean isSet ) {
+        String key = elementClassName + ( isSet ? "#set" : "#list" );
+        JMethod method = collectionConverters.get(key);
+        if ( method != null ) {
+            return method;
+        }
+
+        JClass elementType = codeModel.ref(elementClassName);
+        JClass dtoType = codeModel.ref(prepareDtoClassName(elementClassName));
+        JClass resultType = codeModel.ref( isSet ? Set.class : List.class ).narrow(dtoType);
+
+        String methodName = "convert" + elementType.name() + ( isSet ? "Set" : "List" );
+        JClass valuesType = codeModel.ref(Collection.class).narrow( elementType.wildcard() );
+        generateConverterOverloads( resultType, methodName, valuesType, "values" );
+
+        method = converterClazz.method(JMod.PUBLIC | JMod.FINAL, resultType, methodName);
+        JVar valuesParam = method.param( valuesType, "values" );
+        JVar fieldsParam = conversionProfilesEnabled ? method.param( codeModel.LONG, "fields" ) : null;
+        JVar contextParam = conversionContextEnabled ? method.param( conversionContextClazz, "context" ) : null;
+
+        JBlock block = method.body();
+        block._if( valuesParam.eq( JExpr._null() ) )
+                ._then()._return( JExpr._null() );
+
+        JExpression capacity = isSet
+                ? valuesParam.invoke("size").mul( JExpr.lit(4) ).div( JExpr.lit(3) ).plus( JExpr.lit(1) )
+                : valuesParam.invoke("size");
+        if ( profilingEnabled ) {
+            JVar sampledVar = block.decl(metricsClazz, "sampled", JExpr.invoke(sampledMetricsMethod) );
+            block._if( sampledVar.ne( JExpr._null() ) )._then()
+                    .add( sampledVar.invoke("recordCollection").arg( elementType.dotclass() )
+                            .arg( valuesParam.invoke("size") ) );
+        }
+
+        JVar resultVar = block.decl( resultType, "result",
+                JExpr._new( codeModel.ref( isSet ? LinkedHashSet.class : ArrayList.class ).narrow(dtoType) )
+                        .arg(capacity) );
+
+        JForEach valuesIterator = block.forEach( elementType, "value", valuesParam );
+        valuesIterator.body()._if( valuesIterator.var().eq( JExpr._null() ) )
+                ._then()._continue();
+
+        JavaClass elementClass = resolveClass(elementClassName);
+        boolean hasOwnConverter = elementClass != null && isSupported(elementClass) && !elementClass.isAbstract()
+                && !getInheritanceIndex().hasSubtypes(elementClass);
+        JInvocation elementConversion = JExpr.invoke(CONVERTER_METHOD_NAME).arg( valuesIterator.var() );
+        if ( fieldsParam != null ) {
+            elementConversion.arg(fieldsParam);
+        }
+
+        valuesIterator.body().invoke( resultVar, "add" ).arg( hasOwnConverter
+                ? withContext( elementConversion, contextParam )
+                : JExpr.cast( dtoType, withContext( JExpr.invoke(CONVERTER_METHOD_NAME)
+                        .arg( JExpr.cast( codeModel.ref(Object.class), valuesIterator.var() ) ), contextParam ) ) );
+
+        block._return(resultVar);
+
+        collectionConverters.put( key, method );
+        return method;
+    }
+
     private void generateConverterInvokeClass(JDefinedClass converterClazz, JavaClass entityClazz) throws JClassAlreadyExistsException {
-        JClass dtoClassType = codeModel.ref(prepareClassName(dtoPackage, entityClazz.getFullyQualifiedName(),
-                DTO_GENERATOR_PREFIX, DTO_GENERATOR_SUFFIX, DTO_GENERATOR_POSTFIX));
+        JClass dtoClassType = codeModel.ref(prepareDtoClassName(entityClazz.getFullyQualifiedName()));
         JClass originalType = codeModel.ref( entityClazz.getFullyQualifiedName() );
         JDefinedClass converterInvokeClass =
                 converterClazz._class(JMod.PRIVATE | JMod.FINAL, entityClazz.getName() + "ConverterInvoke", ClassType.CLASS)
-                ._implements(codeModel.ref(CONVERTER_INVOKE_TYPE_CLASS_NAME)
+                ._implements(codeModel.ref( conversionContextEnabled
+                            ? CONTEXT_CONVERTER_INVOKE_TYPE_CLASS_NAME : CONVERTER_INVOKE_TYPE_CLASS_NAME )
                         .narrow(originalType)
                         .narrow(dtoClassType));
 
@@ -396,6 +890,14 @@ public class GenJpaToDtoConverterMojo extends AbstractGeneratorMojo {
                 JExpr.invoke( CONVERTER_METHOD_NAME ).arg(JExpr.cast(originalType, arg))
             );
 
+        if ( conversionContextEnabled ) {
+            method = converterInvokeClass.method(JMod.PUBLIC, dtoClassType, "convert");
+            arg = method.param( originalType, "arg" );
+            JVar contextParam = method.param( conversionContextClazz, "context" );
+            method.body()._return( JExpr.invoke(CONVERTER_METHOD_NAME).arg( JExpr.cast(originalType, arg) )
+                    .arg(contextParam) );
+        }
+
         converterInvokeList.put( entityClazz, converterInvokeClass);
     }
 
@@ -403,6 +905,20 @@ public class GenJpaToDtoConverterMojo extends AbstractGeneratorMojo {
      * @param converterClazz
      */
     protected void generateTemplateListConvertMethod( JDefinedClass converterClazz ) {
+        if ( conversionContextEnabled ) {
+            JMethod method = converterClazz.method( JMod.PUBLIC, codeModel.ref(List.class).narrow( codeModel.ref("T") ),
+                    LIST_CONVERTER_METHOD_NAME );
+            if ( transactionAnnotationOnConverterMethods ) {
+                method.annotate(codeModel.ref(transactionalAnnotation));
+            }
+
+            method.generify("T");
+            JVar methodParam = method.param( codeModel.ref(Collection.class).narrow( method.generify("V") ),
+                    "records" );
+            method.body()._return( JExpr.invoke(LIST_CONVERTER_METHOD_NAME).arg(methodParam)
+                    .arg( JExpr._new(conversionContextClazz) ) );
+        }
+
         JMethod method = converterClazz.method(
             JMod.PUBLIC,
             codeModel.ref(List.class).narrow( codeModel.ref("T") ),
@@ -419,6 +935,7 @@ public class GenJpaToDtoConverterMojo extends AbstractGeneratorMojo {
         JVar methodParam =
                 method.param( codeModel.ref(Collection.class).narrow(methodParamType),
                         "records" );
+        JVar contextParam = conversionContextEnabled ? method.param( conversionContextClazz, "context" ) : null;
 
         JBlock methodBody = method.body();
         methodBody._if( methodParam.eq( JExpr._null() ) )
@@ -428,7 +945,7 @@ public class GenJpaToDtoConverterMojo extends AbstractGeneratorMojo {
                         .arg("<null>") );
 
         JVar result = methodBody.decl( codeModel.ref(List.class), "result")
-                .init( JExpr._new( codeModel.ref(ArrayList.class) ) );
+                .init( JExpr._new( codeModel.ref(ArrayList.class) ).arg( methodParam.invoke("size") ) );
         JForEach recordsIterator = methodBody.forEach(
                 codeModel.ref(Object.class), "record", methodParam );
         recordsIterator.body()
@@ -438,9 +955,9 @@ public class GenJpaToDtoConverterMojo extends AbstractGeneratorMojo {
         recordsIterator.body()
             .invoke( result, "add" )
                 .arg(
-                    JExpr._this()
+                    withContext( JExpr._this()
                          .invoke(CONVERTER_METHOD_NAME)
-                         .arg( recordsIterator.var() )
+                         .arg( recordsIterator.var() ), contextParam )
                 );
 
         methodBody._return(
@@ -451,22 +968,305 @@ public class GenJpaToDtoConverterMojo extends AbstractGeneratorMojo {
         );
     }
 
+    /**
+     * Bulk conversion converts the records into an array by their positions, so the order is kept whatever
+     * the order of the chunks completion is. Workers do not join the transaction of the calling thread and
+     * must not touch its persistence context: fork-join mode is meant for the entities which state is loaded
+     * already, executor mode for the detached ones which load lazy associations on their own (every chunk
+     * could be bound to a transaction by decorating the executor). Every chunk is converted within its own
+     * conversion context.
+     */
+    protected void generateParallelListConvertMethods( JDefinedClass converterClazz ) throws JClassAlreadyExistsException {
+        JFieldVar thresholdField = converterClazz.field(JMod.PUBLIC | JMod.STATIC | JMod.FINAL, codeModel.INT,
+                "PARALLEL_THRESHOLD", JExpr.lit(parallelConversionThreshold) );
+        JClass objectsType = codeModel.ref(Object.class).array();
+
+        JDefinedClass chunkClazz = converterClazz._class(JMod.PRIVATE | JMod.FINAL, CONVERSION_CHUNK_CLASS_NAME);
+        chunkClazz._extends(RecursiveAction.class);
+        chunkClazz._implements(Runnable.class);
+        JFieldVar valuesField = chunkClazz.field(JMod.PRIVATE | JMod.FINAL, objectsType, "values");
+        JFieldVar convertedField = chunkClazz.field(JMod.PRIVATE | JMod.FINAL, objectsType, "converted");
+        JFieldVar fromField = chunkClazz.field(JMod.PRIVATE | JMod.FINAL, codeModel.INT, "from");
+        JFieldVar toField = chunkClazz.field(JMod.PRIVATE | JMod.FINAL, codeModel.INT, "to");
+        JFieldVar chunkThresholdField = chunkClazz.field(JMod.PRIVATE | JMod.FINAL, codeModel.INT, "threshold");
+
+        JMethod constructor = chunkClazz.constructor(JMod.NONE);
+        for ( JFieldVar field : new JFieldVar[] { valuesField, convertedField, fromField, toField, chunkThresholdField } ) {
+            constructor.body().assign( JExpr._this().ref(field), constructor.param( field.type(), field.name() ) );
+        }
+
+        JMethod computeMethod = chunkClazz.method(JMod.PROTECTED, codeModel.VOID, "compute");
+        computeMethod.annotate(Override.class);
+        JConditional splitCondition = computeMethod.body()._if( toField.minus(fromField).lte(chunkThresholdField) );
+        splitCondition._then().invoke("run");
+        splitCondition._then()._return();
+        JVar middleVar = computeMethod.body().decl(codeModel.INT, "middle",
+                JOp.shrz( fromField.plus(toField), JExpr.lit(1) ) );
+        computeMethod.body().staticInvoke( codeModel.ref(ForkJoinTask.class), "invokeAll" )
+                .arg( JExpr._new(chunkClazz).arg(valuesField).arg(convertedField).arg(fromField).arg(middleVar)
+                        .arg(chunkThresholdField) )
+                .arg( JExpr._new(chunkClazz).arg(valuesField).arg(convertedField).arg(middleVar).arg(toField)
+                        .arg(chunkThresholdField) );
+
+        JMethod runMethod = chunkClazz.method(JMod.PUBLIC, codeModel.VOID, "run");
+        runMethod.annotate(Override.class);
+        JVar contextVar = conversionContextEnabled
+                ? runMethod.body().decl(conversionContextClazz, "context", JExpr._new(conversionContextClazz) )
+                : null;
+        JForLoop rangeLoop = runMethod.body()._for();
+        JVar indexVar = rangeLoop.init(codeModel.INT, "i", fromField);
+        rangeLoop.test( indexVar.lt(toField) );
+        rangeLoop.update( indexVar.incr() );
+        JExpression valueExpr = valuesField.component(indexVar);
+        rangeLoop.body()._if( valueExpr.ne( JExpr._null() ) )._then()
+                .assign( convertedField.component(indexVar), withContext(
+                        JExpr.invoke(CONVERTER_METHOD_NAME).arg(valueExpr), contextVar ) );
+
+        // null records are skipped the same way the sequential conversion does
+        JMethod collectMethod = converterClazz.method(JMod.PRIVATE | JMod.STATIC, codeModel.ref(List.class),
+                COLLECT_CONVERTED_METHOD_NAME);
+        JVar valuesParam = collectMethod.param(objectsType, "values");
+        JVar convertedParam = collectMethod.param(objectsType, "converted");
+        JVar resultVar = collectMethod.body().decl( codeModel.ref(List.class).narrow(Object.class), "result",
+                JExpr._new( codeModel.ref(ArrayList.class).narrow(Object.class) ).arg( valuesParam.ref("length") ) );
+        JForLoop collectLoop = collectMethod.body()._for();
+        indexVar = collectLoop.init(codeModel.INT, "i", JExpr.lit(0) );
+        collectLoop.test( indexVar.lt( valuesParam.ref("length") ) );
+        collectLoop.update( indexVar.incr() );
+        valueExpr = valuesParam.component(indexVar);
+        collectLoop.body()._if( valueExpr.ne( JExpr._null() ) )._then()
+                .invoke( resultVar, "add" ).arg( convertedParam.component(indexVar) );
+        collectMethod.body()._return(resultVar);
+
+        // fork-join mode
+        JMethod method = converterClazz.method(JMod.PUBLIC, codeModel.ref(List.class).narrow( codeModel.ref("T") ),
+                PARALLEL_LIST_CONVERTER_METHOD_NAME);
+        method.generify("T");
+        JVar recordsParam = method.param( codeModel.ref(Collection.class).narrow( method.generify("V") ), "records" );
+        method.body()._return( JExpr.invoke(method.name()).arg(recordsParam).arg(thresholdField)
+                .arg( codeModel.ref(ForkJoinPool.class).staticInvoke("commonPool") ) );
+
+        method = converterClazz.method(JMod.PUBLIC, codeModel.ref(List.class).narrow( codeModel.ref("T") ),
+                PARALLEL_LIST_CONVERTER_METHOD_NAME);
+        JTypeVar returnType = method.generify("T");
+        recordsParam = method.param( codeModel.ref(Collection.class).narrow( method.generify("V") ), "records" );
+        JVar thresholdParam = method.param(codeModel.INT, "threshold");
+        JVar poolParam = method.param(ForkJoinPool.class, "pool");
+        generateBulkArgumentsCheck( method.body(), recordsParam, thresholdParam );
+        method.body()._if( recordsParam.invoke("size").lte(thresholdParam) )._then()
+                ._return( JExpr.invoke(LIST_CONVERTER_METHOD_NAME).arg(recordsParam) );
+        JVar valuesVar = method.body().decl(objectsType, "values", recordsParam.invoke("toArray") );
+        JVar convertedVar = method.body().decl(objectsType, "converted",
+                JExpr.newArray( codeModel.ref(Object.class), valuesVar.ref("length") ) );
+        method.body().add( poolParam.invoke("invoke").arg( JExpr._new(chunkClazz).arg(valuesVar).arg(convertedVar)
+                .arg( JExpr.lit(0) ).arg( valuesVar.ref("length") ).arg(thresholdParam) ) );
+        method.body()._return( JExpr.cast( codeModel.ref(List.class).narrow(returnType),
+                JExpr.invoke(collectMethod).arg(valuesVar).arg(convertedVar) ) );
+
+        // executor mode
+        method = converterClazz.method(JMod.PUBLIC, codeModel.ref(List.class).narrow( codeModel.ref("T") ),
+                CONCURRENT_LIST_CONVERTER_METHOD_NAME);
+        returnType = method.generify("T");
+        recordsParam = method.param( codeModel.ref(Collection.class).narrow( method.generify("V") ), "records" );
+        JVar chunkSizeParam = method.param(codeModel.INT, "chunkSize");
+        JVar executorParam = method.param(Executor.class, "executor");
+        JBlock body = method.body();
+        generateBulkArgumentsCheck( body, recordsParam, chunkSizeParam );
+        valuesVar = body.decl(objectsType, "values", recordsParam.invoke("toArray") );
+        convertedVar = body.decl(objectsType, "converted",
+                JExpr.newArray( codeModel.ref(Object.class), valuesVar.ref("length") ) );
+        JClass chunkTaskType = codeModel.ref(FutureTask.class).narrow(Object.class);
+        JVar chunksVar = body.decl( codeModel.ref(List.class).narrow(chunkTaskType), "chunks",
+                JExpr._new( codeModel.ref(ArrayList.class).narrow(chunkTaskType) )
+                        .arg( valuesVar.ref("length").div(chunkSizeParam).plus( JExpr.lit(1) ) ) );
+        JForLoop chunksLoop = body._for();
+        JVar fromVar = chunksLoop.init(codeModel.INT, "from", JExpr.lit(0) );
+        chunksLoop.test( fromVar.lt( valuesVar.ref("length") ) );
+        chunksLoop.update( fromVar.assignPlus(chunkSizeParam) );
+        JVar chunkVar = chunksLoop.body().decl(chunkTaskType, "chunk", JExpr._new(chunkTaskType)
+                .arg( JExpr._new(chunkClazz).arg(valuesVar).arg(convertedVar).arg(fromVar)
+                        .arg( codeModel.ref(Math.class).staticInvoke("min").arg( fromVar.plus(chunkSizeParam) )
+                                .arg( valuesVar.ref("length") ) )
+                        .arg(chunkSizeParam) )
+                .arg( JExpr._null() ) );
+        chunksLoop.body().invoke( chunksVar, "add" ).arg(chunkVar);
+        chunksLoop.body().invoke( executorParam, "execute" ).arg(chunkVar);
+
+        JTryBlock waitBlock = body._try();
+        JForEach waitLoop = waitBlock.body().forEach(chunkTaskType, "chunk", chunksVar);
+        waitLoop.body().invoke( waitLoop.var(), "get" );
+
+        JCatchBlock interruptedBlock = waitBlock._catch( codeModel.ref(InterruptedException.class) );
+        JVar interruptedParam = interruptedBlock.param("e");
+        generateCancelChunks( interruptedBlock.body(), chunkTaskType, chunksVar );
+        interruptedBlock.body().add( codeModel.ref(Thread.class).staticInvoke("currentThread").invoke("interrupt") );
+        interruptedBlock.body()._throw( JExpr._new( codeModel.ref(IllegalStateException.class) )
+                .arg( interruptedParam.invoke("getMessage") ).arg(interruptedParam) );
+
+        JCatchBlock failedBlock = waitBlock._catch( codeModel.ref(ExecutionException.class) );
+        JVar failedParam = failedBlock.param("e");
+        generateCancelChunks( failedBlock.body(), chunkTaskType, chunksVar );
+        failedBlock.body()._throw( JExpr._new( codeModel.ref(IllegalStateException.class) )
+                .arg( failedParam.invoke("getCause").invoke("getMessage") ).arg( failedParam.invoke("getCause") ) );
+
+        body._return( JExpr.cast( codeModel.ref(List.class).narrow(returnType),
+                JExpr.invoke(collectMethod).arg(valuesVar).arg(convertedVar) ) );
+    }
+
+    /**
+     * Records are pulled from the source only when the next DTO is requested, so neither the records nor
+     * the DTOs are kept beyond the current batch. Conversion context (when enabled) lives for a batch
+     * (for a record without the batches): entities released by the listener are not referenced by the
+     * service anymore.
+     */
+    protected void generateStreamingConvertMethods( JDefinedClass converterClazz ) throws JClassAlreadyExistsException {
+        JClass entitiesType = codeModel.ref(List.class).narrow(Object.class);
+
+        JDefinedClass listenerClazz = converterClazz._class(JMod.PUBLIC, BATCH_LISTENER_CLASS_NAME, ClassType.INTERFACE);
+        listenerClazz.method(JMod.NONE, codeModel.VOID, "onBatchConverted").param(entitiesType, "entities");
+
+        JDefinedClass iteratorClazz = converterClazz._class(JMod.PRIVATE | JMod.FINAL, CONVERTING_ITERATOR_CLASS_NAME);
+        iteratorClazz._implements(Iterator.class);
+        JFieldVar recordsField = iteratorClazz.field(JMod.PRIVATE | JMod.FINAL,
+                codeModel.ref(Iterator.class).narrow( codeModel.ref(Object.class).wildcard() ), "records");
+        JFieldVar batchSizeField = iteratorClazz.field(JMod.PRIVATE | JMod.FINAL, codeModel.INT, "batchSize");
+        JFieldVar listenerField = iteratorClazz.field(JMod.PRIVATE | JMod.FINAL, listenerClazz, "listener");
+        JFieldVar batchField = iteratorClazz.field(JMod.PRIVATE | JMod.FINAL, entitiesType, "batch");
+        JFieldVar contextField = conversionContextEnabled
+                ? iteratorClazz.field(JMod.PRIVATE, conversionContextClazz, "context", JExpr._new(conversionContextClazz) )
+                : null;
+        JFieldVar pendingField = iteratorClazz.field(JMod.PRIVATE, Object.class, "pending");
+        JFieldVar countField = iteratorClazz.field(JMod.PRIVATE, codeModel.INT, "count");
+
+        JMethod constructor = iteratorClazz.constructor(JMod.NONE);
+        for ( JFieldVar field : new JFieldVar[] { recordsField, batchSizeField, listenerField } ) {
+            constructor.body().assign( JExpr._this().ref(field), constructor.param( field.type(), field.name() ) );
+        }
+        constructor.body().assign( JExpr._this().ref(batchField), JExpr._new( codeModel.ref(ArrayList.class)
+                .narrow(Object.class) ).arg( codeModel.ref(Math.class).staticInvoke("max").arg(batchSizeField)
+                        .arg( JExpr.lit(0) ) ) );
+
+        JMethod releaseMethod = iteratorClazz.method(JMod.PRIVATE, codeModel.VOID, "release");
+        releaseMethod.body().assign( countField, JExpr.lit(0) );
+        if ( contextField != null ) {
+            releaseMethod.body().assign( contextField, JExpr._new(conversionContextClazz) );
+        }
+        JConditional releaseCondition = releaseMethod.body()._if( listenerField.ne( JExpr._null() )
+                .cand( JOp.not( batchField.invoke("isEmpty") ) ) );
+        JTryBlock releaseBlock = releaseCondition._then()._try();
+        releaseBlock.body().invoke( listenerField, "onBatchConverted" ).arg( codeModel.ref(Collections.class)
+                .staticInvoke("unmodifiableList").arg(batchField) );
+        releaseBlock._finally().invoke( batchField, "clear" );
+
+        JMethod hasNextMethod = iteratorClazz.method(JMod.PUBLIC, codeModel.BOOLEAN, "hasNext");
+        hasNextMethod.annotate(Override.class);
+        // null records are skipped the same way the list conversion does
+        hasNextMethod.body()._while( pendingField.eq( JExpr._null() ).cand( recordsField.invoke("hasNext") ) )
+                .body().assign( pendingField, recordsField.invoke("next") );
+        hasNextMethod.body()._if( pendingField.eq( JExpr._null() ) )._then().invoke(releaseMethod);
+        hasNextMethod.body()._return( pendingField.ne( JExpr._null() ) );
+
+        JMethod nextMethod = iteratorClazz.method(JMod.PUBLIC, Object.class, "next");
+        nextMethod.annotate(Override.class);
+        nextMethod.body()._if( JOp.not( JExpr.invoke(hasNextMethod) ) )
+                ._then()._throw( JExpr._new( codeModel.ref(NoSuchElementException.class) ) );
+        JVar recordVar = nextMethod.body().decl( codeModel.ref(Object.class), "record", pendingField );
+        nextMethod.body().assign( pendingField, JExpr._null() );
+        JVar resultVar = nextMethod.body().decl( codeModel.ref(Object.class), "result", withContext(
+                JExpr.invoke(CONVERTER_METHOD_NAME).arg(recordVar), contextField == null ? null : contextField ) );
+        nextMethod.body()._if( listenerField.ne( JExpr._null() ) )._then().invoke( batchField, "add" ).arg(recordVar);
+        nextMethod.body().assignPlus( countField, JExpr.lit(1) );
+        nextMethod.body()._if( countField.gte(batchSizeField) )._then().invoke(releaseMethod);
+        nextMethod.body()._return(resultVar);
+
+        JMethod removeMethod = iteratorClazz.method(JMod.PUBLIC, codeModel.VOID, "remove");
+        removeMethod.annotate(Override.class);
+        removeMethod.body()._throw( JExpr._new( codeModel.ref(UnsupportedOperationException.class) ) );
+
+        // iterator
+        JMethod method = converterClazz.method(JMod.PUBLIC, codeModel.ref(Iterator.class).narrow( codeModel.ref("T") ),
+                ITERATOR_CONVERTER_METHOD_NAME);
+        method.generify("T");
+        JVar recordsParam = method.param( codeModel.ref(Iterator.class).narrow( method.generify("V") ), "records" );
+        method.body()._return( JExpr.invoke(method.name()).arg(recordsParam).arg( JExpr.lit(0) ).arg( JExpr._null() ) );
+
+        method = converterClazz.method(JMod.PUBLIC, codeModel.ref(Iterator.class).narrow( codeModel.ref("T") ),
+                ITERATOR_CONVERTER_METHOD_NAME);
+        JTypeVar returnType = method.generify("T");
+        recordsParam = method.param( codeModel.ref(Iterator.class).narrow( method.generify("V") ), "records" );
+        JVar batchSizeParam = method.param(codeModel.INT, "batchSize");
+        JVar listenerParam = method.param(listenerClazz, "listener");
+        generateStreamingArgumentsCheck( method.body(), recordsParam, batchSizeParam, listenerParam );
+        method.body()._return( JExpr.cast( codeModel.ref(Iterator.class).narrow(returnType),
+                JExpr._new(iteratorClazz).arg(recordsParam).arg(batchSizeParam).arg(listenerParam) ) );
+
+        // stream, sequential: persistence context of the records is not thread safe
+        method = converterClazz.method(JMod.PUBLIC, codeModel.ref(Stream.class).narrow( codeModel.ref("T") ),
+                STREAM_CONVERTER_METHOD_NAME);
+        method.generify("T");
+        recordsParam = method.param( codeModel.ref(Stream.class).narrow( method.generify("V") ), "records" );
+        method.body()._return( JExpr.invoke(method.name()).arg(recordsParam).arg( JExpr.lit(0) ).arg( JExpr._null() ) );
+
+        method = converterClazz.method(JMod.PUBLIC, codeModel.ref(Stream.class).narrow( codeModel.ref("T") ),
+                STREAM_CONVERTER_METHOD_NAME);
+        returnType = method.generify("T");
+        recordsParam = method.param( JMod.FINAL, codeModel.ref(Stream.class).narrow( method.generify("V") ), "records" );
+        batchSizeParam = method.param(codeModel.INT, "batchSize");
+        listenerParam = method.param(listenerClazz, "listener");
+        generateStreamingArgumentsCheck( method.body(), recordsParam, batchSizeParam, listenerParam );
+        JVar iteratorVar = method.body().decl( codeModel.ref(Iterator.class).narrow(returnType), "iterator",
+                JExpr.invoke(ITERATOR_CONVERTER_METHOD_NAME).arg( recordsParam.invoke("iterator") )
+                        .arg(batchSizeParam).arg(listenerParam) );
+
+        JDefinedClass closeHandler = codeModel.anonymousClass(Runnable.class);
+        JMethod runMethod = closeHandler.method(JMod.PUBLIC, codeModel.VOID, "run");
+        runMethod.annotate(Override.class);
+        runMethod.body().invoke( recordsParam, "close" );
+
+        method.body()._return( codeModel.ref(StreamSupport.class).staticInvoke("stream")
+                .arg( codeModel.ref(Spliterators.class).staticInvoke("spliteratorUnknownSize").arg(iteratorVar)
+                        .arg( codeModel.ref(Spliterator.class).staticRef("ORDERED") ) )
+                .arg( JExpr.FALSE )
+                .invoke("onClose").arg( JExpr._new(closeHandler) ) );
+    }
+
+    private void generateStreamingArgumentsCheck( JBlock block, JVar recordsParam, JVar batchSizeParam,
+                                                  JVar listenerParam ) {
+        block._if( recordsParam.eq( JExpr._null() ) )
+                ._then()._throw( JExpr._new( codeModel.ref(IllegalStateException.class) ).arg("<null>") );
+        block._if( batchSizeParam.lt( JExpr.lit(0) )
+                .cor( listenerParam.ne( JExpr._null() ).cand( batchSizeParam.eq( JExpr.lit(0) ) ) ) )
+                ._then()._throw( JExpr._new( codeModel.ref(IllegalArgumentException.class) )
+                        .arg( JExpr.lit("batchSize must not be negative, and must be positive when the listener is given: ").plus(batchSizeParam) ) );
+    }
+
+    private void generateBulkArgumentsCheck( JBlock block, JVar recordsParam, JVar sizeParam ) {
+        block._if( recordsParam.eq( JExpr._null() ) )
+                ._then()._throw( JExpr._new( codeModel.ref(IllegalStateException.class) ).arg("<null>") );
+        block._if( sizeParam.lt( JExpr.lit(1) ) )
+                ._then()._throw( JExpr._new( codeModel.ref(IllegalArgumentException.class) )
+                        .arg( JExpr.lit(sizeParam.name() + " must be positive: ").plus(sizeParam) ) );
+    }
+
+    private void generateCancelChunks( JBlock block, JClass chunkTaskType, JVar chunksVar ) {
+        JForEach cancelLoop = block.forEach(chunkTaskType, "chunk", chunksVar);
+        cancelLoop.body().invoke( cancelLoop.var(), "cancel" ).arg( JExpr.TRUE );
+    }
+
     protected void generateTemplateConvertMethod( JDefinedClass converterClazz ) {
+        if ( conversionContextEnabled ) {
+            JMethod method = converterClazz.method(JMod.PUBLIC, codeModel.ref("T"), CONVERTER_METHOD_NAME);
+            method.generify("T");
+            JVar methodParam = method.param( codeModel.ref(Object.class), "value" );
+            method.body()._return( JExpr.invoke(CONVERTER_METHOD_NAME).arg(methodParam)
+                    .arg( JExpr._new(conversionContextClazz) ) );
+        }
+
         JMethod method = converterClazz.method(JMod.PUBLIC, codeModel.ref("T"), "convertToDto");
         JTypeVar typeVar = method.generify("T");
 
         JVar methodParam = method.param( codeModel.ref(Object.class), "value" );
-
-        JVar startedVar = null;
-        if ( profilingEnabled ) {
-            startedVar = method.body().decl(codeModel.ref("long"), "started", codeModel.ref("java.lang.System")
-                    .staticInvoke("currentTimeMillis"));
-            method.body().add(
-                    codeModel.ref("java.lang.System").staticRef("out").invoke("println").arg(
-                            methodParam.invoke("getClass").invoke("toString").invoke("concat").arg(" Method Invoked")
-                    )
-            );
-        }
+        JVar contextParam = conversionContextEnabled ? method.param( conversionContextClazz, "context" ) : null;
 
         method.body()._if( methodParam.eq( JExpr._null() ) )
             ._then()
@@ -478,38 +1278,39 @@ public class GenJpaToDtoConverterMojo extends AbstractGeneratorMojo {
             ._then()
                 ._return(
                     JExpr.cast( typeVar,
-                        JExpr._this().invoke("convertToDtoList")
-                            .arg(JExpr.cast(collectionType, methodParam)) )
+                        withContext( JExpr._this().invoke("convertToDtoList")
+                            .arg(JExpr.cast(collectionType, methodParam)), contextParam ) )
                 );
 
+        JVar converterTypeVar = method.body().decl(
+                codeModel.ref(Class.class).narrow( codeModel.ref(Object.class).wildcard() ),
+                "converterType",
+                converterTypesField.invoke("get").arg( methodParam.invoke("getClass") ) );
         JVar methodDeclaration = method.body().decl(
                 codeModel.ref(CONVERTER_INVOKE_TYPE_CLASS_NAME),
                 "converter",
-                cacheField.invoke("get").arg( methodParam.invoke("getClass") ) );
+                JOp.cond( converterTypeVar.eq( JExpr._null() ), JExpr._null(),
+                        cacheField.invoke("get").arg(converterTypeVar) ) );
         method.body()._if(
             methodDeclaration.eq( JExpr._null() ) )
                 ._then()._throw(
                     JExpr._new( codeModel.ref(IllegalStateException.class) )
-                        .arg( String.format(CONVERSATION_METHOD_NOT_FOUND_EXCEPTION,
-                                methodParam.invoke("getClass").invoke("getCanonicalName") ) )
+                        .arg( JExpr.lit(CONVERSATION_METHOD_NOT_FOUND_EXCEPTION)
+                                .plus( methodParam.invoke("getClass").invoke("getCanonicalName") ) )
                 );
 
         JTryBlock convertBlock = method.body()._try();
-        JVar resultVar = convertBlock.body().decl(typeVar, "result",
-            JExpr.cast(typeVar, methodDeclaration.invoke("convert")
-                    .arg(methodParam))
-        );
-
-        if ( profilingEnabled ) {
-            convertBlock.body().add(
-                    codeModel.ref("java.lang.System").staticRef("out").invoke("println").arg(
-                            codeModel.ref("java.lang.String").staticInvoke("valueOf").arg(
-                                    codeModel.ref("java.lang.System").staticInvoke("currentTimeMillis").minus(startedVar)
-                            ).invoke("concat").arg(" ms")
-                    )
-            );
+        JExpression convertExpr = methodDeclaration.invoke("convert").arg(methodParam);
+        if ( contextParam != null ) {
+            // converters registered at runtime may know nothing about the context
+            JClass contextInvokeType = codeModel.ref(CONTEXT_CONVERTER_INVOKE_TYPE_CLASS_NAME);
+            JExpression contextConverter = JExpr.cast( contextInvokeType, methodDeclaration );
+            convertExpr = JOp.cond( methodDeclaration._instanceof(contextInvokeType),
+                    contextConverter.invoke("convert").arg(methodParam).arg(contextParam), convertExpr );
         }
 
+        JVar resultVar = convertBlock.body().decl(typeVar, "result", JExpr.cast(typeVar, convertExpr) );
+
         convertBlock.body()._return( resultVar );
 
         JCatchBlock covertBlockCatch = convertBlock._catch( codeModel.ref(Exception.class) );
@@ -530,6 +1331,30 @@ public class GenJpaToDtoConverterMojo extends AbstractGeneratorMojo {
                             .arg(JExpr._new(pair.getValue()))
             );
         }
+
+        block.assign( JExpr._this().ref(converterTypesField),
+                JExpr.invoke(CREATE_CONVERTER_TYPES_METHOD_NAME).arg( cacheField.invoke("keySet") ) );
+    }
+
+    /**
+     * DTOs generated within the same code model (by the aggregate goal) are inspected directly,
+     * other ones are looked up in the classes model
+     */
+    protected boolean isDtoMethodExists( String methodName, String dtoClassName ) {
+        JDefinedClass dtoClass = codeModel._getClass(dtoClassName);
+        if ( dtoClass == null ) {
+            return isMethodExists( methodName, dtoClassName );
+        }
+
+        for ( JMethod method : dtoClass.methods() ) {
+            if ( method.name().equals(methodName) && ( method.mods().getValue() & JMod.PUBLIC ) != 0 ) {
+                return true;
+            }
+        }
+
+        JClass superClass = dtoClass._extends();
+        return superClass != null && !superClass.fullName().equals( Object.class.getName() )
+                && isDtoMethodExists( methodName, superClass.erasure().fullName() );
     }
 
     protected boolean isConvertibleField( JavaField field ) {
@@ -538,19 +1363,9 @@ public class GenJpaToDtoConverterMojo extends AbstractGeneratorMojo {
             return false;
         }
 
-        boolean isIncluded = false;
-        boolean isExcluded = false;
-        for ( Annotation annotation : field.getAnnotations() ) {
-            if ( isA(annotation.getType().getJavaClass(), DTO_INCLUDE_ANNOTATION_CLASS_NAME) ) {
-                isIncluded = true;
-                break;
-            } else if ( isA( annotation.getType().getJavaClass(), DTO_EXCLUDE_ANNOTATION_CLASS_NAME ) ) {
-                isExcluded = true;
-                break;
-            }
-        }
-
-        return isComplex && isIncluded && !isExcluded;
+        // exclusion wins over inclusion, the same as for the DTO fields
+        return hasAnnotation( field, DTO_INCLUDE_ANNOTATION_CLASS_NAME )
+                && !hasAnnotation( field, DTO_EXCLUDE_ANNOTATION_CLASS_NAME );
     }
 
     @Override
@@ -560,7 +1375,7 @@ public class GenJpaToDtoConverterMojo extends AbstractGeneratorMojo {
 
     protected Set<CollectedJavaField> collectConvertibleFields(JavaClass javaClass) {
         Set<JavaField> fields = super.collectAllFields(javaClass);
-        Set<CollectedJavaField> result = new HashSet<CollectedJavaField>();
+        Set<CollectedJavaField> result = new LinkedHashSet<CollectedJavaField>();
         for ( JavaField field : fields ) {
             if ( field.isStatic() && skipStaticFields ) {
                 continue;
@@ -580,21 +1395,15 @@ public class GenJpaToDtoConverterMojo extends AbstractGeneratorMojo {
     }
 
     protected Collection<CollectedJavaField> collectSyntheticFields( JavaClass javaClass ) {
-        Collection<CollectedJavaField> result = new HashSet<CollectedJavaField>();
-
-        JavaClass parent = javaClass;
-        while ( parent != null ) {
-            for ( Annotation annotation : parent.getAnnotations() ) {
-                if ( !isA(annotation.getType().getJavaClass(),
-                        DTO_EXTENDS_ANNOTATION_CLASS_NAME) ) {
-                    continue;
-                }
+        Collection<CollectedJavaField> result = new LinkedHashSet<CollectedJavaField>();
 
+        for ( JavaClass parent : getInheritanceIndex().getHierarchy(javaClass) ) {
+            for ( Annotation annotation : getMemberIndex(parent).getAnnotations( DTO_EXTENDS_ANNOTATION_CLASS_NAME ) ) {
                 Object value = annotation.getNamedParameter("value");
                 if ( value instanceof List ) {
                     for ( Annotation paramAnnotation : (List<Annotation>) value ) {
                         JavaField field = new JavaField(
-                            classMetaBuilder.getClassByName(
+                            resolveClass(
                                 normalizeAnnotationValue( (String) paramAnnotation.getNamedParameter("type") )
                                     .replace(".class", "")
                             ).asType(),
@@ -612,7 +1421,7 @@ public class GenJpaToDtoConverterMojo extends AbstractGeneratorMojo {
                     }
                 } else {
                     JavaField field = new JavaField(
-                        classMetaBuilder.getClassByName(
+                        resolveClass(
                                 normalizeAnnotationValue(
                                         (String) ( (Annotation) value).getNamedParameter("type")
                                 )
@@ -631,8 +1440,6 @@ public class GenJpaToDtoConverterMojo extends AbstractGeneratorMojo {
                     );
                 }
             }
-
-            parent = parent.getSuperJavaClass();
         }
 
         return result;
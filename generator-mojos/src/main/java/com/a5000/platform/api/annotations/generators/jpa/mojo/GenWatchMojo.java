@@ -0,0 +1,195 @@
+package com.a5000.platform.api.annotations.generators.jpa.mojo;
+
+import com.a5000.platform.api.annotations.generators.jpa.CachingJavaDocBuilder;
+import com.thoughtworks.qdox.JavaDocBuilder;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Development mode of the 'gen-all' goal: generates classes once and then keeps watching the source root,
+ * regenerating classes of the changed entities (and of the entities depending on them) as soon as their
+ * sources are saved.
+ *
+ * Classes model, entities index and project classloader stay in memory between the runs, only the changed
+ * sources are parsed again. Runs till the build is interrupted.
+ */
+@Mojo( name = "watch", threadSafe = true )
+public class GenWatchMojo extends GenAllMojo {
+
+    private static final String SOURCE_EXTENSION = ".java";
+
+    /**
+     * Time (in milliseconds) to wait for the next changes once a change has been detected, so a group of
+     * files saved together is regenerated at once
+     */
+    @Parameter( property = "watchQuietPeriod", defaultValue = "100" )
+    protected Integer watchQuietPeriod = 100;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if ( lazySourceLoading ) {
+            throw new MojoExecutionException( "The 'watch' goal keeps complete classes model in memory, "
+                    + "it could not be used with lazySourceLoading" );
+        }
+
+        // generation state tells which entities have to be regenerated
+        if ( incremental == null ) {
+            incremental = true;
+        } else if ( !incremental ) {
+            getLog().warn("Incremental generation is turned off, every change regenerates classes of all entities");
+        }
+
+        WatchService watchService;
+        Map<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+        try {
+            // sources are watched before the first run, so changes made meanwhile are not missed
+            watchService = FileSystems.getDefault().newWatchService();
+            registerTree( watchService, new File(sourceRoot).getAbsoluteFile().toPath(), directories,
+                    new HashSet<File>() );
+        } catch ( IOException e ) {
+            throw new MojoExecutionException( "Failed to start watching sources", e );
+        }
+
+        try {
+            super.execute();
+            getLog().info("Watching " + sourceRoot + " for changes, interrupt the build to stop...");
+
+            while ( true ) {
+                Set<File> changed = new LinkedHashSet<File>();
+                Set<File> removed = new LinkedHashSet<File>();
+
+                WatchKey key = watchService.take();
+                do {
+                    collectChanges( watchService, key, directories, changed, removed );
+                    key = watchService.poll( watchQuietPeriod, TimeUnit.MILLISECONDS );
+                } while ( key != null );
+
+                // files written by the previous run are not the changes to react on
+                for ( File file : getWrittenFiles() ) {
+                    changed.remove( file.getAbsoluteFile() );
+                }
+
+                if ( changed.isEmpty() && removed.isEmpty() ) {
+                    continue;
+                }
+
+                regenerate( changed, removed );
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            getLog().info("Watching has been stopped");
+        } catch ( IOException e ) {
+            throw new MojoExecutionException( "Failed to watch sources", e );
+        } finally {
+            try {
+                watchService.close();
+            } catch ( IOException e ) {
+                getLog().warn( "Failed to stop watching sources", e );
+            }
+        }
+    }
+
+    /**
+     * Failure of a run (e.g. half-edited source) is reported and the next changes are awaited
+     */
+    private void regenerate( Set<File> changed, Set<File> removed ) {
+        long started = System.nanoTime();
+        try {
+            if ( !removed.isEmpty() ) {
+                // classes of the removed sources stay resolvable by the model, so it is built again
+                // (unchanged sources are taken from the parsed sources cache)
+                reloadClassMetaBuilder();
+            } else {
+                JavaDocBuilder builder = getClassMetaBuilder();
+                if ( !( builder instanceof CachingJavaDocBuilder ) ) {
+                    throw new MojoExecutionException("Classes model could not be refreshed");
+                }
+
+                for ( File file : changed ) {
+                    if ( file.isFile() ) {
+                        builder.addSource(file);
+                    }
+                }
+            }
+
+            resetExecutionState();
+            super.execute();
+
+            getLog().info( ( changed.size() + removed.size() ) + " changed sources processed in "
+                    + TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - started ) + " ms" );
+        } catch ( IOException e ) {
+            getLog().error( "Failed to read changed sources", e );
+        } catch ( MojoExecutionException e ) {
+            getLog().error( e.getMessage(), e );
+        } catch ( MojoFailureException e ) {
+            getLog().error( e.getMessage(), e );
+        } catch ( RuntimeException e ) {
+            getLog().error( "Failed to regenerate classes: " + e.getMessage(), e );
+        }
+    }
+
+    private void collectChanges( WatchService watchService, WatchKey key, Map<WatchKey, Path> directories,
+                                 Set<File> changed, Set<File> removed ) throws IOException {
+        Path directory = directories.get(key);
+        for ( WatchEvent<?> event : key.pollEvents() ) {
+            if ( directory == null ) {
+                continue;
+            }
+
+            if ( event.kind() == StandardWatchEventKinds.OVERFLOW ) {
+                // some events are lost, everything is treated as changed
+                registerTree( watchService, directory, directories, changed );
+                continue;
+            }
+
+            File file = directory.resolve( (Path) event.context() ).toFile();
+            if ( event.kind() == StandardWatchEventKinds.ENTRY_CREATE && file.isDirectory() ) {
+                registerTree( watchService, file.toPath(), directories, changed );
+            } else if ( file.getName().endsWith(SOURCE_EXTENSION) ) {
+                if ( event.kind() == StandardWatchEventKinds.ENTRY_DELETE ) {
+                    changed.remove(file);
+                    removed.add(file);
+                } else {
+                    removed.remove(file);
+                    changed.add(file);
+                }
+            }
+        }
+
+        if ( !key.reset() ) {
+            directories.remove(key);
+        }
+    }
+
+    /**
+     * Registers the directory and its subdirectories, sources found there are added to the given ones
+     */
+    private void registerTree( WatchService watchService, Path root, Map<WatchKey, Path> directories,
+                               Set<File> sources ) throws IOException {
+        File[] files = root.toFile().listFiles();
+        if ( files == null ) {
+            return;
+        }
+
+        WatchKey key = root.register( watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE );
+        directories.put( key, root );
+
+        for ( File file : files ) {
+            if ( file.isDirectory() ) {
+                registerTree( watchService, file.toPath(), directories, sources );
+            } else if ( file.getName().endsWith(SOURCE_EXTENSION) ) {
+                sources.add(file);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,390 @@
+package com.a5000.platform.api.annotations.generators.jpa.processor;
+
+import com.a5000.platform.api.annotations.generators.jpa.CachingJavaDocBuilder;
+import com.sun.source.tree.BlockTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.StatementTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.tree.VariableTree;
+import com.sun.source.util.TreePath;
+import com.sun.source.util.Trees;
+import com.thoughtworks.qdox.model.Annotation;
+import com.thoughtworks.qdox.model.annotation.AnnotationConstant;
+import com.thoughtworks.qdox.model.annotation.AnnotationFieldRef;
+import com.thoughtworks.qdox.model.annotation.AnnotationTypeRef;
+import com.thoughtworks.qdox.model.annotation.AnnotationValueList;
+import com.thoughtworks.qdox.parser.Builder;
+import com.thoughtworks.qdox.parser.structs.*;
+
+import javax.lang.model.element.*;
+import javax.lang.model.type.*;
+import javax.lang.model.util.Elements;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.*;
+
+/**
+ * Emits declarations of a top level type of the javac element model as the QDox parser events, so the
+ * classes model is built out of the already attributed types instead of parsing their sources.
+ *
+ * Types are referred by their fully qualified names (there are no imports to resolve), enum constants
+ * of annotations are referred as they are usually written in sources ('AggregationType.DTO').
+ * Method bodies and field initializers are taken from the compiler trees, so they are available
+ * for the types compiled from sources only.
+ */
+public class ElementSourceEmitter implements CachingJavaDocBuilder.SourceEmitter {
+
+    private static final String OBJECT_TYPE_NAME = "java.lang.Object";
+
+    private static final int UNKNOWN_LINE = -1;
+
+    private final Elements elements;
+
+    private final Trees trees;
+
+    private final TypeElement type;
+
+    /**
+     * @param trees compiler trees, could be null when the compiler does not provide them
+     * @param type top level type
+     */
+    public ElementSourceEmitter( Elements elements, Trees trees, TypeElement type ) {
+        this.elements = elements;
+        this.trees = trees;
+        this.type = type;
+    }
+
+    /**
+     * @return location of the type source, or of the compiled class when the compiler does not tell it
+     */
+    public URL getURL() throws MalformedURLException {
+        TreePath path = trees == null ? null : trees.getPath(type);
+        if ( path != null ) {
+            try {
+                return path.getCompilationUnit().getSourceFile().toUri().toURL();
+            } catch ( IllegalArgumentException e ) {
+                // in-memory source of an IDE
+            } catch ( MalformedURLException e ) {
+                // in-memory source of an IDE
+            }
+        }
+
+        return new URL( "file", null, elements.getBinaryName(type).toString().replace( '.', '/' ) + ".class" );
+    }
+
+    /**
+     * @return top level types the classes model needs to resolve hierarchy and fields of the type
+     */
+    public Set<TypeElement> getReferencedTypes() {
+        Set<TypeElement> result = new LinkedHashSet<TypeElement>();
+        collectReferencedTypes( type, result );
+        result.remove(type);
+        return result;
+    }
+
+    @Override
+    public void emit( Builder builder ) {
+        PackageElement packageElement = elements.getPackageOf(type);
+        if ( !packageElement.isUnnamed() ) {
+            builder.addPackage( new PackageDef( packageElement.getQualifiedName().toString(), UNKNOWN_LINE ) );
+        }
+
+        emitClass( builder, type );
+    }
+
+    private void emitClass( Builder builder, TypeElement element ) {
+        emitAnnotations( builder, element );
+
+        ClassDef def = new ClassDef();
+        def.name = element.getSimpleName().toString();
+        def.lineNumber = UNKNOWN_LINE;
+        def.modifiers = createModifiers(element);
+        def.typeParams = createTypeVariables( element.getTypeParameters() );
+        switch ( element.getKind() ) {
+            case INTERFACE:
+                def.type = ClassDef.INTERFACE;
+                def.extendz.addAll( createTypes( element.getInterfaces() ) );
+                break;
+            case ANNOTATION_TYPE:
+                def.type = ClassDef.ANNOTATION_TYPE;
+                break;
+            case ENUM:
+                def.type = ClassDef.ENUM;
+                def.implementz.addAll( createTypes( element.getInterfaces() ) );
+                break;
+            default:
+                def.type = ClassDef.CLASS;
+                if ( isDeclaredSuperclass( element.getSuperclass() ) ) {
+                    def.extendz.add( createType( element.getSuperclass() ) );
+                }
+
+                def.implementz.addAll( createTypes( element.getInterfaces() ) );
+        }
+
+        builder.beginClass(def);
+        for ( Element member : element.getEnclosedElements() ) {
+            switch ( member.getKind() ) {
+                case FIELD:
+                case ENUM_CONSTANT:
+                    emitField( builder, (VariableElement) member );
+                    break;
+                case METHOD:
+                case CONSTRUCTOR:
+                    emitMethod( builder, (ExecutableElement) member );
+                    break;
+                case CLASS:
+                case INTERFACE:
+                case ENUM:
+                case ANNOTATION_TYPE:
+                    emitClass( builder, (TypeElement) member );
+                    break;
+                default:
+            }
+        }
+
+        builder.endClass();
+    }
+
+    private void emitField( Builder builder, VariableElement field ) {
+        emitAnnotations( builder, field );
+
+        FieldDef def = new FieldDef();
+        def.name = field.getSimpleName().toString();
+        def.lineNumber = UNKNOWN_LINE;
+        def.type = createType( field.asType() );
+        def.modifiers = createModifiers(field);
+        if ( field.getKind() == ElementKind.FIELD ) {
+            def.body = getInitializer(field);
+        }
+
+        builder.addField(def);
+    }
+
+    private void emitMethod( Builder builder, ExecutableElement method ) {
+        emitAnnotations( builder, method );
+        builder.beginMethod();
+
+        List<? extends VariableElement> parameters = method.getParameters();
+        for ( int i = 0; i < parameters.size(); i++ ) {
+            VariableElement parameter = parameters.get(i);
+            emitAnnotations( builder, parameter );
+
+            FieldDef def = new FieldDef();
+            def.name = parameter.getSimpleName().toString();
+            def.lineNumber = UNKNOWN_LINE;
+            def.modifiers = createModifiers(parameter);
+            def.isVarArgs = method.isVarArgs() && i == parameters.size() - 1;
+            def.type = def.isVarArgs
+                    ? createType( ( (ArrayType) parameter.asType() ).getComponentType() )
+                    : createType( parameter.asType() );
+            builder.addParameter(def);
+        }
+
+        MethodDef def = new MethodDef();
+        def.constructor = method.getKind() == ElementKind.CONSTRUCTOR;
+        def.name = def.constructor
+                ? method.getEnclosingElement().getSimpleName().toString()
+                : method.getSimpleName().toString();
+        def.lineNumber = UNKNOWN_LINE;
+        def.returnType = def.constructor ? null : createType( method.getReturnType() );
+        def.modifiers = createModifiers(method);
+        def.typeParams = createTypeVariables( method.getTypeParameters() );
+        for ( TypeMirror exception : method.getThrownTypes() ) {
+            def.exceptions.add( createType(exception).name );
+        }
+
+        def.body = getBody(method);
+        builder.endMethod(def);
+    }
+
+    private void emitAnnotations( Builder builder, Element element ) {
+        for ( AnnotationMirror mirror : element.getAnnotationMirrors() ) {
+            builder.addAnnotation( createAnnotation( builder, mirror ) );
+        }
+    }
+
+    private Annotation createAnnotation( Builder builder, AnnotationMirror mirror ) {
+        Annotation result = new Annotation( builder.createType( createType( mirror.getAnnotationType() ) ),
+                UNKNOWN_LINE );
+        for ( Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                : mirror.getElementValues().entrySet() ) {
+            result.setProperty( entry.getKey().getSimpleName().toString(),
+                    createValue( builder, entry.getValue() ) );
+        }
+
+        return result;
+    }
+
+    private com.thoughtworks.qdox.model.annotation.AnnotationValue createValue( Builder builder,
+                                                                                AnnotationValue value ) {
+        Object content = value.getValue();
+        if ( content instanceof AnnotationMirror ) {
+            return createAnnotation( builder, (AnnotationMirror) content );
+        } else if ( content instanceof List ) {
+            List<com.thoughtworks.qdox.model.annotation.AnnotationValue> values
+                    = new ArrayList<com.thoughtworks.qdox.model.annotation.AnnotationValue>();
+            for ( Object item : (List) content ) {
+                values.add( createValue( builder, (AnnotationValue) item ) );
+            }
+
+            return new AnnotationValueList(values);
+        } else if ( content instanceof TypeMirror ) {
+            return new AnnotationTypeRef( builder.createType( createType( (TypeMirror) content ) ) );
+        } else if ( content instanceof VariableElement ) {
+            VariableElement constant = (VariableElement) content;
+            return new AnnotationFieldRef( constant.getEnclosingElement().getSimpleName()
+                    + "." + constant.getSimpleName() );
+        }
+
+        // javac renders constants the way they are written in sources (quoted strings, suffixed longs)
+        return new AnnotationConstant( content, value.toString() );
+    }
+
+    private TypeDef createType( TypeMirror type ) {
+        switch ( type.getKind() ) {
+            case ARRAY:
+                TypeDef component = createType( ( (ArrayType) type ).getComponentType() );
+                component.dimensions++;
+                return component;
+            case DECLARED:
+                DeclaredType declaredType = (DeclaredType) type;
+                TypeDef result = new TypeDef(
+                        elements.getBinaryName( (TypeElement) declaredType.asElement() ).toString(), 0 );
+                if ( !declaredType.getTypeArguments().isEmpty() ) {
+                    result.actualArgumentTypes = createTypes( declaredType.getTypeArguments() );
+                }
+
+                return result;
+            case WILDCARD:
+                WildcardType wildcardType = (WildcardType) type;
+                if ( wildcardType.getExtendsBound() != null ) {
+                    return new WildcardTypeDef( createType( wildcardType.getExtendsBound() ), "extends" );
+                } else if ( wildcardType.getSuperBound() != null ) {
+                    return new WildcardTypeDef( createType( wildcardType.getSuperBound() ), "super" );
+                }
+
+                return new WildcardTypeDef();
+            case TYPEVAR:
+                return new TypeDef( ( (TypeVariable) type ).asElement().getSimpleName().toString(), 0 );
+            case ERROR:
+                // type which is not generated yet, its name is all we know
+                return new TypeDef( type.toString(), 0 );
+            default:
+                return type.getKind().isPrimitive() || type.getKind() == TypeKind.VOID
+                        ? new TypeDef( type.toString(), 0 )
+                        : new TypeDef( OBJECT_TYPE_NAME, 0 );
+        }
+    }
+
+    private List<TypeDef> createTypes( List<? extends TypeMirror> types ) {
+        List<TypeDef> result = new ArrayList<TypeDef>();
+        for ( TypeMirror type : types ) {
+            result.add( createType(type) );
+        }
+
+        return result;
+    }
+
+    private List<TypeVariableDef> createTypeVariables( List<? extends TypeParameterElement> parameters ) {
+        List<TypeVariableDef> result = new ArrayList<TypeVariableDef>();
+        for ( TypeParameterElement parameter : parameters ) {
+            List<TypeDef> bounds = new ArrayList<TypeDef>();
+            for ( TypeMirror bound : parameter.getBounds() ) {
+                if ( isDeclaredSuperclass(bound) ) {
+                    bounds.add( createType(bound) );
+                }
+            }
+
+            result.add( new TypeVariableDef( parameter.getSimpleName().toString(), bounds.isEmpty() ? null : bounds ) );
+        }
+
+        return result;
+    }
+
+    private static Set<String> createModifiers( Element element ) {
+        Set<String> result = new HashSet<String>();
+        for ( Modifier modifier : element.getModifiers() ) {
+            result.add( modifier.toString() );
+        }
+
+        return result;
+    }
+
+    private String getInitializer( VariableElement field ) {
+        Tree tree = trees == null ? null : trees.getTree(field);
+        if ( tree instanceof VariableTree && ( (VariableTree) tree ).getInitializer() != null ) {
+            return ( (VariableTree) tree ).getInitializer().toString();
+        }
+
+        Object constant = field.getConstantValue();
+        return constant == null ? null : elements.getConstantExpression(constant);
+    }
+
+    /**
+     * @return statements of the method body, without braces (as QDox provides them)
+     */
+    private String getBody( ExecutableElement method ) {
+        MethodTree tree = trees == null ? null : trees.getTree(method);
+        BlockTree body = tree == null ? null : tree.getBody();
+        if ( body == null ) {
+            return null;
+        }
+
+        StringBuilder result = new StringBuilder();
+        for ( StatementTree statement : body.getStatements() ) {
+            result.append(statement).append('\n');
+        }
+
+        return result.toString();
+    }
+
+    private void collectReferencedTypes( TypeElement element, Set<TypeElement> result ) {
+        collectReferencedTypes( element.getSuperclass(), result );
+        for ( TypeMirror interfaceType : element.getInterfaces() ) {
+            collectReferencedTypes( interfaceType, result );
+        }
+
+        for ( Element member : element.getEnclosedElements() ) {
+            if ( member.getKind() == ElementKind.FIELD ) {
+                collectReferencedTypes( member.asType(), result );
+            } else if ( member instanceof TypeElement ) {
+                collectReferencedTypes( (TypeElement) member, result );
+            }
+        }
+    }
+
+    private void collectReferencedTypes( TypeMirror type, Set<TypeElement> result ) {
+        if ( type.getKind() == TypeKind.ARRAY ) {
+            collectReferencedTypes( ( (ArrayType) type ).getComponentType(), result );
+        } else if ( type.getKind() == TypeKind.DECLARED ) {
+            TypeElement element = getTopLevelType( ( (DeclaredType) type ).asElement() );
+            if ( element != null && !element.getQualifiedName().toString().startsWith("java.") ) {
+                result.add(element);
+            }
+
+            for ( TypeMirror argument : ( (DeclaredType) type ).getTypeArguments() ) {
+                collectReferencedTypes( argument, result );
+            }
+        }
+    }
+
+    private static boolean isDeclaredSuperclass( TypeMirror type ) {
+        return type.getKind() == TypeKind.DECLARED
+                && !( (TypeElement) ( (DeclaredType) type ).asElement() ).getQualifiedName()
+                        .contentEquals(OBJECT_TYPE_NAME);
+    }
+
+    /**
+     * @return top level type which encloses the element, null for packages
+     */
+    public static TypeElement getTopLevelType( Element element ) {
+        Element current = element;
+        while ( current.getEnclosingElement() != null
+                && current.getEnclosingElement().getKind() != ElementKind.PACKAGE ) {
+            current = current.getEnclosingElement();
+        }
+
+        return current instanceof TypeElement ? (TypeElement) current : null;
+    }
+
+}
@@ -0,0 +1,427 @@
+package com.a5000.platform.api.annotations.generators.jpa.processor;
+
+import com.a5000.platform.api.annotations.generators.jpa.CachingJavaDocBuilder;
+import com.a5000.platform.api.annotations.generators.jpa.mojo.GenAllMojo;
+import com.sun.source.util.Trees;
+import com.thoughtworks.qdox.model.JavaClass;
+import com.thoughtworks.qdox.model.JavaSource;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.codehaus.plexus.util.SelectorUtils;
+
+import javax.annotation.processing.*;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.MalformedURLException;
+import java.nio.file.NoSuchFileException;
+import java.util.*;
+
+/**
+ * Runs the 'gen-all' generator within the compiler: entities model is taken from the attributed javac
+ * elements instead of parsing sources, DAOs, DTOs and conversion services are written through the
+ * {@link Filer} and compiled in the next round together with the entities.
+ *
+ * Generator parameters are passed as the processor options prefixed with {@link #OPTION_PREFIX}
+ * (e.g. -Agenerator.basePackage=com.example), parameters of the Maven build itself (output path,
+ * incremental generation, parallelism, reports) are ignored. Conversion services aggregate all
+ * entities, so the processor is an aggregating one: the entities are generated in the first round
+ * they are met.
+ *
+ * Incremental compilations (IDEs) pass the changed entities only, so DAOs and DTOs are generated for
+ * them, while conversion services cover all entities matching {@code entityPattern} which are found in
+ * the base package, packages of the changed entities and the {@link #ENTITIES_RESOURCE} listing written
+ * by the previous compilation. Classes of the previous compilations (e.g. DTOs of the unchanged entities)
+ * are taken from the compiler elements.
+ */
+@SupportedAnnotationTypes({
+        "javax.persistence.Entity",
+        "com.a5000.platform.api.annotations.generators.NativeQuery",
+        "com.a5000.platform.api.annotations.generators.NativeQueries",
+        "com.a5000.platform.api.annotations.generators.ConventionalQuery",
+        "com.a5000.platform.api.annotations.generators.ConventionalQueries",
+        "com.a5000.platform.api.annotations.dto.DtoInclude",
+        "com.a5000.platform.api.annotations.dto.DtoExtend"
+})
+public class EntityGeneratorProcessor extends AbstractProcessor {
+
+    public static final String OPTION_PREFIX = "generator.";
+
+    /**
+     * Report progress of the generation as the compiler notes
+     */
+    public static final String VERBOSE_OPTION = OPTION_PREFIX + "verbose";
+
+    /**
+     * Class output resource listing entities of the compilation, a name per line
+     */
+    public static final String ENTITIES_RESOURCE = "META-INF/a5000-generators/processor-entities";
+
+    private static final String SOURCE_EXTENSION = ".java";
+
+    private static final String[] REQUIRED_PARAMETERS = new String[] {
+            "basePackage", "daoPackage", "dtoPackage", "convertersPackage"
+    };
+
+    private static final Set<Class<?>> PARAMETER_TYPES = new HashSet<Class<?>>( Arrays.<Class<?>>asList(
+            String.class, String[].class, Boolean.class, boolean.class, Integer.class, int.class ) );
+
+    private Trees trees;
+
+    private boolean generated;
+
+    @Override
+    public synchronized void init( ProcessingEnvironment processingEnv ) {
+        super.init(processingEnv);
+
+        try {
+            trees = Trees.instance(processingEnv);
+        } catch ( IllegalArgumentException e ) {
+            processingEnv.getMessager().printMessage( Diagnostic.Kind.WARNING, "Compiler trees are not available, "
+                    + "bodies of the methods copied into DTOs and fields initializers will be missing" );
+        }
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        Set<String> result = new HashSet<String>();
+        result.add(VERBOSE_OPTION);
+        for ( String name : getParameterFields().keySet() ) {
+            result.add( OPTION_PREFIX + name );
+        }
+
+        return result;
+    }
+
+    @Override
+    public boolean process( Set<? extends TypeElement> annotations, RoundEnvironment roundEnv ) {
+        Set<TypeElement> types = new LinkedHashSet<TypeElement>();
+        for ( TypeElement annotation : annotations ) {
+            for ( Element element : roundEnv.getElementsAnnotatedWith(annotation) ) {
+                TypeElement type = ElementSourceEmitter.getTopLevelType(element);
+                if ( type != null ) {
+                    types.add(type);
+                }
+            }
+        }
+
+        if ( types.isEmpty() ) {
+            return false;
+        }
+
+        if ( generated ) {
+            processingEnv.getMessager().printMessage( Diagnostic.Kind.WARNING, "Classes of the entities which "
+                    + "appear after the first processing round are not generated: " + types );
+            return false;
+        }
+
+        generated = true;
+        try {
+            GenAllMojo generator = createGenerator();
+            String entityPattern = (String) getParameterValue( generator, "entityPattern" );
+
+            Set<TypeElement> changedTypes = new LinkedHashSet<TypeElement>();
+            for ( TypeElement type : types ) {
+                if ( isEntityPath( type, entityPattern ) ) {
+                    changedTypes.add(type);
+                }
+            }
+
+            if ( changedTypes.isEmpty() ) {
+                return false;
+            }
+
+            Set<TypeElement> entityTypes = resolveEntities( changedTypes,
+                    (String) getParameterValue( generator, "basePackage" ), entityPattern );
+            CachingJavaDocBuilder classesModel = createClassesModel(entityTypes);
+            generator.generate( classesModel, getClasses( classesModel, entityTypes ),
+                    getClasses( classesModel, changedTypes ),
+                    new FilerCodeWriter( processingEnv.getFiler(), entityTypes ) );
+            saveEntities(entityTypes);
+        } catch ( MojoExecutionException e ) {
+            processingEnv.getMessager().printMessage( Diagnostic.Kind.ERROR, "Failed to generate classes: "
+                    + e.getMessage() );
+        } catch ( MalformedURLException e ) {
+            processingEnv.getMessager().printMessage( Diagnostic.Kind.ERROR, "Failed to build classes model: "
+                    + e.getMessage() );
+        } catch ( IOException e ) {
+            processingEnv.getMessager().printMessage( Diagnostic.Kind.ERROR, "Failed to resolve entities of "
+                    + "the previous compilation, conversion services would miss them: " + e.getMessage() );
+        } catch ( IllegalArgumentException e ) {
+            processingEnv.getMessager().printMessage( Diagnostic.Kind.ERROR, e.getMessage() );
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the changed entities together with the entities of the previous compilations
+     */
+    private Set<TypeElement> resolveEntities( Set<TypeElement> changedTypes, String basePackage, String entityPattern )
+            throws IOException {
+        Elements elements = processingEnv.getElementUtils();
+        Set<TypeElement> result = new LinkedHashSet<TypeElement>(changedTypes);
+
+        Set<String> packages = new TreeSet<String>();
+        packages.add(basePackage);
+        for ( TypeElement type : changedTypes ) {
+            packages.add( elements.getPackageOf(type).getQualifiedName().toString() );
+        }
+
+        // entities of the subpackages are not listed by the package elements
+        for ( String name : loadEntities() ) {
+            TypeElement type = elements.getTypeElement(name);
+            if ( type != null && isEntity( type, entityPattern ) ) {
+                result.add(type);
+            }
+        }
+
+        for ( String name : packages ) {
+            PackageElement packageElement = elements.getPackageElement(name);
+            if ( packageElement == null ) {
+                continue;
+            }
+
+            for ( Element element : packageElement.getEnclosedElements() ) {
+                if ( element instanceof TypeElement && isEntity( (TypeElement) element, entityPattern ) ) {
+                    result.add( (TypeElement) element );
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private boolean isEntity( TypeElement type, String entityPattern ) {
+        if ( !isEntityPath( type, entityPattern ) ) {
+            return false;
+        }
+
+        Set<String> annotationTypes = getSupportedAnnotationTypes();
+        for ( AnnotationMirror annotation : type.getAnnotationMirrors() ) {
+            TypeElement annotationType = (TypeElement) annotation.getAnnotationType().asElement();
+            if ( annotationTypes.contains( annotationType.getQualifiedName().toString() ) ) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Entity pattern is applied to the source paths the way the goals do it
+     */
+    private boolean isEntityPath( TypeElement type, String entityPattern ) {
+        if ( entityPattern == null || entityPattern.isEmpty() ) {
+            return true;
+        }
+
+        String path = type.getQualifiedName().toString().replace( '.', File.separatorChar ) + SOURCE_EXTENSION;
+        return SelectorUtils.matchPath( entityPattern.replace( '/', File.separatorChar ), path );
+    }
+
+    private List<String> loadEntities() throws IOException {
+        List<String> result = new ArrayList<String>();
+        BufferedReader reader;
+        try {
+            FileObject resource = processingEnv.getFiler().getResource( StandardLocation.CLASS_OUTPUT, "",
+                    ENTITIES_RESOURCE );
+            reader = new BufferedReader( new InputStreamReader( resource.openInputStream(), "UTF-8" ) );
+        } catch ( FileNotFoundException e ) {
+            return result;
+        } catch ( NoSuchFileException e ) {
+            return result;
+        }
+
+        try {
+            String line;
+            while ( ( line = reader.readLine() ) != null ) {
+                if ( !line.trim().isEmpty() ) {
+                    result.add( line.trim() );
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return result;
+    }
+
+    private void saveEntities( Set<TypeElement> entityTypes ) throws IOException {
+        Set<String> names = new TreeSet<String>();
+        for ( TypeElement type : entityTypes ) {
+            names.add( type.getQualifiedName().toString() );
+        }
+
+        Writer writer = new OutputStreamWriter( processingEnv.getFiler().createResource( StandardLocation.CLASS_OUTPUT,
+                "", ENTITIES_RESOURCE, entityTypes.toArray( new Element[entityTypes.size()] ) ).openOutputStream(),
+                "UTF-8" );
+        try {
+            for ( String name : names ) {
+                writer.write(name);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Model consists of the types and types they depend on, other classes are added once they are requested
+     */
+    private CachingJavaDocBuilder createClassesModel( Set<TypeElement> types ) throws MalformedURLException {
+        final Set<TypeElement> visited = new HashSet<TypeElement>();
+        CachingJavaDocBuilder classesModel = new CachingJavaDocBuilder(null) {
+            /**
+             * Classes out of the processor classpath (e.g. DTOs of the entities which are not recompiled)
+             * are taken from the compiler elements
+             */
+            @Override
+            protected JavaClass createSourceClass( String name ) {
+                TypeElement type = processingEnv.getElementUtils().getTypeElement(name);
+                if ( type == null || type.getNestingKind() != NestingKind.TOP_LEVEL ) {
+                    return super.createSourceClass(name);
+                }
+
+                try {
+                    for ( JavaSource source : addTypes( this, Collections.singleton(type), visited ) ) {
+                        for ( JavaClass javaClass : source.getClasses() ) {
+                            if ( name.equals( javaClass.getFullyQualifiedName() ) ) {
+                                return javaClass;
+                            }
+                        }
+                    }
+                } catch ( MalformedURLException e ) {
+                    // unknown class then
+                }
+
+                return super.createSourceClass(name);
+            }
+        };
+
+        addTypes( classesModel, types, visited );
+        return classesModel;
+    }
+
+    /**
+     * Adds the types and types they depend on (supertypes and types of the fields, except the JDK ones)
+     *
+     * @return sources which have been added
+     */
+    private List<JavaSource> addTypes( CachingJavaDocBuilder classesModel, Set<TypeElement> types,
+                                       Set<TypeElement> visited ) throws MalformedURLException {
+        List<JavaSource> result = new ArrayList<JavaSource>();
+        LinkedList<TypeElement> pending = new LinkedList<TypeElement>(types);
+        while ( !pending.isEmpty() ) {
+            TypeElement type = pending.removeFirst();
+            if ( !visited.add(type) ) {
+                continue;
+            }
+
+            ElementSourceEmitter emitter = new ElementSourceEmitter( processingEnv.getElementUtils(), trees, type );
+            result.add( classesModel.addSource( emitter.getURL(), emitter ) );
+            pending.addAll( emitter.getReferencedTypes() );
+        }
+
+        return result;
+    }
+
+    private List<JavaClass> getClasses( CachingJavaDocBuilder classesModel, Set<TypeElement> types ) {
+        List<JavaClass> result = new ArrayList<JavaClass>();
+        for ( TypeElement type : types ) {
+            result.add( classesModel.getClassByName(
+                    processingEnv.getElementUtils().getBinaryName(type).toString() ) );
+        }
+
+        return result;
+    }
+
+    /**
+     * Parameters are injected the way Maven does it: options are assigned to the fields of the same name
+     */
+    private GenAllMojo createGenerator() {
+        GenAllMojo generator = new GenAllMojo();
+        Map<String, String> options = processingEnv.getOptions();
+        generator.setLog( new MessagerLog( processingEnv.getMessager(),
+                Boolean.valueOf( options.get(VERBOSE_OPTION) ) ) );
+
+        for ( String name : REQUIRED_PARAMETERS ) {
+            if ( options.get( OPTION_PREFIX + name ) == null ) {
+                throw new IllegalArgumentException( "Processor option -A" + OPTION_PREFIX + name + " is required" );
+            }
+        }
+
+        for ( Map.Entry<String, Field> entry : getParameterFields().entrySet() ) {
+            String value = options.get( OPTION_PREFIX + entry.getKey() );
+            if ( value == null ) {
+                continue;
+            }
+
+            Field field = entry.getValue();
+            try {
+                field.setAccessible(true);
+                field.set( generator, convertValue( field.getType(), value.trim() ) );
+            } catch ( IllegalAccessException e ) {
+                throw new IllegalArgumentException( "Failed to set generator parameter " + entry.getKey(), e );
+            }
+        }
+
+        return generator;
+    }
+
+    private static Object getParameterValue( GenAllMojo generator, String name ) {
+        Field field = getParameterFields().get(name);
+        try {
+            field.setAccessible(true);
+            return field.get(generator);
+        } catch ( IllegalAccessException e ) {
+            throw new IllegalArgumentException( "Failed to read generator parameter " + name, e );
+        }
+    }
+
+    private static Object convertValue( Class<?> type, String value ) {
+        if ( type == String[].class ) {
+            return value.isEmpty() ? new String[] {} : value.split("\\s*,\\s*");
+        } else if ( type == Boolean.class || type == boolean.class ) {
+            return Boolean.valueOf(value);
+        } else if ( type == Integer.class || type == int.class ) {
+            try {
+                return Integer.valueOf(value);
+            } catch ( NumberFormatException e ) {
+                throw new IllegalArgumentException( "Integer value expected instead of '" + value + "'", e );
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * @return fields of the generator which could be configured (simple types only)
+     */
+    private static Map<String, Field> getParameterFields() {
+        Map<String, Field> result = new TreeMap<String, Field>();
+        for ( Class<?> type = GenAllMojo.class; type != org.apache.maven.plugin.AbstractMojo.class;
+              type = type.getSuperclass() ) {
+            for ( Field field : type.getDeclaredFields() ) {
+                if ( !Modifier.isStatic( field.getModifiers() ) && !Modifier.isFinal( field.getModifiers() )
+                        && !Modifier.isPrivate( field.getModifiers() ) && PARAMETER_TYPES.contains( field.getType() )
+                        && !result.containsKey( field.getName() ) ) {
+                    result.put( field.getName(), field );
+                }
+            }
+        }
+
+        return result;
+    }
+
+}
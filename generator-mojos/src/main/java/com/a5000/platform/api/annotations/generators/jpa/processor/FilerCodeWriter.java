@@ -0,0 +1,49 @@
+package com.a5000.platform.api.annotations.generators.jpa.processor;
+
+import com.sun.codemodel.CodeWriter;
+import com.sun.codemodel.JPackage;
+
+import javax.annotation.processing.Filer;
+import javax.lang.model.element.Element;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+
+/**
+ * Code writer which creates files through the annotation processing {@link Filer}, so the compiler
+ * compiles generated sources in the next round and knows the elements they were generated from
+ */
+public class FilerCodeWriter extends CodeWriter {
+
+    private static final String SOURCE_EXTENSION = ".java";
+
+    private final Filer filer;
+
+    private final Element[] originatingElements;
+
+    /**
+     * @param originatingElements elements every generated file depends on
+     */
+    public FilerCodeWriter( Filer filer, Collection<? extends Element> originatingElements ) {
+        this.filer = filer;
+        this.originatingElements = originatingElements.toArray( new Element[originatingElements.size()] );
+    }
+
+    @Override
+    public OutputStream openBinary( JPackage pkg, String fileName ) throws IOException {
+        if ( fileName.endsWith(SOURCE_EXTENSION) ) {
+            String className = fileName.substring( 0, fileName.length() - SOURCE_EXTENSION.length() );
+            return filer.createSourceFile( pkg.isUnnamed() ? className : pkg.name() + "." + className,
+                    originatingElements ).openOutputStream();
+        }
+
+        return filer.createResource( StandardLocation.SOURCE_OUTPUT, pkg.name(), fileName, originatingElements )
+                .openOutputStream();
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.a5000.platform.api.annotations.generators.jpa.processor;
+
+import org.apache.maven.plugin.logging.Log;
+
+import javax.annotation.processing.Messager;
+import javax.tools.Diagnostic;
+
+/**
+ * Reports generator messages as the compiler diagnostics; progress messages are dropped
+ * unless the verbose output has been requested, as the compiler prints every note
+ */
+public class MessagerLog implements Log {
+
+    private final Messager messager;
+
+    private final boolean verbose;
+
+    public MessagerLog( Messager messager, boolean verbose ) {
+        this.messager = messager;
+        this.verbose = verbose;
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+        return false;
+    }
+
+    @Override
+    public void debug( CharSequence content ) {
+    }
+
+    @Override
+    public void debug( CharSequence content, Throwable error ) {
+    }
+
+    @Override
+    public void debug( Throwable error ) {
+    }
+
+    @Override
+    public boolean isInfoEnabled() {
+        return verbose;
+    }
+
+    @Override
+    public void info( CharSequence content ) {
+        print( Diagnostic.Kind.NOTE, content, null );
+    }
+
+    @Override
+    public void info( CharSequence content, Throwable error ) {
+        print( Diagnostic.Kind.NOTE, content, error );
+    }
+
+    @Override
+    public void info( Throwable error ) {
+        print( Diagnostic.Kind.NOTE, null, error );
+    }
+
+    @Override
+    public boolean isWarnEnabled() {
+        return true;
+    }
+
+    @Override
+    public void warn( CharSequence content ) {
+        print( Diagnostic.Kind.WARNING, content, null );
+    }
+
+    @Override
+    public void warn( CharSequence content, Throwable error ) {
+        print( Diagnostic.Kind.WARNING, content, error );
+    }
+
+    @Override
+    public void warn( Throwable error ) {
+        print( Diagnostic.Kind.WARNING, null, error );
+    }
+
+    @Override
+    public boolean isErrorEnabled() {
+        return true;
+    }
+
+    @Override
+    public void error( CharSequence content ) {
+        print( Diagnostic.Kind.ERROR, content, null );
+    }
+
+    @Override
+    public void error( CharSequence content, Throwable error ) {
+        print( Diagnostic.Kind.ERROR, content, error );
+    }
+
+    @Override
+    public void error( Throwable error ) {
+        print( Diagnostic.Kind.ERROR, null, error );
+    }
+
+    private void print( Diagnostic.Kind kind, CharSequence content, Throwable error ) {
+        if ( kind == Diagnostic.Kind.NOTE && !verbose ) {
+            return;
+        }
+
+        StringBuilder message = new StringBuilder();
+        if ( content != null ) {
+            message.append(content);
+        }
+
+        if ( error != null ) {
+            message.append( message.length() == 0 ? "" : ": " ).append(error);
+        }
+
+        messager.printMessage( kind, message );
+    }
+
+}
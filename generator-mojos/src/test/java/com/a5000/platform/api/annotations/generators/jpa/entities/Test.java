@@ -4,11 +4,13 @@ import com.a5000.platform.api.annotations.dto.AggregationType;
 import com.a5000.platform.api.annotations.dto.DtoExtend;
 import com.a5000.platform.api.annotations.dto.DtoInclude;
 import com.a5000.platform.api.annotations.dto.DtoMethod;
+import com.a5000.platform.api.annotations.dto.DtoProfile;
 import com.a5000.platform.api.annotations.generators.*;
 
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
 import java.util.List;
+import java.util.Set;
 
 @javax.persistence.Entity
 @ConventionalQueries({
@@ -63,6 +65,7 @@ import java.util.List;
 @DtoExtend({
     @Parameter( value = "testParentId", type = Long.class )
 })
+@DtoProfile( name = "summary", fields = { "id", "relatedTests" } )
 public class Test extends TestParent {
 
     private String name;
@@ -77,10 +80,30 @@ public class Test extends TestParent {
     @DtoInclude(AggregationType.DTO)
     private List<Test> relatedTests;
 
+    @OneToMany
+    @DtoInclude(AggregationType.DTO)
+    private Set<Test> childTests;
+
     @ManyToOne( targetEntity = Test.class )
     @DtoInclude(AggregationType.DTO)
     private ITest relatedTestByInterface;
 
+    public Test getRelatedTest() {
+        return relatedTest;
+    }
+
+    public Test getRelatedTestA() {
+        return relatedTestA;
+    }
+
+    public List<Test> getRelatedTests() {
+        return relatedTests;
+    }
+
+    public Set<Test> getChildTests() {
+        return childTests;
+    }
+
     @DtoMethod
     public Test getRelatedTestX() {
         return relatedTest;
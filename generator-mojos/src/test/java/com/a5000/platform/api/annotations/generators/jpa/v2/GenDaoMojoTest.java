@@ -1,26 +1,57 @@
 package com.a5000.platform.api.annotations.generators.jpa.v2;
 
+import com.a5000.platform.api.annotations.generators.jpa.AbstractGeneratorMojo;
+import com.a5000.platform.api.annotations.generators.jpa.BuildSessionCache;
+import com.a5000.platform.api.annotations.generators.jpa.CachingJavaDocBuilder;
+import com.a5000.platform.api.annotations.generators.jpa.EntityMetadataIndex;
+import com.a5000.platform.api.annotations.generators.jpa.IndexedProjectClassLoader;
+import com.a5000.platform.api.annotations.generators.jpa.ParsedSourceCache;
 import com.a5000.platform.api.annotations.generators.jpa.entities.Test;
+import com.a5000.platform.api.annotations.generators.jpa.mojo.GenAllMojo;
 import com.a5000.platform.api.annotations.generators.jpa.mojo.GenDaoMojo;
 import com.a5000.platform.api.annotations.generators.jpa.mojo.GenDtoMojo;
 import com.a5000.platform.api.annotations.generators.jpa.mojo.GenJpaToDtoConverterMojo;
+import com.a5000.platform.api.annotations.generators.jpa.mojo.GenWatchMojo;
+import com.a5000.platform.api.annotations.generators.jpa.processor.EntityGeneratorProcessor;
 import com.a5000.platform.api.annotations.generators.jpa.utils.Commons;
 import com.thoughtworks.qdox.JavaDocBuilder;
 import com.thoughtworks.qdox.model.Annotation;
 import com.thoughtworks.qdox.model.JavaClass;
+import com.thoughtworks.qdox.model.JavaField;
 import com.thoughtworks.qdox.model.JavaMethod;
 import com.thoughtworks.qdox.model.JavaParameter;
 import org.apache.maven.model.Build;
 import org.apache.maven.model.Plugin;
 import org.apache.maven.plugin.MojoExecution;
+import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.testing.AbstractMojoTestCase;
 import org.apache.maven.plugin.testing.stubs.MavenProjectStub;
 import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.ReaderFactory;
 import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.codehaus.plexus.util.xml.Xpp3DomBuilder;
 
+import javax.persistence.PersistenceUnitUtil;
+import javax.tools.*;
 import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 /**
  * Created by cyril on 8/28/13.
@@ -179,6 +210,1227 @@ public class GenDaoMojoTest extends AbstractMojoTestCase {
         builder.addSourceTree(new File("target/"));
         JavaClass[] classes = builder.getClasses();
         assertFalse(classes.length == 0);
+
+        // converters of the runtime classes (proxies, subclasses) are resolved through the ClassValue
+        File serviceFile = new File("target/com/redshape/generators/jpa/services/DtoConversionService.java");
+        JavaClass service = new JavaDocBuilder().addSource(serviceFile).getClasses()[0];
+        assertEquals( "ClassValue", service.getFieldByName("converterTypes").getType().getJavaClass().getName() );
+        String source = FileUtils.fileRead(serviceFile);
+        assertTrue( source.contains("private static ClassValue<Class<?>> createConverterTypes(Set<Class> types) {") );
+        assertTrue( source.contains("current = current.getSuperclass()") );
+        assertTrue( source.contains("public<T >void registerConverter(Class<T> type, ConverterInvoke<T, ?> converter)") );
+    }
+
+    public void testGenAllGoal() throws Exception {
+        Xpp3Dom configuration = createConfiguration();
+
+        Xpp3Dom convertersPackage = new Xpp3Dom("convertersPackage");
+        convertersPackage.setValue("com.redshape.generators.jpa.services");
+        configuration.addChild(convertersPackage);
+
+        Xpp3Dom transactionAnnotation = new Xpp3Dom("transactionAnnotationOnConverterMethods");
+        transactionAnnotation.setValue("true");
+        configuration.addChild(transactionAnnotation);
+
+        MavenProject project = createProject( configuration );
+
+        MojoExecution mojoExecution = newMojoExecution("gen-all");
+        mojoExecution.setConfiguration(configuration);
+
+        GenAllMojo mojo = (GenAllMojo) lookupConfiguredMojo(newMavenSession(project), mojoExecution);
+        mojo.setProject(project);
+        mojo.execute();
+
+        JavaDocBuilder builder = new JavaDocBuilder();
+        builder.addSourceTree(new File("target/"));
+        assertNotNull( builder.getClassByName("com.a5000.platform.api.annotations.generators.jpa.entities.ITestDAO").getSource() );
+        assertNotNull( builder.getClassByName(Test.class.getCanonicalName() + "DTO").getSource() );
+        assertNotNull( builder.getClassByName("com.redshape.generators.jpa.services.DtoConversionService").getSource() );
+
+        // collections of the associated DTOs are converted by the typed converters of their kind
+        String source = FileUtils.fileRead("target/com/redshape/generators/jpa/services/DtoConversionService.java");
+        assertTrue( source.contains("= this.convertTestList(value.getRelatedTests());") );
+        assertTrue( source.contains("= this.convertTestSet(value.getChildTests());") );
+
+        // parameters of the delegates are passed with their defaults
+        assertTrue( source.contains("@A5TransactionalReadOnly") );
+        assertTrue( source.contains("import com.a5000.platform.api.services.A5TransactionalReadOnly;") );
+    }
+
+    public void testGenAllExposesDelegateParameters() throws Exception {
+        Map<String, Map<String, String>> goalParameters = new HashMap<String, Map<String, String>>();
+        Xpp3Dom descriptor = Xpp3DomBuilder.build( ReaderFactory.newXmlReader(
+                new File("target/classes/META-INF/maven/plugin.xml") ) );
+        for ( Xpp3Dom mojo : descriptor.getChild("mojos").getChildren("mojo") ) {
+            Map<String, String> parameters = new HashMap<String, String>();
+            for ( Xpp3Dom parameter : mojo.getChild("parameters").getChildren("parameter") ) {
+                parameters.put( parameter.getChild("name").getValue(), parameter.getChild("type").getValue() );
+            }
+
+            goalParameters.put( mojo.getChild("goal").getValue(), parameters );
+        }
+
+        // gen-all passes its parameters to the delegates by name, the annotation processor takes them as options
+        Map<String, String> genAllParameters = goalParameters.get("gen-all");
+        for ( String goal : new String[] { "gen-dao", "gen-dto", "gen-jpa-converter" } ) {
+            for ( Map.Entry<String, String> parameter : goalParameters.get(goal).entrySet() ) {
+                assertEquals( "gen-all must expose parameter " + parameter.getKey() + " of " + goal,
+                        parameter.getValue(), genAllParameters.get( parameter.getKey() ) );
+            }
+        }
+    }
+
+    /**
+     * Options which change the code of the conversion service, by name with their tested values
+     */
+    private static final String[][] CONVERTER_OPTIONS = new String[][] {
+            { "conversionContextEnabled", "true" },
+            { "conversionMaxDepth", "8" },
+            { "conversionProfilesEnabled", "true" },
+            { "loadStateAware", "true" },
+            { "profilingEnabled", "true" },
+            { "parallelConversionEnabled", "true" },
+            { "streamingConversionEnabled", "true" } };
+
+    public void testConverterOptions() throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        for ( String[] option : CONVERTER_OPTIONS ) {
+            options.put( option[0], option[1] );
+        }
+
+        File output = new File("target/test-conversion-context");
+        String source = generateConversionService( output, options );
+        assertTrue( source.contains("public final static int DEFAULT_MAX_DEPTH = 8;") );
+        // associations are converted within the same context, which resolves entities converted before
+        assertTrue( source.contains("this.convertToDto(value.getRelatedTest(), context)") );
+        assertTrue( source.contains("this.convertTestSet(value.getChildTests(), context)") );
+        assertTrue( source.contains("Object converted = context.get(value);") );
+        assertTrue( source.contains("return convertToDto(value, ALL_FIELDS, new DtoConversionService.ConversionContext());") );
+
+        // getters of the fields missing in the profile are not invoked
+        assertTrue( source.contains("public final static long TEST_PROFILE_SUMMARY = (TEST_FIELD_ID|TEST_FIELD_RELATED_TESTS);") );
+        assertTrue( source.contains("if ((fields&TEST_FIELD_RELATED_TEST)!= 0L) {") );
+        assertTrue( source.contains("convertTestList(Collection<? extends Test> values, long fields, DtoConversionService.ConversionContext context)") );
+
+        // lazy associations which are not loaded are skipped, identifiers are taken without initializing proxies
+        assertTrue( source.contains("if (isLoaded(value, \"relatedTests\")) {") );
+        assertTrue( source.contains("((Long) persistenceUnitUtil.getIdentifier(value.getRelatedTestA()))") );
+
+        // conversions are reported to the metrics recorder instead of the standard output
+        assertFalse( source.contains("System.out") );
+        assertTrue( source.contains("public void setMetrics(DtoConversionService.ConversionMetrics metrics, int sampleRate)") );
+        assertTrue( source.contains("sampled.recordConversion(Test.class, (System.nanoTime()-started));") );
+        assertTrue( source.contains("sampled.recordCollection(Test.class, values.size());") );
+
+        // bulk conversion keeps the records order: chunks convert into the array by the records positions
+        assertTrue( source.contains("public final static int PARALLEL_THRESHOLD = 1000;") );
+        assertTrue( source.contains("public<T, V >List<T> convertToDtoListParallel(Collection<V> records, int threshold, ForkJoinPool pool)") );
+        assertTrue( source.contains("public<T, V >List<T> convertToDtoListConcurrently(Collection<V> records, int chunkSize, Executor executor)") );
+        assertTrue( source.contains("converted[i] = convertToDto(values[i], context);") );
+
+        // streaming conversion pulls the records one by one and releases converted entities by batches
+        assertTrue( source.contains("public<T, V >Stream<T> convertToDtoStream(final Stream<V> records, int batchSize, DtoConversionService.ConversionBatchListener listener)") );
+        assertTrue( source.contains("public<T, V >Iterator<T> convertToDtoIterator(Iterator<V> records, int batchSize, DtoConversionService.ConversionBatchListener listener)") );
+        assertTrue( source.contains("listener.onBatchConverted(Collections.unmodifiableList(batch));") );
+
+        assertConversionServiceBehaviour( output, options );
+    }
+
+    /**
+     * Every option alone generates code of its own, which must compile and work without the other options
+     */
+    public void testConverterOptionsAlone() throws Exception {
+        for ( String[] option : CONVERTER_OPTIONS ) {
+            Map<String, String> options = Collections.singletonMap( option[0], option[1] );
+            File output = new File( "target/test-converter-option-" + option[0] );
+            generateConversionService( output, options );
+            assertConversionServiceBehaviour( output, options );
+        }
+    }
+
+    /**
+     * @return source of the conversion service generated by gen-all with the given options
+     */
+    private String generateConversionService( File output, Map<String, String> options ) throws Exception {
+        FileUtils.deleteDirectory(output);
+
+        Xpp3Dom configuration = createConfiguration();
+
+        Xpp3Dom outputPath = new Xpp3Dom("outputPath");
+        outputPath.setValue( output.getPath() );
+        configuration.addChild(outputPath);
+
+        Xpp3Dom convertersPackage = new Xpp3Dom("convertersPackage");
+        convertersPackage.setValue("com.redshape.generators.jpa.services");
+        configuration.addChild(convertersPackage);
+
+        for ( Map.Entry<String, String> option : options.entrySet() ) {
+            Xpp3Dom optionNode = new Xpp3Dom( option.getKey() );
+            optionNode.setValue( option.getValue() );
+            configuration.addChild(optionNode);
+        }
+
+        MavenProject project = createProject( configuration );
+
+        MojoExecution mojoExecution = newMojoExecution("gen-all");
+        mojoExecution.setConfiguration(configuration);
+
+        GenAllMojo mojo = (GenAllMojo) lookupConfiguredMojo(newMavenSession(project), mojoExecution);
+        mojo.setProject(project);
+        mojo.execute();
+
+        return FileUtils.fileRead( new File( output, "com/redshape/generators/jpa/services/DtoConversionService.java" ) );
+    }
+
+    /**
+     * Compiles the generated conversion service together with DTOs and converts the test entities with it,
+     * checking the behaviour of the enabled options. Entities are subclassed the way persistence providers
+     * do it, the subclass is compiled with the service (generators would see it among the test sources otherwise)
+     */
+    private void assertConversionServiceBehaviour( File output, Map<String, String> options ) throws Exception {
+        boolean contextEnabled = options.containsKey("conversionContextEnabled");
+
+        File classes = new File( output.getParentFile(), output.getName() + "-classes" );
+        FileUtils.deleteDirectory(classes);
+        classes.mkdirs();
+
+        File proxySource = new File( output.getParentFile(), output.getName() + "-proxies/TestProxy.java" );
+        proxySource.getParentFile().mkdirs();
+        FileUtils.fileWrite( proxySource.getPath(), "public class TestProxy extends " + Test.class.getName() + " {\n"
+                + "    public " + Test.class.getName() + " related;\n"
+                + "    public " + Test.class.getName() + " relatedA;\n"
+                + "    public java.util.List<" + Test.class.getName() + "> relatedTests;\n"
+                + "    public int relatedTestReads;\n"
+                + "    public TestProxy( Long id ) { setId(id); }\n"
+                + "    public " + Test.class.getName() + " getRelatedTest() { relatedTestReads++; return related; }\n"
+                + "    public " + Test.class.getName() + " getRelatedTestA() { return relatedA; }\n"
+                + "    public java.util.List<" + Test.class.getName() + "> getRelatedTests() { return relatedTests; }\n"
+                + "}\n" );
+
+        List<File> sources = FileUtils.getFiles( output, "**/*DTO.java,**/DtoConversionService.java", null );
+        sources.add(proxySource);
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager( null, null, null );
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        try {
+            assertTrue( options + ": " + diagnostics.getDiagnostics(), compiler.getTask( null, fileManager, diagnostics,
+                    Arrays.asList( "-proc:none", "-d", classes.getPath(), "-classpath",
+                            System.getProperty("java.class.path") ), null,
+                    fileManager.getJavaFileObjectsFromFiles(sources) ).call() );
+        } finally {
+            fileManager.close();
+        }
+
+        URLClassLoader classLoader = new URLClassLoader( new URL[] { classes.toURI().toURL() },
+                getClass().getClassLoader() );
+        try {
+            Class<?> serviceClass = classLoader.loadClass("com.redshape.generators.jpa.services.DtoConversionService");
+            Object service = serviceClass.newInstance();
+            Class<?>[] objectArgument = new Class<?>[] { Object.class };
+            Class<?> proxyClass = classLoader.loadClass("TestProxy");
+            Field related = proxyClass.getField("related");
+            Field relatedTestReads = proxyClass.getField("relatedTestReads");
+
+            // subclasses of the entities (e.g. proxies) are converted by the converters of their entities;
+            // within a context shared entities are converted once
+            Test first = newTestProxy( proxyClass, 1L );
+            Test second = newTestProxy( proxyClass, 2L );
+            related.set( first, second );
+            proxyClass.getField("relatedA").set( first, second );
+            proxyClass.getField("relatedTests").set( first, Arrays.asList( second, second ) );
+
+            Object firstDto = invoke( service, "convertToDto", objectArgument, first );
+            Object secondDto = invoke( firstDto, "getRelatedTest" );
+            assertEquals( 2L, invoke( secondDto, "getId" ) );
+            assertEquals( 2L, invoke( firstDto, "getRelatedTestAId" ) );
+            List<?> relatedDtos = (List<?>) invoke( firstDto, "getRelatedTests" );
+            assertEquals( 2, relatedDtos.size() );
+            if ( contextEnabled ) {
+                assertEquals( Arrays.asList( secondDto, secondDto ), relatedDtos );
+            } else {
+                assertNotSame( relatedDtos.get(0), relatedDtos.get(1) );
+            }
+
+            // cycles resolve to the DTO being built
+            if ( contextEnabled ) {
+                related.set( second, first );
+                firstDto = invoke( service, "convertToDto", objectArgument, first );
+                assertSame( firstDto, invoke( invoke( firstDto, "getRelatedTest" ), "getRelatedTest" ) );
+                related.set( second, null );
+            }
+
+            try {
+                invoke( service, "convertToDto", objectArgument, new Object() );
+                fail("Entity without converter must not be converted");
+            } catch ( IllegalStateException e ) {
+                assertTrue( e.getMessage().startsWith("Conversion method not found") );
+            }
+
+            // runtime classes are mapped to the registered types, not to the converters referring the service
+            ClassValue<?> converterTypes = (ClassValue<?>) getAccessibleField( serviceClass, "converterTypes" ).get(service);
+            assertSame( Test.class, converterTypes.get(proxyClass) );
+
+            // associations deeper than the maximal depth are left out, the whole chain is converted without context
+            Test chain = newTestProxy( proxyClass, 0L );
+            int chainLength = 40;
+            for ( long id = 1; id < chainLength; id++ ) {
+                Test head = newTestProxy( proxyClass, id );
+                related.set( head, chain );
+                chain = head;
+            }
+
+            int depth = 0;
+            for ( Object dto = invoke( service, "convertToDto", objectArgument, chain ); dto != null;
+                  dto = invoke( dto, "getRelatedTest" ) ) {
+                depth++;
+            }
+            assertEquals( contextEnabled
+                    ? classLoader.loadClass( serviceClass.getName() + "$ConversionContext" )
+                            .getField("DEFAULT_MAX_DEPTH").getInt(null)
+                    : chainLength, depth );
+
+            // getters of the fields out of the profile are not invoked at all
+            if ( options.containsKey("conversionProfilesEnabled") ) {
+                long summary = serviceClass.getField("TEST_PROFILE_SUMMARY").getLong(null);
+                relatedTestReads.setInt( first, 0 );
+                Object summaryDto = invoke( service, "convertToDto", new Class<?>[] { Test.class, long.class },
+                        first, summary );
+                assertEquals( 1L, invoke( summaryDto, "getId" ) );
+                assertNull( invoke( summaryDto, "getRelatedTest" ) );
+                assertEquals( 2, ( (List<?>) invoke( summaryDto, "getRelatedTests" ) ).size() );
+                assertEquals( 0, relatedTestReads.getInt(first) );
+            }
+
+            // associations which are not loaded are skipped, identifiers are taken from the persistence provider
+            if ( options.containsKey("loadStateAware") ) {
+                Object persistenceUnitUtil = Proxy.newProxyInstance( classLoader,
+                        new Class<?>[] { PersistenceUnitUtil.class }, new InvocationHandler() {
+                            @Override
+                            public Object invoke( Object proxy, Method method, Object[] args ) {
+                                if ( method.getName().equals("getIdentifier") ) {
+                                    return 42L;
+                                }
+
+                                return !"relatedTests".equals( args[1] );
+                            }
+                        } );
+                invoke( service, "setPersistenceUnitUtil", new Class<?>[] { PersistenceUnitUtil.class },
+                        persistenceUnitUtil );
+                Object loadedDto = invoke( service, "convertToDto", objectArgument, first );
+                assertTrue( ( (List<?>) invoke( loadedDto, "getRelatedTests" ) ).isEmpty() );
+                assertEquals( 42L, invoke( loadedDto, "getRelatedTestAId" ) );
+                assertEquals( 2L, invoke( invoke( loadedDto, "getRelatedTest" ), "getId" ) );
+                invoke( service, "setPersistenceUnitUtil", new Class<?>[] { PersistenceUnitUtil.class },
+                        (Object) null );
+            }
+
+            // conversions are reported to the metrics recorder
+            if ( options.containsKey("profilingEnabled") ) {
+                final List<Object> recorded = new ArrayList<Object>();
+                Class<?> metricsClass = classLoader.loadClass( serviceClass.getName() + "$ConversionMetrics" );
+                Object metrics = Proxy.newProxyInstance( classLoader, new Class<?>[] { metricsClass },
+                        new InvocationHandler() {
+                            @Override
+                            public Object invoke( Object proxy, Method method, Object[] args ) {
+                                recorded.add( method.getName() + ":" + ( (Class<?>) args[0] ).getSimpleName() );
+                                return null;
+                            }
+                        } );
+                invoke( service, "setMetrics", new Class<?>[] { metricsClass }, metrics );
+                invoke( service, "convertToDto", objectArgument, second );
+                assertTrue( recorded.toString(), recorded.contains("recordConversion:Test") );
+                invoke( service, "setMetrics", new Class<?>[] { metricsClass }, (Object) null );
+            }
+
+            List<Test> records = new ArrayList<Test>();
+            for ( long id = 0; id < 3000; id++ ) {
+                records.add( newTestProxy( proxyClass, id ) );
+            }
+
+            // bulk conversions keep the records order
+            if ( options.containsKey("parallelConversionEnabled") ) {
+                assertConvertedIds( records, (List<?>) invoke( service, "convertToDtoListParallel",
+                        new Class<?>[] { Collection.class, int.class, ForkJoinPool.class },
+                        records, 100, ForkJoinPool.commonPool() ) );
+
+                ExecutorService executor = Executors.newFixedThreadPool(4);
+                try {
+                    assertConvertedIds( records, (List<?>) invoke( service, "convertToDtoListConcurrently",
+                            new Class<?>[] { Collection.class, int.class, Executor.class }, records, 300, executor ) );
+                } finally {
+                    executor.shutdown();
+                }
+            }
+
+            // streams are converted lazily, converted entities are released by batches
+            if ( options.containsKey("streamingConversionEnabled") ) {
+                final AtomicInteger pulled = new AtomicInteger();
+                final List<Integer> batches = new ArrayList<Integer>();
+                Class<?> listenerClass = classLoader.loadClass( serviceClass.getName() + "$ConversionBatchListener" );
+                Object listener = Proxy.newProxyInstance( classLoader, new Class<?>[] { listenerClass },
+                        new InvocationHandler() {
+                            @Override
+                            public Object invoke( Object proxy, Method method, Object[] args ) {
+                                batches.add( ( (List<?>) args[0] ).size() );
+                                return null;
+                            }
+                        } );
+
+                List<Test> streamed = new ArrayList<Test>( records.subList( 0, 25 ) );
+                streamed.set( 1, streamed.get(0) );
+                streamed.set( 15, streamed.get(0) );
+                Stream<Test> stream = streamed.stream().peek( new Consumer<Test>() {
+                    @Override
+                    public void accept( Test record ) {
+                        pulled.incrementAndGet();
+                    }
+                } );
+
+                Iterator<?> converted = ( (Stream<?>) invoke( service, "convertToDtoStream",
+                        new Class<?>[] { Stream.class, int.class, listenerClass }, stream, 10, listener ) ).iterator();
+                List<Object> dtos = new ArrayList<Object>();
+                dtos.add( converted.next() );
+                assertEquals( 1, pulled.get() );
+                while ( converted.hasNext() ) {
+                    dtos.add( converted.next() );
+                }
+
+                assertEquals( 25, dtos.size() );
+                assertEquals( Arrays.asList( 10, 10, 5 ), batches );
+                // within a context the same entity is converted once per batch, again after the batch is released
+                if ( contextEnabled ) {
+                    assertSame( dtos.get(0), dtos.get(1) );
+                }
+
+                assertNotSame( dtos.get(0), dtos.get(15) );
+                assertEquals( invoke( dtos.get(0), "getId" ), invoke( dtos.get(15), "getId" ) );
+            }
+
+            // a type registered later is seen by the classes resolved before
+            Class<?> converterInvokeClass = classLoader.loadClass( serviceClass.getName() + "$ConverterInvoke" );
+            Object objectConverter = Proxy.newProxyInstance( classLoader, new Class<?>[] { converterInvokeClass },
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke( Object proxy, Method method, Object[] args ) {
+                            return "converted";
+                        }
+                    } );
+            invoke( service, "registerConverter", new Class<?>[] { Class.class, converterInvokeClass },
+                    Object.class, objectConverter );
+            assertEquals( "converted", invoke( service, "convertToDto", objectArgument, new Object() ) );
+            assertSame( Test.class, converterTypes.get(proxyClass) );
+        } finally {
+            classLoader.close();
+        }
+    }
+
+    private static Test newTestProxy( Class<?> proxyClass, long id ) throws Exception {
+        return (Test) proxyClass.getConstructor( Long.class ).newInstance(id);
+    }
+
+    private static void assertConvertedIds( List<Test> records, List<?> dtos ) throws Exception {
+        assertEquals( records.size(), dtos.size() );
+        for ( int i = 0; i < records.size(); i++ ) {
+            assertEquals( records.get(i).getId(), invoke( dtos.get(i), "getId" ) );
+        }
+    }
+
+    private static Field getAccessibleField( Class<?> type, String name ) throws Exception {
+        Field result = type.getDeclaredField(name);
+        result.setAccessible(true);
+        return result;
+    }
+
+    private static Object invoke( Object target, String name ) throws Exception {
+        return invoke( target, name, new Class<?>[] {} );
+    }
+
+    private static Object invoke( Object target, String name, Class<?>[] types, Object... arguments )
+            throws Exception {
+        try {
+            return target.getClass().getMethod( name, types ).invoke( target, arguments );
+        } catch ( InvocationTargetException e ) {
+            if ( e.getCause() instanceof Exception ) {
+                throw (Exception) e.getCause();
+            }
+
+            throw e;
+        }
+    }
+
+    public void testAnnotationProcessor() throws Exception {
+        File goalOutput = new File("target/test-processor-goal");
+        File processorOutput = new File("target/test-processor-output");
+        FileUtils.deleteDirectory(goalOutput);
+        FileUtils.deleteDirectory(processorOutput);
+        processorOutput.mkdirs();
+
+        Xpp3Dom configuration = createConfiguration();
+
+        Xpp3Dom outputPath = new Xpp3Dom("outputPath");
+        outputPath.setValue( goalOutput.getPath() );
+        configuration.addChild(outputPath);
+
+        Xpp3Dom convertersPackage = new Xpp3Dom("convertersPackage");
+        convertersPackage.setValue("com.redshape.generators.jpa.services");
+        configuration.addChild(convertersPackage);
+
+        MavenProject project = createProject( configuration );
+
+        MojoExecution mojoExecution = newMojoExecution("gen-all");
+        mojoExecution.setConfiguration(configuration);
+
+        GenAllMojo mojo = (GenAllMojo) lookupConfiguredMojo(newMavenSession(project), mojoExecution);
+        mojo.setProject(project);
+        mojo.execute();
+
+        runProcessor( configuration, Arrays.asList( "-d", processorOutput.getPath(), "-s", processorOutput.getPath(),
+                "-classpath", System.getProperty("java.class.path") ), FileUtils.getFiles(
+                new File("src/test/java/com/a5000/platform/api/annotations/generators/jpa/entities"), "*.java", null ) );
+
+        List<String> goalFiles = FileUtils.getFileNames( goalOutput, "**/*.java", null, false );
+        assertFalse( goalFiles.isEmpty() );
+        assertEquals( new TreeSet<String>(goalFiles),
+                new TreeSet<String>( FileUtils.getFileNames( processorOutput, "**/*.java", null, false ) ) );
+        // copied method bodies are formatted by javac, so files are compared as the sets of lines
+        for ( String file : goalFiles ) {
+            assertEquals( file, normalizeSource( FileUtils.fileRead( new File( goalOutput, file ) ) ),
+                    normalizeSource( FileUtils.fileRead( new File( processorOutput, file ) ) ) );
+        }
+    }
+
+    public void testIncrementalAnnotationProcessing() throws Exception {
+        File classesOutput = new File("target/test-processor-classes");
+        File fullOutput = new File("target/test-processor-full");
+        File incrementalOutput = new File("target/test-processor-incremental");
+        for ( File directory : new File[] { classesOutput, fullOutput, incrementalOutput } ) {
+            FileUtils.deleteDirectory(directory);
+            directory.mkdirs();
+        }
+
+        Xpp3Dom configuration = createConfiguration();
+
+        Xpp3Dom convertersPackage = new Xpp3Dom("convertersPackage");
+        convertersPackage.setValue("com.redshape.generators.jpa.services");
+        configuration.addChild(convertersPackage);
+
+        File entitiesDirectory = new File("src/test/java/com/a5000/platform/api/annotations/generators/jpa/entities");
+        String classpath = System.getProperty("java.class.path");
+
+        // entities compiled by the previous build, the first processing sees all of them
+        List<String> options = new ArrayList<String>( Arrays.asList( "-proc:none", "-d", classesOutput.getPath(),
+                "-classpath", classpath ) );
+        runProcessor( configuration, options, FileUtils.getFiles( entitiesDirectory, "*.java", null ) );
+        runProcessor( configuration, Arrays.asList( "-d", classesOutput.getPath(), "-s", fullOutput.getPath(),
+                "-classpath", classpath ), FileUtils.getFiles( entitiesDirectory, "*.java", null ) );
+        assertTrue( new File( classesOutput, EntityGeneratorProcessor.ENTITIES_RESOURCE ).exists() );
+
+        // IDE recompiles the changed entity only, the rest (generated classes too) is already compiled
+        runProcessor( configuration, Arrays.asList( "-d", classesOutput.getPath(), "-s", incrementalOutput.getPath(),
+                "-sourcepath", fullOutput.getPath(), "-classpath", classesOutput.getPath() + File.pathSeparator
+                        + classpath ), Collections.singletonList( new File( entitiesDirectory, "Test.java" ) ) );
+
+        String entitiesPath = "com/a5000/platform/api/annotations/generators/jpa/entities/";
+        assertTrue( new File( incrementalOutput, entitiesPath + "TestDTO.java" ).exists() );
+        assertFalse( new File( incrementalOutput, entitiesPath + "TestParentDTO.java" ).exists() );
+
+        String servicePath = "com/redshape/generators/jpa/services/DtoConversionService.java";
+        String service = FileUtils.fileRead( new File( incrementalOutput, servicePath ) );
+        assertTrue( service.contains("TestParentDTO convertToDto(TestParent value)") );
+        assertEquals( normalizeSource( FileUtils.fileRead( new File( fullOutput, servicePath ) ) ),
+                normalizeSource(service) );
+
+        // entities out of the entity pattern are not processed at all
+        FileUtils.deleteDirectory(incrementalOutput);
+        incrementalOutput.mkdirs();
+
+        configuration.getChild("entityPattern").setValue("**/TestParent.java");
+
+        runProcessor( configuration, Arrays.asList( "-d", classesOutput.getPath(), "-s", incrementalOutput.getPath(),
+                "-sourcepath", fullOutput.getPath(), "-classpath", classesOutput.getPath() + File.pathSeparator
+                        + classpath ), Collections.singletonList( new File( entitiesDirectory, "Test.java" ) ) );
+        assertTrue( FileUtils.getFileNames( incrementalOutput, "**/*.java", null, false ).isEmpty() );
+    }
+
+    /**
+     * Runs the processor with the generator parameters taken from the goal configuration (but the ones
+     * of the Maven build)
+     */
+    private static void runProcessor( Xpp3Dom configuration, List<String> compilerOptions, List<File> sources )
+            throws Exception {
+        List<String> options = new ArrayList<String>(compilerOptions);
+        for ( Xpp3Dom parameter : configuration.getChildren() ) {
+            if ( !"sourceRoot".equals( parameter.getName() ) && !"outputPath".equals( parameter.getName() ) ) {
+                options.add( "-A" + EntityGeneratorProcessor.OPTION_PREFIX + parameter.getName() + "="
+                        + parameter.getValue() );
+            }
+        }
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager( null, null, null );
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        try {
+            JavaCompiler.CompilationTask task = compiler.getTask( null, fileManager, diagnostics, options, null,
+                    fileManager.getJavaFileObjectsFromFiles(sources) );
+            task.setProcessors( Collections.singletonList( new EntityGeneratorProcessor() ) );
+            task.call();
+        } finally {
+            fileManager.close();
+        }
+
+        for ( Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics() ) {
+            assertFalse( diagnostic.toString(), diagnostic.getSource() == null
+                    && diagnostic.getKind() == Diagnostic.Kind.ERROR );
+        }
+    }
+
+    private static Set<String> normalizeSource( String source ) {
+        Set<String> result = new TreeSet<String>();
+        for ( String line : source.split("\n") ) {
+            if ( !line.trim().isEmpty() ) {
+                result.add( line.trim() );
+            }
+        }
+
+        return result;
+    }
+
+    public void testDeterministicOutput() throws Exception {
+        File[] outputs = new File[] { new File("target/test-deterministic-first"),
+                new File("target/test-deterministic-second") };
+        for ( File output : outputs ) {
+            FileUtils.deleteDirectory(output);
+
+            Xpp3Dom configuration = createConfiguration();
+
+            Xpp3Dom outputPath = new Xpp3Dom("outputPath");
+            outputPath.setValue( output.getPath() );
+            configuration.addChild(outputPath);
+
+            Xpp3Dom convertersPackage = new Xpp3Dom("convertersPackage");
+            convertersPackage.setValue("com.redshape.generators.jpa.services");
+            configuration.addChild(convertersPackage);
+
+            MavenProject project = createProject( configuration );
+
+            MojoExecution mojoExecution = newMojoExecution("gen-all");
+            mojoExecution.setConfiguration(configuration);
+
+            // new session every time, so the classes model is parsed again instead of being shared
+            GenAllMojo mojo = (GenAllMojo) lookupConfiguredMojo(newMavenSession(project), mojoExecution);
+            mojo.setProject(project);
+            mojo.execute();
+        }
+
+        List<String> files = FileUtils.getFileNames( outputs[0], "**/*.java", null, false );
+        assertFalse( files.isEmpty() );
+        assertEquals( new TreeSet<String>(files),
+                new TreeSet<String>( FileUtils.getFileNames( outputs[1], "**/*.java", null, false ) ) );
+        for ( String file : files ) {
+            assertEquals( file, FileUtils.fileRead( new File( outputs[0], file ) ),
+                    FileUtils.fileRead( new File( outputs[1], file ) ) );
+        }
+    }
+
+    public void testWatchGoal() throws Exception {
+        File sourceRoot = new File("target/test-watch-sources");
+        FileUtils.deleteDirectory(sourceRoot);
+        FileUtils.deleteDirectory("target/test-watch-output");
+        FileUtils.copyDirectoryStructure( new File("src/test/java/com/a5000/platform/api/annotations/generators/jpa/entities"),
+                new File( sourceRoot, "com/a5000/platform/api/annotations/generators/jpa/entities" ) );
+
+        Xpp3Dom configuration = createConfiguration();
+        configuration.getChild("sourceRoot").setValue( sourceRoot.getPath() );
+
+        Xpp3Dom outputPath = new Xpp3Dom("outputPath");
+        outputPath.setValue("target/test-watch-output");
+        configuration.addChild(outputPath);
+
+        Xpp3Dom convertersPackage = new Xpp3Dom("convertersPackage");
+        convertersPackage.setValue("com.redshape.generators.jpa.services");
+        configuration.addChild(convertersPackage);
+
+        MavenProjectStub project = (MavenProjectStub) createProject( configuration );
+        project.setCompileSourceRoots( Commons.list( sourceRoot.getPath() ) );
+
+        MojoExecution mojoExecution = newMojoExecution("watch");
+        mojoExecution.setConfiguration(configuration);
+
+        final GenWatchMojo mojo = (GenWatchMojo) lookupConfiguredMojo(newMavenSession(project), mojoExecution);
+        mojo.setProject(project);
+
+        final Exception[] failure = new Exception[1];
+        Thread watcher = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    mojo.execute();
+                } catch ( Exception e ) {
+                    failure[0] = e;
+                }
+            }
+        };
+        watcher.start();
+
+        File dtoFile = new File("target/test-watch-output/" + Test.class.getCanonicalName().replace('.', '/') + "DTO.java");
+        try {
+            waitFor( watcher, dtoFile, "TestDTO" );
+
+            File entityFile = new File( sourceRoot, Test.class.getCanonicalName().replace('.', '/') + ".java" );
+            String entity = FileUtils.fileRead(entityFile);
+            FileUtils.fileWrite( entityFile.getPath(), entity.substring( 0, entity.lastIndexOf('}') )
+                    + "    private String watchedField;\n\n"
+                    + "    public String getWatchedField() { return watchedField; }\n\n"
+                    + "    public void setWatchedField( String watchedField ) { this.watchedField = watchedField; }\n}\n" );
+
+            waitFor( watcher, dtoFile, "watchedField" );
+
+            // removed entity is not resolvable any more: it drops out of the conversion service
+            File serviceFile = new File("target/test-watch-output/com/redshape/generators/jpa/services/DtoConversionService.java");
+            File addedFile = new File( entityFile.getParentFile(), "WatchedEntity.java" );
+            FileUtils.fileWrite( addedFile.getPath(), FileUtils.fileRead( new File( entityFile.getParentFile(),
+                    "TestParent.java" ) ).replace( "class TestParent", "class WatchedEntity" ) );
+            waitFor( watcher, serviceFile, "WatchedEntityDTO convertToDto(" );
+
+            // the service is read till it is rewritten completely and the stale outputs are removed
+            assertTrue( addedFile.delete() );
+            File addedDto = new File( dtoFile.getParentFile(), "WatchedEntityDTO.java" );
+            long deadline = System.currentTimeMillis() + 20000;
+            String service = FileUtils.fileRead(serviceFile);
+            while ( service.contains("WatchedEntity") || !service.contains("convertToDto(TestParent value)")
+                    || addedDto.exists() ) {
+                assertTrue( "Watching has been stopped", watcher.isAlive() );
+                assertTrue( "Removed entity is still converted", System.currentTimeMillis() < deadline );
+                Thread.sleep(50);
+                service = FileUtils.fileRead(serviceFile);
+            }
+        } finally {
+            watcher.interrupt();
+            watcher.join(10000);
+        }
+
+        assertNull( failure[0] );
+    }
+
+    public void testWatchGoalRejectsLazySourceLoading() throws Exception {
+        Xpp3Dom configuration = createConfiguration();
+
+        Xpp3Dom convertersPackage = new Xpp3Dom("convertersPackage");
+        convertersPackage.setValue("com.redshape.generators.jpa.services");
+        configuration.addChild(convertersPackage);
+
+        Xpp3Dom lazySourceLoading = new Xpp3Dom("lazySourceLoading");
+        lazySourceLoading.setValue("true");
+        configuration.addChild(lazySourceLoading);
+
+        MavenProject project = createProject( configuration );
+
+        MojoExecution mojoExecution = newMojoExecution("watch");
+        mojoExecution.setConfiguration(configuration);
+
+        GenWatchMojo mojo = (GenWatchMojo) lookupConfiguredMojo(newMavenSession(project), mojoExecution);
+        mojo.setProject(project);
+        try {
+            mojo.execute();
+            fail("Watching must not start with lazySourceLoading");
+        } catch ( MojoExecutionException e ) {
+            assertTrue( e.getMessage().contains("lazySourceLoading") );
+        }
+    }
+
+    private static void waitFor( Thread watcher, File file, String content ) throws Exception {
+        long deadline = System.currentTimeMillis() + 20000;
+        while ( !file.exists() || !FileUtils.fileRead(file).contains(content) ) {
+            assertTrue( "Watching has been stopped", watcher.isAlive() );
+            assertTrue( "Timed out waiting for " + content + " in " + file, System.currentTimeMillis() < deadline );
+            Thread.sleep(50);
+        }
+    }
+
+    public void testParallelGenDaoGoal() throws Exception {
+        Xpp3Dom configuration = createConfiguration();
+
+        Xpp3Dom parallelism = new Xpp3Dom("parallelism");
+        parallelism.setValue("4");
+        configuration.addChild(parallelism);
+
+        MavenProject project = createProject( configuration );
+
+        MojoExecution mojoExecution = newMojoExecution("gen-dao");
+        mojoExecution.setConfiguration( configuration );
+
+        GenDaoMojo mojo = (GenDaoMojo) lookupConfiguredMojo(newMavenSession(project), mojoExecution);
+        mojo.setProject(project);
+        mojo.execute();
+
+        JavaDocBuilder builder = new JavaDocBuilder();
+        builder.addSourceTree(new File("target/"));
+        assertNotNull( builder.getClassByName("com.a5000.platform.api.annotations.generators.jpa.entities.ITestDAO").getSource() );
+        assertNotNull( builder.getClassByName("com.a5000.platform.api.annotations.generators.jpa.entities.ITestParentDAO").getSource() );
+    }
+
+    public void testParallelOutputMatchesSerial() throws Exception {
+        File sourceRoot = new File("target/test-parallel-sources");
+        FileUtils.deleteDirectory(sourceRoot);
+        String entitiesPath = "com/a5000/platform/api/annotations/generators/jpa/entities/";
+        FileUtils.copyDirectoryStructure( new File( "src/test/java/" + entitiesPath ), new File( sourceRoot, entitiesPath ) );
+
+        // none of the types below is resolved before the workers are started, apart from the entities
+        int entitiesCount = 8;
+        for ( int i = 0; i < entitiesCount; i++ ) {
+            String related = i == 0 ? "Test" : "ParallelEntity" + ( i - 1 );
+            FileUtils.fileWrite( new File( sourceRoot, entitiesPath + "ParallelEntity" + i + ".java" ).getPath(),
+                    "package com.a5000.platform.api.annotations.generators.jpa.entities;\n\n"
+                    + "import javax.persistence.ManyToOne;\n"
+                    + "import javax.persistence.OneToMany;\n"
+                    + "import java.util.*;\n\n"
+                    + "@javax.persistence.Entity\n"
+                    + "public class ParallelEntity" + i + " extends TestParent {\n\n"
+                    + "    private Date created;\n\n"
+                    + "    @ManyToOne\n"
+                    + "    private " + related + " related;\n\n"
+                    + "    @OneToMany\n"
+                    + "    private List<" + related + "> relatedList;\n\n"
+                    + "    private Set<String> tags;\n\n"
+                    + "    public Date getCreated() { return created; }\n\n"
+                    + "    public void setCreated( Date value ) { this.created = value; }\n\n"
+                    + "    public " + related + " getRelated() { return related; }\n\n"
+                    + "    public void setRelated( " + related + " value ) { this.related = value; }\n\n"
+                    + "    public List<" + related + "> getRelatedList() { return relatedList; }\n\n"
+                    + "    public void setRelatedList( List<" + related + "> value ) { this.relatedList = value; }\n\n"
+                    + "    public Set<String> getTags() { return tags; }\n\n"
+                    + "    public void setTags( Set<String> value ) { this.tags = value; }\n}\n" );
+        }
+
+        File[] buildDirectories = new File[] { new File("target/test-parallel-serial"),
+                new File("target/test-parallel-concurrent") };
+        String[] parallelism = new String[] { "1", "4" };
+        for ( int i = 0; i < buildDirectories.length; i++ ) {
+            FileUtils.deleteDirectory( buildDirectories[i] );
+
+            Xpp3Dom configuration = createConfiguration();
+            configuration.getChild("sourceRoot").setValue( sourceRoot.getPath() );
+
+            Xpp3Dom outputPath = new Xpp3Dom("outputPath");
+            outputPath.setValue( new File( buildDirectories[i], "generated" ).getPath() );
+            configuration.addChild(outputPath);
+
+            Xpp3Dom parallelismNode = new Xpp3Dom("parallelism");
+            parallelismNode.setValue( parallelism[i] );
+            configuration.addChild(parallelismNode);
+
+            // goals which generate entities in parallel
+            for ( String goal : new String[] { "gen-dao", "gen-dto" } ) {
+                assertEquals( entitiesCount + 2,
+                        executeIncrementalGoal( goal, configuration, sourceRoot, buildDirectories[i] ) );
+            }
+        }
+
+        File serial = new File( buildDirectories[0], "generated" );
+        File concurrent = new File( buildDirectories[1], "generated" );
+        List<String> files = FileUtils.getFileNames( serial, "**/*.java", null, false );
+        assertTrue( files.contains( entitiesPath + "ParallelEntity7DTO.java" ) );
+        assertEquals( new TreeSet<String>(files),
+                new TreeSet<String>( FileUtils.getFileNames( concurrent, "**/*.java", null, false ) ) );
+        for ( String file : files ) {
+            assertTrue( file, Arrays.equals( Files.readAllBytes( new File( serial, file ).toPath() ),
+                    Files.readAllBytes( new File( concurrent, file ).toPath() ) ) );
+        }
+    }
+
+    public void testStreamingEmission() throws Exception {
+        Xpp3Dom configuration = createConfiguration();
+        MavenProject project = createProject( configuration );
+
+        MojoExecution mojoExecution = newMojoExecution("gen-dao");
+        mojoExecution.setConfiguration( configuration );
+
+        GenDaoMojo mojo = (GenDaoMojo) lookupConfiguredMojo(newMavenSession(project), mojoExecution);
+        mojo.setProject(project);
+        mojo.execute();
+
+        File daoFile = new File("target/com/a5000/platform/api/annotations/generators/jpa/entities/ITestDAO.java");
+        File parentDaoFile = new File("target/com/a5000/platform/api/annotations/generators/jpa/entities/ITestParentDAO.java");
+        String daoContent = FileUtils.fileRead(daoFile);
+        String parentDaoContent = FileUtils.fileRead(parentDaoFile);
+
+        Xpp3Dom streamingEmission = new Xpp3Dom("streamingEmission");
+        streamingEmission.setValue("true");
+        configuration.addChild(streamingEmission);
+        mojoExecution.setConfiguration( configuration );
+
+        mojo = (GenDaoMojo) lookupConfiguredMojo(newMavenSession(project), mojoExecution);
+        mojo.setProject(project);
+        mojo.execute();
+
+        assertEquals( daoContent, FileUtils.fileRead(daoFile) );
+        assertEquals( parentDaoContent, FileUtils.fileRead(parentDaoFile) );
+    }
+
+    public void testIncrementalGeneration() throws Exception {
+        File sourceRoot = new File("target/test-incremental-sources");
+        File buildDirectory = new File("target/test-incremental-build");
+        FileUtils.deleteDirectory(sourceRoot);
+        FileUtils.deleteDirectory(buildDirectory);
+        FileUtils.copyDirectoryStructure( new File("src/test/java/com/a5000/platform/api/annotations/generators/jpa/entities"),
+                new File( sourceRoot, "com/a5000/platform/api/annotations/generators/jpa/entities" ) );
+
+        Xpp3Dom configuration = createConfiguration();
+        configuration.getChild("sourceRoot").setValue( sourceRoot.getPath() );
+
+        Xpp3Dom outputPath = new Xpp3Dom("outputPath");
+        outputPath.setValue( new File( buildDirectory, "generated" ).getPath() );
+        configuration.addChild(outputPath);
+
+        Xpp3Dom incremental = new Xpp3Dom("incremental");
+        incremental.setValue("true");
+        configuration.addChild(incremental);
+
+        String entitiesPath = "com/a5000/platform/api/annotations/generators/jpa/entities/";
+        File testDto = new File( buildDirectory, "generated/" + entitiesPath + "TestDTO.java" );
+        File parentDto = new File( buildDirectory, "generated/" + entitiesPath + "TestParentDTO.java" );
+
+        assertEquals( 2, executeIncrementalGoal( "gen-dto", configuration, sourceRoot, buildDirectory ) );
+        assertTrue( testDto.exists() );
+        assertTrue( parentDto.exists() );
+
+        // nothing has been changed: no entity is processed at all
+        assertEquals( 0, executeIncrementalGoal( "gen-dto", configuration, sourceRoot, buildDirectory ) );
+
+        // changed entity is regenerated, the entity it depends on is not
+        long lastModified = ( System.currentTimeMillis() / 1000 - 3600 ) * 1000;
+        assertTrue( parentDto.setLastModified(lastModified) );
+        appendField( new File( sourceRoot, entitiesPath + "Test.java" ), "testMarker" );
+        assertEquals( 1, executeIncrementalGoal( "gen-dto", configuration, sourceRoot, buildDirectory ) );
+        assertTrue( FileUtils.fileRead(testDto).contains("testMarker") );
+        assertEquals( "Up-to-date DTO must not be regenerated", lastModified, parentDto.lastModified() );
+
+        // change of the supertype regenerates the entities which extend it
+        appendField( new File( sourceRoot, entitiesPath + "TestParent.java" ), "parentMarker" );
+        assertEquals( 2, executeIncrementalGoal( "gen-dto", configuration, sourceRoot, buildDirectory ) );
+        assertTrue( FileUtils.fileRead(parentDto).contains("parentMarker") );
+    }
+
+    public void testIncrementalGenAllGoal() throws Exception {
+        File sourceRoot = new File("target/test-incremental-all-sources");
+        File buildDirectory = new File("target/test-incremental-all-build");
+        FileUtils.deleteDirectory(sourceRoot);
+        FileUtils.deleteDirectory(buildDirectory);
+        FileUtils.copyDirectoryStructure( new File("src/test/java/com/a5000/platform/api/annotations/generators/jpa/entities"),
+                new File( sourceRoot, "com/a5000/platform/api/annotations/generators/jpa/entities" ) );
+
+        Xpp3Dom configuration = createConfiguration();
+        configuration.getChild("sourceRoot").setValue( sourceRoot.getPath() );
+
+        Xpp3Dom outputPath = new Xpp3Dom("outputPath");
+        outputPath.setValue( new File( buildDirectory, "generated" ).getPath() );
+        configuration.addChild(outputPath);
+
+        Xpp3Dom incremental = new Xpp3Dom("incremental");
+        incremental.setValue("true");
+        configuration.addChild(incremental);
+
+        Xpp3Dom convertersPackage = new Xpp3Dom("convertersPackage");
+        convertersPackage.setValue("com.redshape.generators.jpa.services");
+        configuration.addChild(convertersPackage);
+
+        String entitiesPath = "com/a5000/platform/api/annotations/generators/jpa/entities/";
+        File parentDao = new File( buildDirectory, "generated/" + entitiesPath + "ITestParentDAO.java" );
+        File conversionService = new File( buildDirectory,
+                "generated/com/redshape/generators/jpa/services/DtoConversionService.java" );
+
+        assertEquals( 2, executeIncrementalGoal( "gen-all", configuration, sourceRoot, buildDirectory ) );
+        String fullService = FileUtils.fileRead(conversionService);
+        assertEquals( 0, executeIncrementalGoal( "gen-all", configuration, sourceRoot, buildDirectory ) );
+
+        // only the changed entity gets its DAO and DTO regenerated, conversion service still covers all entities
+        long lastModified = ( System.currentTimeMillis() / 1000 - 3600 ) * 1000;
+        assertTrue( parentDao.setLastModified(lastModified) );
+        appendField( new File( sourceRoot, entitiesPath + "Test.java" ), "testMarker" );
+        assertEquals( 1, executeIncrementalGoal( "gen-all", configuration, sourceRoot, buildDirectory ) );
+        assertEquals( "Up-to-date DAO must not be regenerated", lastModified, parentDao.lastModified() );
+
+        String service = FileUtils.fileRead(conversionService);
+        assertTrue( service.contains("TestParentDTO convertToDto(TestParent value)") );
+        assertTrue( service.contains("TestDTO convertToDto(Test value)") );
+        assertTrue( service.contains("setTestMarker(") );
+        assertEquals( fullService.replaceAll( ".*estMarker.*\\n", "" ), service.replaceAll( ".*estMarker.*\\n", "" ) );
+    }
+
+    /**
+     * @return count of the entities the goal has generated classes for, as the timing report tells
+     */
+    private int executeIncrementalGoal( String goal, Xpp3Dom configuration, File sourceRoot, File buildDirectory )
+            throws Exception {
+        MavenProjectStub project = (MavenProjectStub) createProject( configuration );
+        project.setCompileSourceRoots( Commons.list( sourceRoot.getPath() ) );
+        project.getBuild().setDirectory( buildDirectory.getPath() );
+
+        MojoExecution mojoExecution = newMojoExecution(goal);
+        mojoExecution.setConfiguration( configuration );
+
+        AbstractGeneratorMojo mojo = (AbstractGeneratorMojo) lookupConfiguredMojo(newMavenSession(project), mojoExecution);
+        mojo.setProject(project);
+        mojo.execute();
+
+        List<String> reports = FileUtils.getFileNames( new File( buildDirectory, "generator-reports" ),
+                mojo.getClass().getSimpleName() + "-*.json", null, true );
+        assertEquals( 1, reports.size() );
+        java.util.regex.Matcher matcher = java.util.regex.Pattern.compile("\"processedEntities\": (\\d+)")
+                .matcher( FileUtils.fileRead( reports.get(0) ) );
+        assertTrue( matcher.find() );
+        return Integer.parseInt( matcher.group(1) );
+    }
+
+    private static void appendField( File entityFile, String fieldName ) throws Exception {
+        String entity = FileUtils.fileRead(entityFile);
+        String suffix = Character.toUpperCase( fieldName.charAt(0) ) + fieldName.substring(1);
+        FileUtils.fileWrite( entityFile.getPath(), entity.substring( 0, entity.lastIndexOf('}') )
+                + "    private String " + fieldName + ";\n\n"
+                + "    public String get" + suffix + "() { return " + fieldName + "; }\n\n"
+                + "    public void set" + suffix + "( String value ) { this." + fieldName + " = value; }\n}\n" );
+    }
+
+    public void testUnchangedFilesAreNotRewritten() throws Exception {
+        Xpp3Dom configuration = createConfiguration();
+        MavenProject project = createProject( configuration );
+
+        MojoExecution mojoExecution = newMojoExecution("gen-dto");
+        mojoExecution.setConfiguration( configuration );
+
+        GenDtoMojo mojo = (GenDtoMojo) lookupConfiguredMojo(newMavenSession(project), mojoExecution);
+        mojo.setProject(project);
+        mojo.execute();
+
+        File dtoFile = new File("target/" + Test.class.getCanonicalName().replace('.', '/') + "DTO.java");
+        long lastModified = ( System.currentTimeMillis() / 1000 - 3600 ) * 1000;
+        assertTrue( dtoFile.setLastModified(lastModified) );
+
+        mojo = (GenDtoMojo) lookupConfiguredMojo(newMavenSession(project), mojoExecution);
+        mojo.setProject(project);
+        mojo.execute();
+
+        assertEquals( "Unchanged DTO must not be rewritten", lastModified, dtoFile.lastModified() );
+    }
+
+    public void testLazySourceLoading() throws Exception {
+        Xpp3Dom configuration = createConfiguration();
+        MavenProject project = createProject( configuration );
+
+        MojoExecution mojoExecution = newMojoExecution("gen-dto");
+        mojoExecution.setConfiguration( configuration );
+
+        GenDtoMojo mojo = (GenDtoMojo) lookupConfiguredMojo(newMavenSession(project), mojoExecution);
+        mojo.setProject(project);
+        mojo.execute();
+
+        File dtoFile = new File("target/" + Test.class.getCanonicalName().replace('.', '/') + "DTO.java");
+        String eagerResult = FileUtils.fileRead(dtoFile);
+
+        Xpp3Dom lazySourceLoading = new Xpp3Dom("lazySourceLoading");
+        lazySourceLoading.setValue("true");
+        configuration.addChild(lazySourceLoading);
+        mojoExecution.setConfiguration( configuration );
+
+        mojo = (GenDtoMojo) lookupConfiguredMojo(newMavenSession(project), mojoExecution);
+        mojo.setProject(project);
+        mojo.execute();
+
+        assertEquals( eagerResult, FileUtils.fileRead(dtoFile) );
+    }
+
+    public void testEntityIndexExport() throws Exception {
+        Xpp3Dom configuration = createConfiguration();
+
+        Xpp3Dom exportEntityIndex = new Xpp3Dom("exportEntityIndex");
+        exportEntityIndex.setValue("true");
+        configuration.addChild(exportEntityIndex);
+
+        File classesDirectory = new File("target/test-entities-index");
+        MavenProject project = createProject( configuration );
+        project.getBuild().setOutputDirectory( classesDirectory.getPath() );
+
+        MojoExecution mojoExecution = newMojoExecution("gen-dto");
+        mojoExecution.setConfiguration( configuration );
+
+        GenDtoMojo mojo = (GenDtoMojo) lookupConfiguredMojo(newMavenSession(project), mojoExecution);
+        mojo.setProject(project);
+        mojo.execute();
+
+        EntityMetadataIndex index = new EntityMetadataIndex();
+        index.load(classesDirectory);
+
+        EntityMetadataIndex.Entry entry = index.getEntry( Test.class.getCanonicalName() );
+        assertNotNull(entry);
+        assertEquals( Long.class.getName(), entry.getIdType() );
+        assertEquals( Test.class.getCanonicalName() + "DTO", entry.getDtoClassName() );
+
+        JavaDocBuilder parsed = new JavaDocBuilder();
+        parsed.addSourceTree( new File("src/test/java") );
+        CachingJavaDocBuilder indexed = new CachingJavaDocBuilder(null);
+        assertNotNull( indexed.addIndexedSource( entry.getDeclarations() ) );
+
+        JavaClass parsedClass = parsed.getClassByName( Test.class.getCanonicalName() );
+        JavaClass indexedClass = indexed.getClassByName( Test.class.getCanonicalName() );
+        assertEquals( Arrays.toString( parsedClass.getAnnotations() ), Arrays.toString( indexedClass.getAnnotations() ) );
+        assertEquals( parsedClass.getFields().length, indexedClass.getFields().length );
+    }
+
+    public void testImportedEntityNames() throws Exception {
+        File directory = new File("target/test-imported-entities");
+        FileUtils.deleteDirectory(directory);
+
+        String importedPackage = "com.a5000.platform.api.annotations.generators.jpa.imported";
+        File foreignSource = new File( directory, "foreign/" + importedPackage.replace('.', '/') + "/ForeignParent.java" );
+        foreignSource.getParentFile().mkdirs();
+        FileUtils.fileWrite( foreignSource.getPath(), "package " + importedPackage + ";\n"
+                + "@javax.persistence.Entity\n"
+                + "public class ForeignParent {\n"
+                + "    @javax.persistence.Id private Long id;\n"
+                + "    public Long getId() { return id; }\n"
+                + "    public void setId( Long id ) { this.id = id; }\n"
+                + "}\n" );
+
+        // the dependency names its DTOs its own way
+        final File dependencyClasses = new File( directory, "dependency-classes" );
+        EntityMetadataIndex index = new EntityMetadataIndex();
+        index.add( importedPackage + ".ForeignParent", Long.class.getName(), "com.example.views.ForeignParentView",
+                foreignSource );
+        assertTrue( index.save( dependencyClasses, "UTF-8" ).isEmpty() );
+
+        File sourceRoot = new File( directory, "src" );
+        File localSource = new File( sourceRoot, importedPackage.replace('.', '/') + "/LocalChild.java" );
+        localSource.getParentFile().mkdirs();
+        FileUtils.fileWrite( localSource.getPath(), "package " + importedPackage + ";\n"
+                + "@javax.persistence.Entity\n"
+                + "public class LocalChild extends ForeignParent {\n"
+                + "    private String name;\n"
+                + "    public String getName() { return name; }\n"
+                + "    public void setName( String name ) { this.name = name; }\n"
+                + "}\n" );
+
+        Xpp3Dom configuration = createConfiguration();
+        configuration.getChild("sourceRoot").setValue( sourceRoot.getPath() );
+
+        Xpp3Dom outputPath = new Xpp3Dom("outputPath");
+        outputPath.setValue( new File( directory, "generated" ).getPath() );
+        configuration.addChild(outputPath);
+
+        for ( String goal : new String[] { "gen-dao", "gen-dto" } ) {
+            MavenProjectStub project = (MavenProjectStub) createProject( new MavenProjectStub() {
+                @Override
+                public List<String> getCompileClasspathElements() {
+                    return Commons.list( dependencyClasses.getPath() );
+                }
+            }, configuration );
+            project.setCompileSourceRoots( Commons.list( sourceRoot.getPath() ) );
+            project.getBuild().setDirectory( new File( directory, "build" ).getPath() );
+
+            MojoExecution mojoExecution = newMojoExecution(goal);
+            mojoExecution.setConfiguration(configuration);
+
+            AbstractGeneratorMojo mojo = (AbstractGeneratorMojo) lookupConfiguredMojo( newMavenSession(project), mojoExecution );
+            mojo.setProject(project);
+            mojo.execute();
+        }
+
+        // DAOs of the imported entities are named by this module, DTOs are referred by the names of the dependency
+        String generated = new File( directory, "generated/" + importedPackage.replace('.', '/') ).getPath();
+        assertTrue( new File( generated, "IForeignParentDAO.java" ).exists() );
+        assertTrue( FileUtils.fileRead( new File( generated, "ILocalChildDAO.java" ) ).contains("extends IForeignParentDAO") );
+        String localDto = FileUtils.fileRead( new File( generated, "LocalChildDTO.java" ) );
+        assertTrue( localDto.contains("import com.example.views.ForeignParentView;") );
+        assertTrue( localDto.contains("extends ForeignParentView") );
+    }
+
+    public void testIndexedProjectClassLoader() throws Exception {
+        List<File> classpath = new ArrayList<File>();
+        for ( String element : System.getProperty("java.class.path").split( File.pathSeparator ) ) {
+            classpath.add( new File(element) );
+        }
+
+        IndexedProjectClassLoader classLoader = IndexedProjectClassLoader.create( null, classpath, null );
+        Class<?> loaded = classLoader.loadClass( FileUtils.class.getName() );
+        assertSame( classLoader, loaded.getClassLoader() );
+        assertNotNull( loaded.getMethod( "fileRead", File.class ) );
+        assertNotNull( classLoader.getResource( FileUtils.class.getName().replace('.', '/') + ".class" ) );
+
+        try {
+            classLoader.loadClass( FileUtils.class.getName() + "Missing" );
+            fail("Class must not be found");
+        } catch ( ClassNotFoundException e ) {
+            // expected
+        }
+
+        // elements are looked up in the classpath order, whether they are jars or directories
+        File jar = new File( FileUtils.class.getProtectionDomain().getCodeSource().getLocation().toURI() );
+        File directory = new File("target/test-classloader-precedence");
+        String classPath = FileUtils.class.getName().replace('.', '/') + ".class";
+        new File( directory, classPath ).getParentFile().mkdirs();
+        FileUtils.fileWrite( new File( directory, classPath ).getPath(), "shadowed" );
+
+        ClassLoader jarFirst = IndexedProjectClassLoader.create( null, Arrays.asList( jar, directory ), null );
+        assertNotNull( jarFirst.loadClass( FileUtils.class.getName() ) );
+        assertEquals( "jar", jarFirst.getResource(classPath).getProtocol() );
+        assertEquals( 2, Collections.list( jarFirst.getResources(classPath) ).size() );
+
+        ClassLoader directoryFirst = IndexedProjectClassLoader.create( null, Arrays.asList( directory, jar ), null );
+        assertEquals( "file", directoryFirst.getResource(classPath).getProtocol() );
+
+        // jars shared within the session are closed with its resources and reopened once they are needed again
+        MavenProject project = createProject( createConfiguration() );
+        org.apache.maven.execution.MavenSession session = newMavenSession(project);
+        ClassLoader shared = IndexedProjectClassLoader.create( session, Collections.singletonList(jar), null );
+        assertNotNull( shared.loadClass( FileUtils.class.getName() ) );
+        BuildSessionCache.closeResources(session);
+        assertNotNull( shared.loadClass( org.codehaus.plexus.util.StringUtils.class.getName() ) );
+        BuildSessionCache.release(session);
+    }
+
+    public void testParsedSourcesCache() throws Exception {
+        File cacheDirectory = new File("target/test-parsed-sources-cache");
+        FileUtils.deleteDirectory(cacheDirectory);
+
+        CachingJavaDocBuilder parsed = new CachingJavaDocBuilder( new ParsedSourceCache(cacheDirectory) );
+        parsed.addSourceTree( new File("src/test/java") );
+        assertTrue( parsed.getParsedCount() > 0 );
+
+        CachingJavaDocBuilder cached = new CachingJavaDocBuilder( new ParsedSourceCache(cacheDirectory) );
+        cached.addSourceTree( new File("src/test/java") );
+        assertEquals( parsed.getParsedCount(), cached.getCachedCount() );
+        assertEquals( 0, cached.getParsedCount() );
+
+        for ( JavaClass parsedClass : parsed.getClasses() ) {
+            JavaClass cachedClass = cached.getClassByName( parsedClass.getFullyQualifiedName() );
+            assertEquals( parsedClass.getSuperClass(), cachedClass.getSuperClass() );
+            assertEquals( Arrays.asList( parsedClass.getImplements() ), Arrays.asList( cachedClass.getImplements() ) );
+            assertEquals( Arrays.toString( parsedClass.getAnnotations() ), Arrays.toString( cachedClass.getAnnotations() ) );
+            assertEquals( parsedClass.getFields().length, cachedClass.getFields().length );
+            for ( int i = 0; i < parsedClass.getFields().length; i++ ) {
+                JavaField parsedField = parsedClass.getFields()[i];
+                JavaField cachedField = cachedClass.getFields()[i];
+                assertEquals( parsedField.getName(), cachedField.getName() );
+                assertEquals( parsedField.getType().getGenericValue(), cachedField.getType().getGenericValue() );
+                assertEquals( Arrays.toString( parsedField.getAnnotations() ), Arrays.toString( cachedField.getAnnotations() ) );
+            }
+            assertEquals( parsedClass.getMethods().length, cachedClass.getMethods().length );
+        }
+
+        // models decoded with another encoding are not shared
+        int entries = cacheDirectory.listFiles().length;
+        assertEquals( 0, cached.pruneCache() );
+
+        CachingJavaDocBuilder reencoded = new CachingJavaDocBuilder( new ParsedSourceCache(cacheDirectory) );
+        reencoded.setEncoding( "UTF-8".equals( System.getProperty("file.encoding") ) ? "ISO-8859-1" : "UTF-8" );
+        reencoded.addSourceTree( new File("src/test/java") );
+        assertEquals( 0, reencoded.getCachedCount() );
+        assertEquals( parsed.getParsedCount(), reencoded.getParsedCount() );
+        assertEquals( 2 * entries, cacheDirectory.listFiles().length );
+
+        // entries of the first encoding have not been touched by the last run
+        assertEquals( entries, reencoded.pruneCache() );
+        assertEquals( entries, cacheDirectory.listFiles().length );
+        assertEquals( 0, reencoded.pruneCache() );
     }
 
     protected Xpp3Dom createConfiguration() {
@@ -224,7 +1476,10 @@ public class GenDaoMojoTest extends AbstractMojoTestCase {
     }
 
     protected MavenProject createProject( Xpp3Dom configuration ) {
-        MavenProjectStub project = new MavenProjectStub();
+        return createProject( new MavenProjectStub(), configuration );
+    }
+
+    protected MavenProject createProject( MavenProjectStub project, Xpp3Dom configuration ) {
         project.setGroupId("test-mojo");
         project.setArtifactId("test-mojo");
         project.setCompileSourceRoots(Commons.list("src/test/java"));
@@ -0,0 +1,10 @@
+package com.a5000.platform.api.model.domain.api;
+
+/**
+ * Platform entity interface the conversion services are compiled against by the tests
+ */
+public interface IStoredBean {
+
+    public Long getId();
+
+}
@@ -0,0 +1,14 @@
+package javax.persistence;
+
+/**
+ * JPA 2 interface the conversion services are compiled against by the tests
+ */
+public interface PersistenceUnitUtil {
+
+    public boolean isLoaded( Object entity, String attributeName );
+
+    public boolean isLoaded( Object entity );
+
+    public Object getIdentifier( Object entity );
+
+}
@@ -0,0 +1,10 @@
+package org.springframework.stereotype;
+
+/**
+ * Spring annotation the conversion services are compiled against by the tests
+ */
+public @interface Service {
+
+    public String value() default "";
+
+}